@@ -0,0 +1,15 @@
+package com.jmunoz.hoaxify.configuration;
+
+import lombok.Value;
+
+// Lo que lleva un token de acceso ya comprobado. Ver TokenService
+@Value
+public class AccessToken {
+
+    long userId;
+
+    String username;
+
+    // Segundos desde epoch
+    long expiresAt;
+}
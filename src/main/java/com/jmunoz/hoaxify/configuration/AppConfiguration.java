@@ -3,6 +3,12 @@ package com.jmunoz.hoaxify.configuration;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 // En esta clase mantendremos todas nuestras propiedades personalizadas
 // @ConfigurationProperties sirve para atar las propiedades externas a este objeto. En este caso también definimos
@@ -26,6 +32,129 @@ public class AppConfiguration {
 
     String attachmentsFolder = "attachments";
 
+    // Número de hoaxes más recientes que se mantienen en memoria para servir el inicio del feed global
+    // sin ir a la BD. Ver HoaxFeedCache
+    int feedCacheSize = 500;
+
+    // Nodo de esta instancia cuando se arrancan varias (HOAXIFY_NODE_ID). Sin él se entiende que hay una sola,
+    // y entonces el feed se puede servir desde memoria (ver HoaxFeedCache)
+    Integer nodeId;
+
+    // Server-Sent Events de hoaxes nuevos. Ver HoaxStreamBroadcaster
+    // Eventos pendientes por cliente antes de desconectarlo por lento
+    int streamBufferSize = 64;
+
+    // Tiempo máximo de una conexión en milisegundos. El cliente se vuelve a conectar al cerrarse
+    long streamTimeout = 30 * 60 * 1000L;
+
+    // Hilos que envían los eventos a los clientes
+    int streamDispatchThreads = 2;
+
+    // Tiempo máximo en milisegundos de un envío a un cliente. Pasado, se le desconecta y su hilo se sustituye
+    long streamWriteTimeout = 10000;
+
+    // Long polling de hoaxes nuevos (GET /hoaxes/{id}?direction=after&wait). Ver NewHoaxWaiters
+    // Espera máxima en segundos, aunque el cliente pida más
+    int longPollMaxWait = 30;
+
+    // Hilos que consultan los hoaxes nuevos de los clientes que esperan
+    int longPollThreads = 4;
+
+    // Comprobaciones en cola. Con la cola llena se responde sin esperar (lista vacía)
+    int longPollQueueCapacity = 1000;
+
+    // Caché de usuarios por username. Ver UsernameCache
+    int usernameCacheSize = 10000;
+
+    // Caducidad en segundos
+    long usernameCacheTtl = 300;
+
+    // Hashes de passwords (login y alta). Ver BoundedPasswordEncoder
+    int passwordHashThreads = Runtime.getRuntime().availableProcessors();
+
+    // Hashes esperando un hilo, por cada hilo. Con la cola llena se responde 503.
+    // Con 4, un hash en cola espera como mucho unos 4 hashes
+    int passwordHashQueuePerThread = 4;
+
+    // Espera máxima en milisegundos de la petición al resultado del hash. Pasado ese tiempo se responde 503
+    long passwordHashMaxWait = 1000;
+
+    // Lo que debería tardar un hash de BCrypt en este servidor. El coste se elige al arrancar, ver PasswordHashCalibration
+    Duration passwordHashTarget = Duration.ofMillis(250);
+
+    // Límites del coste de BCrypt. Por debajo de 10 (el de BCryptPasswordEncoder por defecto) solo en los tests
+    int passwordHashMinStrength = 10;
+
+    int passwordHashMaxStrength = 16;
+
+    // Credenciales HTTP Basic ya comprobadas. Ver CachingAuthenticationProvider
+    int credentialCacheSize = 10000;
+
+    // Caducidad en segundos
+    long credentialCacheTtl = 60;
+
+    // Máximo de hoaxes en una petición a POST /hoaxes/batch
+    int hoaxBatchMaxSize = 500;
+
+    // Tamaño máximo de un adjunto. También limita el multipart de Spring (ver application.yml)
+    DataSize attachmentMaxSize = DataSize.ofMegabytes(10);
+
+    // Tamaño máximo de la imagen de perfil, ya decodificada. Ver UploadedFileDeserializer
+    DataSize profileImageMaxSize = DataSize.ofMegabytes(5);
+
+    // Ficheros recibidos que todavía no se han guardado, dentro de upload-path
+    String tempFolder = "tmp";
+
+    // Ficheros borrados esperando a que FileOperationExecutor los elimine, dentro de upload-path
+    String trashFolder = "trash";
+
+    // Migración de los ficheros de profile y attachments a subcarpetas (ver StorageMigration).
+    // Hilos que mueven ficheros. Con 0 no se lanza al arrancar
+    int storageMigrationThreads = 2;
+
+    // Ficheros que mueve cada tarea
+    int storageMigrationBatchSize = 500;
+
+    // Bytes del principio del fichero con los que se detecta su tipo
+    int typeDetectionBytes = 8 * 1024;
+
+    // Versiones reducidas de las imágenes subidas. Ver ImageVariantGenerator
+    // Anchuras en píxeles
+    List<Integer> imageVariantWidths = new ArrayList<>(Arrays.asList(40, 200));
+
+    int imageVariantThreads = 1;
+
+    // Imágenes esperando. Con la cola llena se quedan sin variantes
+    int imageVariantQueueCapacity = 100;
+
+    // Borrado de ficheros en segundo plano. Ver FileOperationExecutor
+    int fileThreads = 2;
+
+    // Borrados en cola. Con la cola llena los hace el hilo que los pide
+    int fileQueueCapacity = 1000;
+
+    // Espera en milisegundos antes del primer reintento de un borrado que ha fallado. Se duplica en cada intento
+    long fileRetryDelay = 500;
+
+    // Tokens de acceso que da POST /login. Ver TokenService
+    // Clave del HMAC en base64, de al menos 32 bytes. Sin clave se genera una al arrancar
+    String tokenSecret;
+
+    Duration tokenTtl = Duration.ofMinutes(15);
+
+    // Limpieza de adjuntos sin hoax. Ver FileService.cleanupStorage
+    // Filas que se leen y se borran de una vez
+    int cleanupBatchSize = 500;
+
+    // Hilos que borran los ficheros de cada lote
+    int cleanupThreads = 4;
+
+    // Diario de borrados pendientes, dentro de upload-path
+    String deleteJournal = "delete-journal";
+
+    // Crecimiento del diario a partir del cual se reescribe solo con los borrados sin terminar
+    DataSize deleteJournalMaxSize = DataSize.ofMegabytes(1);
+
     public String getFullProfileImagesPath() {
         return this.uploadPath + "/" + this.profileImagesFoder;
     }
@@ -33,4 +162,16 @@ public class AppConfiguration {
     public String getFullAttachmentsPath() {
         return this.uploadPath + "/" + this.attachmentsFolder;
     }
+
+    public String getFullTempPath() {
+        return this.uploadPath + "/" + this.tempFolder;
+    }
+
+    public String getFullTrashPath() {
+        return this.uploadPath + "/" + this.trashFolder;
+    }
+
+    public String getFullDeleteJournalPath() {
+        return this.uploadPath + "/" + this.deleteJournal;
+    }
 }
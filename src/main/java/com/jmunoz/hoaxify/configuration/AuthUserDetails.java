@@ -0,0 +1,62 @@
+package com.jmunoz.hoaxify.configuration;
+
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+
+// Lo que necesita DaoAuthenticationProvider para comprobar un login: el usuario y el hash de su password.
+// No sale del login, CachingAuthenticationProvider deja en el contexto solo el AuthenticatedUser
+public class AuthUserDetails implements UserDetails {
+
+    private static final long serialVersionUID = -2718190625038612711L;
+
+    private final AuthenticatedUser user;
+
+    private final String password;
+
+    public AuthUserDetails(AuthenticatedUser user, String password) {
+        this.user = user;
+        this.password = password;
+    }
+
+    public AuthenticatedUser getUser() {
+        return user;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return user.getAuthorities();
+    }
+
+    @Override
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public String getUsername() {
+        return user.getUsername();
+    }
+
+    @Override
+    public boolean isAccountNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isAccountNonLocked() {
+        return true;
+    }
+
+    @Override
+    public boolean isCredentialsNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+}
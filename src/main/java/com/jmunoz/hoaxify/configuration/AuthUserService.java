@@ -1,15 +1,17 @@
 package com.jmunoz.hoaxify.configuration;
 
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
 import com.jmunoz.hoaxify.user.User;
 import com.jmunoz.hoaxify.user.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
 @Service
-public class AuthUserService implements UserDetailsService {
+public class AuthUserService implements UserDetailsService, UserDetailsPasswordService {
 
     @Autowired
     UserRepository userRepository;
@@ -23,7 +25,7 @@ public class AuthUserService implements UserDetailsService {
     //    que vienen del objeto User.
     // 2. Implementar UserDetails directamente en nuestro User entity.
     //
-    // Vamos a implementar la primera opción.
+    // Vamos a implementar la primera opción: AuthUserDetails, con un AuthenticatedUser y el hash del password.
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
         User user = userRepository.findByUsername(username);
@@ -32,6 +34,15 @@ public class AuthUserService implements UserDetailsService {
             throw new UsernameNotFoundException("User not found");
         }
 
-        return user;
+        return new AuthUserDetails(new AuthenticatedUser(user), user.getPassword());
+    }
+
+    // DaoAuthenticationProvider lo llama tras un login correcto si passwordEncoder.upgradeEncoding dice que el hash
+    // guardado es de otro algoritmo o de menos coste que el actual (ver SecurityConfiguration.passwordEncoder).
+    // newPassword ya es el hash nuevo, hecho con el password que acaba de comprobar
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        userRepository.updatePassword(user.getUsername(), newPassword);
+        return new AuthUserDetails(((AuthUserDetails) user).getUser(), newPassword);
     }
 }
@@ -1,5 +1,7 @@
 package com.jmunoz.hoaxify.configuration;
 
+import com.jmunoz.hoaxify.error.PasswordHashingBusyException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.web.AuthenticationEntryPoint;
@@ -11,8 +13,17 @@ import java.io.IOException;
 
 public class BasicAuthenticationEntryPoint implements AuthenticationEntryPoint {
 
+    // Segundos que se pide esperar al cliente cuando no se ha podido comprobar el password por carga
+    private static final String RETRY_AFTER = "1";
+
     @Override
     public void commence(HttpServletRequest request, HttpServletResponse response, AuthenticationException authException) throws IOException, ServletException {
+        // Las credenciales no se han llegado a comprobar (ver BoundedPasswordEncoder): no son incorrectas
+        if (authException instanceof PasswordHashingBusyException) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER);
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), authException.getMessage());
+            return;
+        }
         response.sendError(HttpStatus.UNAUTHORIZED.value(), HttpStatus.UNAUTHORIZED.getReasonPhrase());
     }
 }
@@ -0,0 +1,154 @@
+package com.jmunoz.hoaxify.configuration;
+
+import com.jmunoz.hoaxify.error.PasswordHashingBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// PasswordEncoder que hace los hashes (login y alta de usuarios) en un pool propio de
+// hoaxify.password-hash-threads hilos, por defecto uno por core.
+// Cada hash de BCrypt son decenas de milisegundos de CPU. Sin el pool, una avalancha de logins ocupaba todos los
+// hilos de Tomcat y el resto de peticiones (el feed, que no necesita hashes) esperaban detrás.
+// El hilo de la petición espera al resultado, pero como mucho hay hoaxify.password-hash-queue-per-thread hashes
+// en cola por hilo: los que no caben se rechazan enseguida con PasswordHashingBusyException (503), en vez de
+// esperar. Y la espera está acotada por hoaxify.password-hash-max-wait: pasado ese tiempo también se responde 503.
+//
+// Métricas (en /actuator/metrics):
+//   hoaxify.password.hash        duración de cada hash, con tag operation (encode o matches)
+//   hoaxify.password.queue.wait  tiempo en cola hasta que un hilo empieza el hash
+//   hoaxify.password.queue       hashes esperando un hilo
+//   hoaxify.password.rejected    hashes rechazados por la cola llena o por esperar demasiado
+public class BoundedPasswordEncoder implements PasswordEncoder, MeterBinder {
+
+    private final PasswordEncoder delegate;
+
+    private final ThreadPoolExecutor executor;
+
+    private final long maxWait;
+
+    private volatile MeterRegistry meterRegistry;
+
+    public BoundedPasswordEncoder(PasswordEncoder delegate, AppConfiguration appConfiguration) {
+        this.delegate = delegate;
+        this.maxWait = appConfiguration.getPasswordHashMaxWait();
+        AtomicInteger threadCount = new AtomicInteger();
+        int threads = appConfiguration.getPasswordHashThreads();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * appConfiguration.getPasswordHashQueuePerThread()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "hoaxify-password-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return hash("encode", () -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return hash("matches", () -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    // Solo mira el hash guardado, no calcula nada
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private <T> T hash(String operation, Callable<T> task) {
+        long submittedAt = System.nanoTime();
+        Future<T> result;
+        try {
+            result = executor.submit(() -> {
+                long startedAt = System.nanoTime();
+                record("hoaxify.password.queue.wait", null, startedAt - submittedAt);
+                try {
+                    return task.call();
+                } finally {
+                    record("hoaxify.password.hash", operation, System.nanoTime() - startedAt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            countRejected();
+            throw new PasswordHashingBusyException("Too many password checks in progress, try again later");
+        }
+
+        try {
+            return result.get(maxWait, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Si aún está en cola se quita, para dejar el hueco a otro
+            result.cancel(true);
+            executor.remove((Runnable) result);
+            countRejected();
+            throw new PasswordHashingBusyException("Password check took too long, try again later");
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingBusyException("Interrupted while waiting for the password check");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void countRejected() {
+        MeterRegistry registry = meterRegistry;
+        if (registry != null) {
+            registry.counter("hoaxify.password.rejected").increment();
+        }
+    }
+
+    private void record(String name, String operation, long nanos) {
+        MeterRegistry registry = meterRegistry;
+        if (registry != null) {
+            Timer.Builder timer = Timer.builder(name);
+            if (operation != null) {
+                timer.tag("operation", operation);
+            }
+            timer.register(registry).record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("hoaxify.password.queue", executor, e -> e.getQueue().size())
+                .description("Password hashes waiting for a thread")
+                .register(registry);
+        Counter.builder("hoaxify.password.rejected")
+                .description("Password hashes rejected because the queue was full or the wait too long")
+                .register(registry);
+        this.meterRegistry = registry;
+    }
+
+    // Spring lo llama al parar la app (destroy method inferido de los @Bean)
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,44 @@
+package com.jmunoz.hoaxify.configuration;
+
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+// Autenticación HTTP Basic (ver SecurityConfiguration.loginFilterChain) que recuerda durante
+// hoaxify.credential-cache-ttl las credenciales que ya se han comprobado. Si un cliente repite el login con las
+// mismas credenciales, no se vuelve a consultar el usuario (AuthUserService) ni a pasar el password por BCrypt.
+//
+// Solo se guardan los aciertos: las credenciales incorrectas van siempre a delegate, así que no se llena la caché
+// probando passwords. Si el usuario cambia, UserService invalida sus entradas (ver CredentialCache).
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+
+    private final AuthenticationProvider delegate;
+
+    private final CredentialCache credentialCache;
+
+    public CachingAuthenticationProvider(AuthenticationProvider delegate, CredentialCache credentialCache) {
+        this.delegate = delegate;
+        this.credentialCache = credentialCache;
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        String username = authentication.getName();
+        Object credentials = authentication.getCredentials();
+        if (username == null || credentials == null) {
+            return delegate.authenticate(authentication);
+        }
+
+        // Si delegate lanza la excepción, no se guarda nada. Del AuthUserDetails solo se guarda el usuario, sin el hash
+        AuthenticatedUser user = credentialCache.get(credentialCache.key(username, credentials.toString()),
+                key -> ((AuthUserDetails) delegate.authenticate(authentication).getPrincipal()).getUser());
+        return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return delegate.supports(authentication);
+    }
+}
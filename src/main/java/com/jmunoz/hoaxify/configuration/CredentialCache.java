@@ -0,0 +1,60 @@
+package com.jmunoz.hoaxify.configuration;
+
+import com.jmunoz.hoaxify.shared.ExpiringCache;
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+
+// Credenciales HTTP Basic que ya se han comprobado bien, con el usuario que se cargó. Ver
+// CachingAuthenticationProvider.
+//
+// La clave es un HMAC-SHA256 del username y el password, nunca el password. La clave del HMAC se genera al
+// arrancar y no sale de memoria, así que las entradas no sirven para probar passwords fuera de la app.
+// Al ser un hash, no se puede buscar por username: UserService invalida con invalidateUser, que recorre la caché.
+@Component
+public class CredentialCache extends ExpiringCache<String, AuthenticatedUser> {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+
+    // Mac no es thread-safe
+    private final ThreadLocal<Mac> macs;
+
+    public CredentialCache(AppConfiguration appConfiguration) {
+        super(appConfiguration.getCredentialCacheSize(), Duration.ofSeconds(appConfiguration.getCredentialCacheTtl()));
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        SecretKeySpec key = new SecretKeySpec(secret, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                // HmacSHA256 está en todas las JVM
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    // La longitud del username delante, para que "ab" + "c" y "a" + "bc" no den lo mismo
+    public String key(String username, String password) {
+        Mac mac = macs.get();
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        mac.update((user.length + ":").getBytes(StandardCharsets.US_ASCII));
+        mac.update(user);
+        return ENCODER.encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public void invalidateUser(String username) {
+        invalidateIf(user -> user.getUsername().equals(username));
+    }
+}
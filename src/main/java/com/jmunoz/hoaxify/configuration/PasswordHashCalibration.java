@@ -0,0 +1,63 @@
+package com.jmunoz.hoaxify.configuration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.function.IntToLongFunction;
+
+// Elige al arrancar el coste de BCrypt (strength, log2 de las rondas) con el que un hash tarda lo más cerca posible
+// de hoaxify.password-hash-target sin pasarse, entre hoaxify.password-hash-min-strength y -max-strength.
+// Así cada servidor usa el coste que se puede permitir, en vez del 10 fijo de BCryptPasswordEncoder.
+//
+// Cada punto de coste duplica el tiempo, así que se mide desde el mínimo hacia arriba y se para cuando el
+// siguiente ya pasaría del objetivo. Como mucho se hashea durante el doble del objetivo.
+//
+// Los hashes guardados con otro coste se siguen comprobando (el coste va dentro del hash) y los de menos coste
+// se rehacen en el siguiente login (ver AuthUserService.updatePassword). Los de más coste no se rebajan: si
+// varias instancias calibran distinto, un hash no va cambiando de una a otra.
+public final class PasswordHashCalibration {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHashCalibration.class);
+
+    private static final String SAMPLE_PASSWORD = "P4ssword-calibration";
+
+    private PasswordHashCalibration() {
+    }
+
+    public static int calibrate(AppConfiguration appConfiguration) {
+        int min = appConfiguration.getPasswordHashMinStrength();
+        // El primer hash también carga las clases y calienta el JIT, no cuenta
+        measure(min);
+        int strength = calibrate(appConfiguration.getPasswordHashTarget(), min,
+                appConfiguration.getPasswordHashMaxStrength(), PasswordHashCalibration::measure);
+        log.info("BCrypt strength {} for a target of {} ms per hash", strength,
+                appConfiguration.getPasswordHashTarget().toMillis());
+        return strength;
+    }
+
+    // measure devuelve los nanosegundos de un hash con ese coste
+    public static int calibrate(Duration target, int min, int max, IntToLongFunction measure) {
+        long targetNanos = target.toNanos();
+        int strength = min;
+        long nanos = measure.applyAsLong(strength);
+        while (strength < max && nanos * 2 <= targetNanos) {
+            strength++;
+            nanos = measure.applyAsLong(strength);
+        }
+        // La estimación falló (ruido en la medida): el anterior sí cumplía
+        if (nanos > targetNanos && strength > min) {
+            strength--;
+        }
+        return strength;
+    }
+
+    private static long measure(int strength) {
+        PasswordEncoder encoder = new BCryptPasswordEncoder(strength);
+        long start = System.nanoTime();
+        encoder.encode(SAMPLE_PASSWORD);
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,27 @@
+package com.jmunoz.hoaxify.configuration;
+
+import com.jmunoz.hoaxify.error.PasswordHashingBusyException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+
+// DaoAuthenticationProvider en el que el rehash tras un login correcto (ver AuthUserService.updatePassword) es
+// opcional. El hash nuevo también pasa por BoundedPasswordEncoder, y si el pool está lleno no se responde 503 a un
+// login cuyo password ya se ha comprobado: se deja el hash como estaba y se rehace en otro login.
+public class RehashingAuthenticationProvider extends DaoAuthenticationProvider {
+
+    @Override
+    protected Authentication createSuccessAuthentication(Object principal, Authentication authentication,
+                                                         UserDetails user) {
+        try {
+            return super.createSuccessAuthentication(principal, authentication, user);
+        } catch (PasswordHashingBusyException e) {
+            // Lo mismo que hace AbstractUserDetailsAuthenticationProvider, sin el rehash
+            UsernamePasswordAuthenticationToken result = UsernamePasswordAuthenticationToken.authenticated(
+                    principal, authentication.getCredentials(), user.getAuthorities());
+            result.setDetails(authentication.getDetails());
+            return result;
+        }
+    }
+}
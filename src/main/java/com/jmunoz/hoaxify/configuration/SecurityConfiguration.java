@@ -1,30 +1,82 @@
 package com.jmunoz.hoaxify.configuration;
 
+import com.jmunoz.hoaxify.user.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+
+import java.util.HashMap;
+import java.util.Map;
 
 // Se usa @EnableGlobalMethodSecurity para habilitar seguridad a nivel de método. Ver UserController
 @EnableWebSecurity
 @EnableGlobalMethodSecurity(prePostEnabled = true)
 public class SecurityConfiguration {
 
+    private static final String BCRYPT = "bcrypt";
+
     @Autowired
     AuthUserService authUserService;
 
+    // HTTP Basic solo se admite en el login, que devuelve un token de acceso (ver TokenService). El resto de
+    // peticiones se autentican con ese token, así que BCrypt y la consulta del usuario se hacen una vez por login
+    // y no en cada petición.
+    // Esta cadena va antes (@Order(1)) y solo cubre /api/1.0/login.
+    //
+    // Las credenciales se comprueban con AuthUserService y passwordEncoder, que si hace falta rehace el hash tras
+    // un login correcto (ver RehashingAuthenticationProvider). Delante de los cuales está
+    // CachingAuthenticationProvider, que recuerda un rato las que ya se han comprobado.
+    @Bean
+    @Order(1)
+    public SecurityFilterChain loginFilterChain(HttpSecurity http, PasswordEncoder passwordEncoder,
+                                                CredentialCache credentialCache) throws Exception {
+        http.antMatcher("/api/1.0/login");
+        DaoAuthenticationProvider userDetailsProvider = new RehashingAuthenticationProvider();
+        userDetailsProvider.setUserDetailsService(authUserService);
+        userDetailsProvider.setPasswordEncoder(passwordEncoder);
+        userDetailsProvider.setUserDetailsPasswordService(authUserService);
+        http.authenticationManager(new ProviderManager(
+                new CachingAuthenticationProvider(userDetailsProvider, credentialCache)));
+
+        http.csrf().disable();
+        http.headers().disable();
+
+        http.httpBasic().authenticationEntryPoint(new BasicAuthenticationEntryPoint());
+
+        http
+                .authorizeRequests()
+                .antMatchers(HttpMethod.POST, "/api/1.0/login").authenticated()
+                .and()
+                .authorizeRequests().anyRequest().permitAll();
+
+        http.sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
+
+        return http.build();
+    }
+
     // Se ha deprecado extends WebSecurityConfiguredAdapter. Ver:
     // https://spring.io/blog/2022/02/21/spring-security-without-the-websecurityconfigureradapter
+    //
+    // UserService se recibe como parámetro y no con @Autowired: depende de passwordEncoder, que se define aquí,
+    // y con un campo sería una dependencia circular
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws  Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, TokenService tokenService, UserService userService)
+            throws  Exception {
         http.csrf().disable();
 
         // Queremos ver como quedan los datos de User y Hoax en la BD H2.
@@ -40,12 +92,15 @@ public class SecurityConfiguration {
         // Tras los arreglos ahora vemos en USER_ID de la tabla HOAX el valor 1 (el id del user). Correcto
         http.headers().disable();
 
-        http.httpBasic().authenticationEntryPoint(new BasicAuthenticationEntryPoint());
+        // Sin Basic. Las peticiones sin token (o con uno que no vale) reciben el mismo 401 que antes
+        http.addFilterBefore(new TokenAuthenticationFilter(tokenService, userService),
+                UsernamePasswordAuthenticationFilter.class);
+        http.exceptionHandling().authenticationEntryPoint(new BasicAuthenticationEntryPoint());
 
         http
                 .authorizeRequests()
-                .antMatchers(HttpMethod.POST, "/api/1.0/login").authenticated()
                 .antMatchers(HttpMethod.PUT, "/api/1.0/users/{id:[0-9]+}").authenticated()
+                .antMatchers(HttpMethod.PUT, "/api/1.0/users/{id:[0-9]+}/image").authenticated()
                 .antMatchers(HttpMethod.POST, "/api/1.0/hoaxes/**").authenticated()
                 .antMatchers(HttpMethod.DELETE, "/api/1.0/hoaxes/{id:[0-9]+}").authenticated()
                 .and()
@@ -56,9 +111,21 @@ public class SecurityConfiguration {
         return http.build();
     }
 
+    // Los hashes nuevos son {bcrypt}... con el coste calibrado al arrancar (ver PasswordHashCalibration).
+    // DelegatingPasswordEncoder comprueba cada hash guardado con el algoritmo de su prefijo. Los guardados antes de
+    // este cambio no tienen prefijo y son de BCrypt. Los que no son {bcrypt} con el coste actual se rehacen al
+    // hacer login (ver AuthUserService.updatePassword).
+    //
+    // Todo en un pool acotado, para que los hashes no ocupen los hilos de Tomcat. Ver BoundedPasswordEncoder.
+    // Se declara con su tipo para que Spring Boot registre sus métricas (MeterBinder)
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public BoundedPasswordEncoder passwordEncoder(AppConfiguration appConfiguration) {
+        Map<String, PasswordEncoder> encoders = new HashMap<>();
+        encoders.put(BCRYPT, new BCryptPasswordEncoder(PasswordHashCalibration.calibrate(appConfiguration)));
+        encoders.put("pbkdf2", new Pbkdf2PasswordEncoder());
+        DelegatingPasswordEncoder delegatingEncoder = new DelegatingPasswordEncoder(BCRYPT, encoders);
+        delegatingEncoder.setDefaultPasswordEncoderForMatches(new BCryptPasswordEncoder());
+        return new BoundedPasswordEncoder(delegatingEncoder, appConfiguration);
     }
 
     @Bean
@@ -0,0 +1,66 @@
+package com.jmunoz.hoaxify.configuration;
+
+import com.jmunoz.hoaxify.error.NotFoundException;
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
+import com.jmunoz.hoaxify.user.UserService;
+import com.jmunoz.hoaxify.user.UserSnapshot;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+// Autentica las peticiones que llevan "Authorization: Bearer <token>" (ver TokenService).
+// El usuario sale de UserService.getByUsername, que normalmente lo tiene en UsernameCache, así que ni BCrypt ni BD.
+// Si el token no vale la petición sigue sin autenticar, y las rutas protegidas responden 401.
+//
+// No es un @Component: Spring Boot registraría también el filtro fuera de Spring Security. Lo crea
+// SecurityConfiguration.
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+
+    private static final String BEARER = "Bearer ";
+
+    private final TokenService tokenService;
+
+    private final UserService userService;
+
+    public TokenAuthenticationFilter(TokenService tokenService, UserService userService) {
+        this.tokenService = tokenService;
+        this.userService = userService;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header != null && header.startsWith(BEARER)) {
+            AccessToken token = tokenService.decode(header.substring(BEARER.length()).trim());
+            AuthenticatedUser user = token == null ? null : loadUser(token);
+            if (user != null) {
+                UsernamePasswordAuthenticationToken authentication =
+                        new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+                SecurityContextHolder.getContext().setAuthentication(authentication);
+            }
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    // Mismo principal que con Basic, para que @CurrentUser y los @PreAuthorize no cambien
+    private AuthenticatedUser loadUser(AccessToken token) {
+        UserSnapshot snapshot;
+        try {
+            snapshot = userService.getByUsername(token.getUsername());
+        } catch (NotFoundException e) {
+            return null;
+        }
+        if (snapshot.getId() != token.getUserId()) {
+            return null;
+        }
+        return new AuthenticatedUser(snapshot);
+    }
+}
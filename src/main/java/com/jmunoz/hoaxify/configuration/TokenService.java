@@ -0,0 +1,113 @@
+package com.jmunoz.hoaxify.configuration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// Tokens de acceso que da POST /api/1.0/login y que comprueba TokenAuthenticationFilter en el resto de peticiones.
+// Con HTTP Basic cada petición autenticada cargaba el usuario de la BD y pasaba el password por BCrypt (unos 100ms
+// de CPU). El token se comprueba con un HMAC, sin BD.
+//
+// Formato: base64url(id:expiresAt:username) + "." + base64url(HMAC-SHA256 de lo anterior).
+// No se guardan en ningún sitio, así que no se pueden revocar: caducan a los hoaxify.token-ttl.
+//
+// La clave es hoaxify.token-secret. Si no se configura se genera una al arrancar, y los tokens dejan de valer al
+// reiniciar la app y no sirven entre instancias.
+@Component
+public class TokenService {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenService.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final int MIN_SECRET_BYTES = 32;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final AppConfiguration appConfiguration;
+
+    private final SecretKeySpec key;
+
+    // Mac no es thread-safe
+    private final ThreadLocal<Mac> macs;
+
+    public TokenService(AppConfiguration appConfiguration) {
+        this.appConfiguration = appConfiguration;
+        this.key = new SecretKeySpec(getSecret(appConfiguration.getTokenSecret()), ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                // HmacSHA256 está en todas las JVM
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static byte[] getSecret(String secret) {
+        if (secret == null || secret.isEmpty()) {
+            log.warn("hoaxify.token-secret is not set, access tokens will not survive a restart");
+            byte[] generated = new byte[MIN_SECRET_BYTES];
+            new SecureRandom().nextBytes(generated);
+            return generated;
+        }
+        byte[] decoded = Base64.getDecoder().decode(secret);
+        if (decoded.length < MIN_SECRET_BYTES) {
+            throw new IllegalStateException("hoaxify.token-secret must be at least " + MIN_SECRET_BYTES + " bytes");
+        }
+        return decoded;
+    }
+
+    public AccessToken issue(long userId, String username) {
+        long expiresAt = System.currentTimeMillis() / 1000 + appConfiguration.getTokenTtl().getSeconds();
+        return new AccessToken(userId, username, expiresAt);
+    }
+
+    public String encode(AccessToken token) {
+        String payload = ENCODER.encodeToString((token.getUserId() + ":" + token.getExpiresAt() + ":"
+                + token.getUsername()).getBytes(StandardCharsets.UTF_8));
+        return payload + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    // null si el token no es válido, está manipulado o ha caducado
+    public AccessToken decode(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        try {
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            // Comparación en tiempo constante, para no dar pistas de la firma correcta
+            if (!MessageDigest.isEqual(signature, sign(payload))) {
+                return null;
+            }
+            // El username va el último porque puede contener ':'
+            String[] parts = new String(DECODER.decode(payload), StandardCharsets.UTF_8).split(":", 3);
+            if (parts.length != 3) {
+                return null;
+            }
+            AccessToken accessToken = new AccessToken(Long.parseLong(parts[0]), parts[2], Long.parseLong(parts[1]));
+            return accessToken.getExpiresAt() > System.currentTimeMillis() / 1000 ? accessToken : null;
+        } catch (IllegalArgumentException e) {
+            // Base64 o números mal formados (NumberFormatException también es IllegalArgumentException)
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -1,14 +1,18 @@
 package com.jmunoz.hoaxify.configuration;
 
+import com.jmunoz.hoaxify.file.ShardedResourceResolver;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.http.CacheControl;
+import org.springframework.orm.jpa.support.OpenEntityManagerInViewInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import javax.persistence.EntityManagerFactory;
 import java.io.File;
 import java.util.concurrent.TimeUnit;
 
@@ -22,17 +26,40 @@ public class WebConfiguration implements WebMvcConfigurer {
     @Autowired
     AppConfiguration appConfiguration;
 
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
     // Spring usa ResourceHandlerRegistry para configurar las asignaciones de recursos
     // Lo que sea que empiece por /images se servirá por esta configuración, y se indica donde buscará
     // Spring cuando se reciba un request.
     // Es básicamente un mapeo de estructura de carpetas.
     // Si, por ejemplo se recibe un request a /images/profile/my-profile-picture.jpg buscará en la carpeta
     // profile bajo el path de upload definido y entonces buscará el nombre del archivo de imagen.
+    //
+    // Los ficheros están repartidos en subcarpetas (ver StorageLayout). ShardedResourceResolver busca en la
+    // subcarpeta y, mientras dura la migración, en la carpeta sin repartir.
+    // La cadena va sin caché (resourceChain(false)): si StorageMigration mueve un fichero ya servido, una
+    // resolución cacheada apuntaría a la ruta antigua.
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         registry.addResourceHandler("/images/**")
                 .addResourceLocations("file:" + appConfiguration.getUploadPath() + "/")
-                .setCacheControl(CacheControl.maxAge(365, TimeUnit.DAYS));
+                .setCacheControl(CacheControl.maxAge(365, TimeUnit.DAYS))
+                .resourceChain(false)
+                .addResolver(new ShardedResourceResolver());
+    }
+
+    // Open EntityManager in View, que Spring Boot registra por defecto para todas las rutas (desactivado
+    // en application.yml con spring.jpa.open-in-view: false).
+    // Lo registramos nosotros para excluir las conexiones SSE: duran minutos y no necesitan la BD, así que no
+    // tiene sentido tener un EntityManager abierto todo ese tiempo. Además, si el cliente se desconectaba
+    // mientras se abría el stream, el interceptor intentaba cerrar dos veces el EntityManager.
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        OpenEntityManagerInViewInterceptor interceptor = new OpenEntityManagerInViewInterceptor();
+        interceptor.setEntityManagerFactory(entityManagerFactory);
+        registry.addWebRequestInterceptor(interceptor)
+                .excludePathPatterns("/api/1.0/hoaxes/stream", "/api/1.0/users/*/hoaxes/stream");
     }
 
     // Se ejecuta este Bean para profiles que son dev
@@ -0,0 +1,14 @@
+package com.jmunoz.hoaxify.error;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class BadRequestException extends RuntimeException {
+
+    private static final long serialVersionUID = 2381740982143250916L;
+
+    public BadRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,18 @@
+package com.jmunoz.hoaxify.error;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// Todos los hilos de BCrypt están ocupados y la cola está llena (ver BoundedPasswordEncoder).
+// Es una AuthenticationException para que, durante el login, Spring Security la pase a
+// BasicAuthenticationEntryPoint, que responde 503 y no 401. En el alta (UserService.save) la responde @ResponseStatus
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class PasswordHashingBusyException extends AuthenticationException {
+
+    private static final long serialVersionUID = 2903175120640389472L;
+
+    public PasswordHashingBusyException(String message) {
+        super(message);
+    }
+}
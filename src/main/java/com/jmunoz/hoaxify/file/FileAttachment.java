@@ -1,19 +1,27 @@
 package com.jmunoz.hoaxify.file;
 
 import com.jmunoz.hoaxify.hoax.Hoax;
+import com.jmunoz.hoaxify.shared.TimeOrderedIdGenerator;
 import lombok.Data;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
 
 import javax.persistence.*;
 import java.util.Date;
 
 // Como hemos creado el repository esta Clase la necesitamos como @Entity y creamos el campo id
 // También guardamos la fecha como Timestamp
+//
+// @DynamicUpdate: los updates solo llevan las columnas modificadas. Al enlazar el adjunto con su hoax no se
+// sobrescriben las variantes que ImageVariantGenerator haya guardado mientras tanto
 @Data
 @Entity
+@DynamicUpdate
 public class FileAttachment {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = TimeOrderedIdGenerator.NAME)
+    @GenericGenerator(name = TimeOrderedIdGenerator.NAME, strategy = TimeOrderedIdGenerator.STRATEGY)
     private long id;
 
     @Temporal(TemporalType.TIMESTAMP)
@@ -23,6 +31,9 @@ public class FileAttachment {
 
     private String fileType;
 
+    // Anchuras de las variantes que ya están generadas, si es una imagen. Ver ImageVariants
+    private String variants;
+
     // Se establecen las relaciones entre Hoax y FileAttachment
     // Un hoax puede tener un fichero adjunto
     @OneToOne
@@ -1,11 +1,46 @@
 package com.jmunoz.hoaxify.file;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 
 public interface FileAttachmentRepository extends JpaRepository<FileAttachment, Long> {
 
-    List<FileAttachment> findByDateBeforeAndHoaxIsNull(Date date);
+    // Adjuntos sin hoax anteriores a date, por orden de id a partir de afterId (ver FileService.cleanupStorage).
+    // El siguiente lote empieza en el último id del anterior, así que no se cuentan ni se saltan filas como con
+    // un offset
+    @Query("select new com.jmunoz.hoaxify.file.OrphanAttachment(a.id, a.name) from FileAttachment a "
+            + "where a.date < :date and a.hoax is null and a.id > :afterId order by a.id")
+    List<OrphanAttachment> findOrphans(@Param("date") Date date, @Param("afterId") long afterId, Pageable pageable);
+
+    // Un solo delete por lote. Se vuelve a comprobar que no tienen hoax: se puede haber enlazado alguno desde
+    // que se leyó el lote
+    @Modifying
+    @Transactional
+    @Query("delete from FileAttachment a where a.id in :ids and a.hoax is null")
+    int deleteOrphans(@Param("ids") Collection<Long> ids);
+
+    // Solo el nombre del fichero, para borrarlo del disco al borrar el hoax
+    @Query("select a.name from FileAttachment a where a.hoax.id = :hoaxId")
+    Optional<String> findNameByHoaxId(@Param("hoaxId") long hoaxId);
+
+    // Las variantes se generan en segundo plano (ver FileService.saveAttachment). Son de todas las filas que
+    // comparten el fichero
+    @Modifying
+    @Transactional
+    @Query("update FileAttachment a set a.variants = :variants where a.name = :name")
+    int updateVariants(@Param("name") String name, @Param("variants") String variants);
+
+    // Referencias a un fichero. Ver FileService.deleteAttachmentImage
+    long countByName(String name);
+
+    Optional<FileAttachment> findFirstByNameAndVariantsNotNull(String name);
 }
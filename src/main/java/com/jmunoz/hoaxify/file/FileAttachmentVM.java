@@ -3,6 +3,9 @@ package com.jmunoz.hoaxify.file;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Collections;
+import java.util.Map;
+
 @Data
 @NoArgsConstructor
 public class FileAttachmentVM {
@@ -11,8 +14,12 @@ public class FileAttachmentVM {
 
     private String fileType;
 
+    // Anchura -> nombre de cada variante reducida, si es una imagen. Ver ImageVariants
+    private Map<Integer, String> variants = Collections.emptyMap();
+
     public FileAttachmentVM(FileAttachment fileAttachment) {
         this.setName(fileAttachment.getName());
         this.setFileType(fileAttachment.getFileType());
+        this.setVariants(ImageVariants.names(fileAttachment.getName(), fileAttachment.getVariants()));
     }
 }
@@ -0,0 +1,353 @@
+package com.jmunoz.hoaxify.file;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Operaciones de ficheros fuera del hilo de la petición: borrados y, en general, cualquier tarea con execute
+// (FileService mueve así los ficheros a la papelera). Ver FileService.
+//
+// Los borrados se encolan (normalmente al confirmar la transacción, con AfterCommit) y la petición responde sin
+// esperar al disco. La cola está acotada: si se llena, la operación la hace el hilo que la pide, así que un disco
+// lento frena las peticiones en vez de llenar la memoria.
+//
+// Cada borrado se anota en un diario (hoaxify.delete-journal, dentro de upload-path) antes de intentarlo. Lo
+// escribe un hilo propio, que junta todos los que haya en cola en un solo write y un solo force: delete no
+// espera al disco y los borrados en paralelo comparten el fsync.
+// Si un borrado falla se reintenta con una espera cada vez mayor, y los que no se han terminado cuando se para la
+// app se repiten al arrancar. Los que agotan los reintentos dejan de contar como pendientes y se apartan hasta el
+// siguiente arranque. El diario se reescribe solo con los que siguen sin terminar y los que han fallado cada vez
+// que no queda ningún borrado pendiente, y también cuando ha crecido hoaxify.delete-journal-max-size desde la
+// última vez, para que no crezca sin límite si siempre hay alguno pendiente.
+//
+// Métricas (en /actuator/metrics):
+//   hoaxify.files.queue    operaciones esperando un hilo
+//   hoaxify.files.pending  operaciones sin terminar, incluidos los borrados que esperan un reintento
+//   hoaxify.files.failed   borrados que han agotado los reintentos, se repiten al arrancar
+//   hoaxify.files.delete   tiempo desde que se pide el borrado hasta que termina, con tag result
+@Component
+public class FileOperationExecutor implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(FileOperationExecutor.class);
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledExecutorService retries;
+
+    private final long firstRetryDelay;
+
+    private final long journalMaxSize;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // Borrados esperando a que el hilo del diario los anote
+    private final BlockingQueue<Deletion> journalQueue;
+
+    private final Thread journalWriter;
+
+    private volatile boolean running = true;
+
+    // Protege el diario y su relación con pending, inFlight y failed: se escribe y se reescribe con el lock cogido
+    private final Object journalLock = new Object();
+
+    // Borrados anotados en el diario y sin terminar
+    private final Set<Deletion> inFlight = ConcurrentHashMap.newKeySet();
+
+    // Borrados que han agotado los reintentos. Se quedan en el diario para el siguiente arranque
+    private final Set<Path> failed = new LinkedHashSet<>();
+
+    private final FileChannel journal;
+
+    // Tamaño del diario, y el que tenía al reescribirlo la última vez
+    private long journalSize;
+
+    private long compactedSize;
+
+    private volatile MeterRegistry meterRegistry;
+
+    public FileOperationExecutor(AppConfiguration appConfiguration) throws IOException {
+        this.firstRetryDelay = appConfiguration.getFileRetryDelay();
+        this.journalMaxSize = appConfiguration.getDeleteJournalMaxSize().toBytes();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(appConfiguration.getFileThreads(), appConfiguration.getFileThreads(),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(appConfiguration.getFileQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "hoaxify-files-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hoaxify-files-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.journalQueue = new ArrayBlockingQueue<>(appConfiguration.getFileQueueCapacity());
+
+        Path journalPath = Paths.get(appConfiguration.getFullDeleteJournalPath());
+        Files.createDirectories(journalPath.toAbsolutePath().getParent());
+        Set<String> unfinished = new LinkedHashSet<>();
+        if (Files.exists(journalPath)) {
+            unfinished.addAll(Files.readAllLines(journalPath, StandardCharsets.UTF_8));
+            unfinished.remove("");
+        }
+        this.journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.journalSize = journal.size();
+        this.compactedSize = journalSize;
+
+        // Ya están en el diario, solo hay que volver a encolarlos
+        pending.addAndGet(unfinished.size());
+        for (String file : unfinished) {
+            Deletion deletion = new Deletion(Paths.get(file), System.nanoTime());
+            inFlight.add(deletion);
+            submit(deletion);
+        }
+
+        this.journalWriter = new Thread(this::writeJournal, "hoaxify-files-journal");
+        journalWriter.setDaemon(true);
+        journalWriter.start();
+    }
+
+    // Encola el borrado de file. No falla si el fichero no existe.
+    // Si la cola del diario está llena, espera a que haya hueco (como la cola de operaciones, frena a quien pide)
+    public void delete(Path file) {
+        Deletion deletion = new Deletion(file, System.nanoTime());
+        pending.incrementAndGet();
+        try {
+            journalQueue.put(deletion);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Sin diario el borrado se hace igual, solo que no se repetiría tras un reinicio
+            log.warn("Interrupted before writing {} to the delete journal", file);
+            submit(deletion);
+        }
+    }
+
+    // Ejecuta operation en el pool. Cuenta como pendiente hasta que termina
+    public void execute(Runnable operation) {
+        pending.incrementAndGet();
+        submit(() -> {
+            try {
+                operation.run();
+            } finally {
+                finished();
+            }
+        });
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public int getFailedCount() {
+        synchronized (journalLock) {
+            return failed.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("hoaxify.files.queue", executor, e -> e.getQueue().size())
+                .description("File operations waiting for a thread")
+                .register(registry);
+        Gauge.builder("hoaxify.files.pending", pending, AtomicInteger::get)
+                .description("File operations not finished yet, including deletions waiting for a retry")
+                .register(registry);
+        Gauge.builder("hoaxify.files.failed", this, FileOperationExecutor::getFailedCount)
+                .description("File deletions that ran out of retries, repeated on the next startup")
+                .register(registry);
+        this.meterRegistry = registry;
+    }
+
+    // Los borrados que aún no se han anotado se anotan antes de cerrar el diario, para repetirlos al arrancar.
+    // El hilo del diario no se interrumpe: un FileChannel se cierra si interrumpen al hilo que lo está usando
+    @PreDestroy
+    public void shutdown() throws IOException {
+        running = false;
+        try {
+            journalWriter.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (journalLock) {
+            List<Deletion> unwritten = new ArrayList<>();
+            journalQueue.drainTo(unwritten);
+            append(unwritten);
+            journal.close();
+        }
+        retries.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private void submit(Runnable operation) {
+        executor.execute(operation);
+    }
+
+    // Hilo del diario: anota de una vez todos los borrados que haya en cola y después los encola para borrar
+    private void writeJournal() {
+        List<Deletion> batch = new ArrayList<>();
+        while (running) {
+            try {
+                Deletion first = journalQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                journalQueue.drainTo(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            synchronized (journalLock) {
+                if (journalSize - compactedSize > journalMaxSize) {
+                    rewriteJournal();
+                }
+                append(batch);
+            }
+            batch.forEach(this::submit);
+            batch.clear();
+        }
+    }
+
+    // Con journalLock cogido. Al disco antes de borrar: si la app cae justo después, los borrados siguen en el diario
+    private void append(List<Deletion> deletions) {
+        if (deletions.isEmpty() || !journal.isOpen()) {
+            return;
+        }
+        inFlight.addAll(deletions);
+        StringBuilder entries = new StringBuilder();
+        for (Deletion deletion : deletions) {
+            entries.append(deletion.file).append('\n');
+        }
+        try {
+            journalSize += journal.write(ByteBuffer.wrap(entries.toString().getBytes(StandardCharsets.UTF_8)));
+            journal.force(false);
+        } catch (IOException e) {
+            // Sin diario los borrados se hacen igual, solo que no se repetirían tras un reinicio
+            log.warn("Could not write {} deletions to the delete journal", deletions.size(), e);
+        }
+    }
+
+    private void record(Deletion deletion, String result) {
+        MeterRegistry registry = meterRegistry;
+        if (registry != null) {
+            Timer.builder("hoaxify.files.delete")
+                    .description("Time from the delete request until the file is removed")
+                    .tag("result", result)
+                    .register(registry)
+                    .record(System.nanoTime() - deletion.requestedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void failed(Deletion deletion) {
+        synchronized (journalLock) {
+            failed.add(deletion.file);
+        }
+        finished(deletion);
+    }
+
+    private void finished(Deletion deletion) {
+        inFlight.remove(deletion);
+        finished();
+    }
+
+    private void finished() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (journalLock) {
+                // Puede haber entrado otro borrado mientras esperábamos el lock
+                if (pending.get() == 0 && journal.isOpen()) {
+                    rewriteJournal();
+                }
+            }
+        }
+    }
+
+    // Con journalLock cogido: en el diario solo tienen que quedar los que siguen sin terminar y los que han fallado.
+    // Si alguno termina mientras tanto se queda en el diario, y al arrancar se repite sin más
+    private void rewriteJournal() {
+        try {
+            journal.truncate(0);
+            StringBuilder entries = new StringBuilder();
+            for (Deletion deletion : inFlight) {
+                entries.append(deletion.file).append('\n');
+            }
+            for (Path file : failed) {
+                entries.append(file).append('\n');
+            }
+            journalSize = 0;
+            if (entries.length() > 0) {
+                journalSize = journal.write(ByteBuffer.wrap(entries.toString().getBytes(StandardCharsets.UTF_8)));
+            }
+            journal.force(false);
+            compactedSize = journalSize;
+        } catch (IOException e) {
+            log.warn("Could not rewrite the delete journal", e);
+        }
+    }
+
+    private class Deletion implements Runnable {
+
+        private final Path file;
+
+        private final long requestedAt;
+
+        private int attempts;
+
+        Deletion(Path file, long requestedAt) {
+            this.file = file;
+            this.requestedAt = requestedAt;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Files.deleteIfExists(file);
+                record(this, "success");
+                finished(this);
+            } catch (IOException e) {
+                attempts++;
+                if (attempts < MAX_ATTEMPTS) {
+                    retries.schedule(() -> submit(this), firstRetryDelay << (attempts - 1), TimeUnit.MILLISECONDS);
+                } else {
+                    // Se queda en el diario y se volverá a intentar al arrancar
+                    record(this, "failure");
+                    log.error("Could not delete {} after {} attempts", file, attempts, e);
+                    failed(this);
+                }
+            }
+        }
+    }
+}
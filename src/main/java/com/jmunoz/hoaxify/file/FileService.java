@@ -1,27 +1,68 @@
 package com.jmunoz.hoaxify.file;
 
 import com.jmunoz.hoaxify.configuration.AppConfiguration;
-import org.apache.commons.io.FileUtils;
+import com.jmunoz.hoaxify.error.PayloadTooLargeException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.function.IOConsumer;
 import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Base64;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 // Se usa @EnabledScheduling para planificar la ejecución periódica de la limpieza de adjuntos no asociados a hoax.
 // También en método se usa @Scheduled
 @Service
 @EnableScheduling
-public class FileService {
+public class FileService implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(FileService.class);
 
     AppConfiguration appConfiguration;
 
@@ -29,75 +70,429 @@ public class FileService {
 
     FileAttachmentRepository fileAttachmentRepository;
 
-    public FileService(AppConfiguration appConfiguration, FileAttachmentRepository fileAttachmentRepository) {
+    FileOperationExecutor fileOperationExecutor;
+
+    ImageVariantGenerator imageVariantGenerator;
+
+    // Bytes que se copian en cada llamada a transferFrom
+    private static final long TRANSFER_CHUNK = 64 * 1024;
+
+    // Hash con el que se nombran los adjuntos
+    private static final String CONTENT_HASH = "SHA-256";
+
+    private static final int CONTENT_LOCKS = 64;
+
+    private final Object[] contentLocks = new Object[CONTENT_LOCKS];
+
+    private final AtomicLong cleanupProgress = new AtomicLong();
+
+    private final AtomicLong cleanupDeleted = new AtomicLong();
+
+    private volatile MeterRegistry meterRegistry;
+
+    public FileService(AppConfiguration appConfiguration, FileAttachmentRepository fileAttachmentRepository,
+                       FileOperationExecutor fileOperationExecutor, ImageVariantGenerator imageVariantGenerator) {
         super();
         this.appConfiguration = appConfiguration;
         this.fileAttachmentRepository = fileAttachmentRepository;
+        this.fileOperationExecutor = fileOperationExecutor;
+        this.imageVariantGenerator = imageVariantGenerator;
         tika = new Tika();
+        for (int i = 0; i < contentLocks.length; i++) {
+            contentLocks[i] = new Object();
+        }
     }
 
-    public String saveProfileImage(String base64Image) throws IOException {
+    // La imagen ya está decodificada en la carpeta temporal (ver UploadedFileDeserializer), solo hay que moverla.
+    // Los ficheros nuevos se guardan siempre repartidos en subcarpetas (ver StorageLayout)
+    public String saveProfileImage(UploadedFile image) throws IOException {
         String imageName = getRandomName();
-
-        byte[] decodedBytes = Base64.getDecoder().decode(base64Image);
-        File target = new File(appConfiguration.getFullProfileImagesPath() + "/" + imageName);
-        FileUtils.writeByteArrayToFile(target, decodedBytes);
+        Path target = StorageLayout.sharded(appConfiguration.getFullProfileImagesPath(), imageName);
+        Files.createDirectories(target.getParent());
+        Files.move(image.getPath(), target);
         return imageName;
     }
 
+    // Variantes reducidas de la imagen de perfil, en segundo plano. recordVariants las guarda en el usuario
+    public void createProfileImageVariants(String image, Consumer<String> recordVariants) {
+        imageVariantGenerator.generate(StorageLayout.locate(appConfiguration.getFullProfileImagesPath(), image),
+                recordVariants);
+    }
+
+    // Guarda en la carpeta temporal lo que escriba writer. Mientras se escribe se guardan los primeros bytes
+    // para detectar el tipo y se controla que no pase de maxSize (si pasa, se borra y se responde con 413).
+    // Dentro de una petición, el fichero se borra al terminarla. Si se ha guardado (saveProfileImage lo mueve
+    // a su carpeta) ya no existe y no se hace nada.
+    public UploadedFile saveTempFile(IOConsumer<OutputStream> writer, DataSize maxSize) throws IOException {
+        Path tempFolder = Paths.get(appConfiguration.getFullTempPath());
+        Files.createDirectories(tempFolder);
+        Path target = tempFolder.resolve(getRandomName());
+
+        PrefixOutputStream output = null;
+        try (OutputStream file = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW)) {
+            output = new PrefixOutputStream(new BufferedOutputStream(file, (int) TRANSFER_CHUNK),
+                    appConfiguration.getTypeDetectionBytes(), maxSize);
+            writer.accept(output);
+            output.flush();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        deleteAtRequestEnd(target);
+        String fileType = detectType(output.prefix, 0, output.prefixLength);
+        return new UploadedFile(target, output.size, fileType);
+    }
+
+    public UploadedFile saveTempFile(InputStream input, DataSize maxSize) throws IOException {
+        try (InputStream source = input) {
+            return saveTempFile(output -> IOUtils.copy(source, output, (int) TRANSFER_CHUNK), maxSize);
+        }
+    }
+
+    private void deleteAtRequestEnd(Path file) {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (requestAttributes != null) {
+            requestAttributes.registerDestructionCallback(file.toString(), () -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // Lo borrará cleanupStorage
+                }
+            }, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
     private String getRandomName() {
         return UUID.randomUUID().toString().replaceAll("-", "");
     }
 
     // Analizamos el array de bytes para buscar el tipo.
     // Para eso se va a usar la biblioteca Apache Tika Core, que es capaz de detectar tipos de ficheros.
+    // Antes se mira si es uno de los tipos que aceptamos (MagicNumbers), que es mucho más rápido.
     public String detectType(byte[] fileArr) {
-        return tika.detect(fileArr);
+        return detectType(fileArr, 0, fileArr.length);
     }
 
-    public void deleteProfileImage(String image) {
+    public String detectType(byte[] bytes, int offset, int length) {
+        String fileType = MagicNumbers.detect(bytes, offset, length);
+        if (fileType != null) {
+            return fileType;
+        }
         try {
-            Files.deleteIfExists(Paths.get(appConfiguration.getFullProfileImagesPath() + "/" + image));
+            return tika.detect(new ByteArrayInputStream(bytes, offset, length));
         } catch (IOException e) {
-            // Los fallos en este paso no deberían afectar nuestro proceso de actualización.
-            throw new RuntimeException(e);
+            // No puede pasar leyendo de memoria
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Los borrados no esperan al disco, los hace FileOperationExecutor en segundo plano (también mover los
+    // ficheros a la papelera).
+    // Los fallos en este paso no deberían afectar nuestro proceso de actualización.
+    public void deleteProfileImage(String image) {
+        if (image != null) {
+            fileOperationExecutor.execute(() -> {
+                synchronized (contentLock(image)) {
+                    trashWithVariants(appConfiguration.getFullProfileImagesPath(), image);
+                }
+            });
         }
     }
 
+    // Los adjuntos se guardan por contenido: el nombre del fichero es el SHA-256 de sus bytes. Si ya hay un
+    // fichero con ese contenido, la subida solo añade una fila de FileAttachment que apunta al mismo fichero.
+    // Las filas con el mismo nombre son las referencias al fichero, y se borra cuando no queda ninguna
+    // (ver deleteAttachmentImage).
+    //
+    // La subida se escribe primero en la carpeta temporal, calculando el hash mientras se copia, y luego se
+    // mueve a su nombre definitivo o se descarta si ya existía.
     public FileAttachment saveAttachment(MultipartFile file) {
         FileAttachment fileAttachment = new FileAttachment();
         fileAttachment.setDate(new Date());
-        String randomName = getRandomName();
-        fileAttachment.setName(randomName);
 
-        File target = new File(appConfiguration.getFullAttachmentsPath() + "/" + randomName);
+        // Si el tamaño ya viene en la petición se rechaza sin leer nada
+        if (file.getSize() > appConfiguration.getAttachmentMaxSize().toBytes()) {
+            throw new PayloadTooLargeException("Attachment is larger than " + appConfiguration.getAttachmentMaxSize());
+        }
+
+        boolean stored;
+        Path target;
+        FileAttachment saved;
         try {
-            byte[] fileAsByte = file.getBytes();
-            FileUtils.writeByteArrayToFile(target, fileAsByte);
-            fileAttachment.setFileType(detectType(fileAsByte));
+            Path tempFolder = Paths.get(appConfiguration.getFullTempPath());
+            Files.createDirectories(tempFolder);
+            Path temp = tempFolder.resolve(getRandomName());
+            MessageDigest digest = MessageDigest.getInstance(CONTENT_HASH);
+            fileAttachment.setFileType(streamToFile(new DigestInputStream(file.getInputStream(), digest), temp));
+            String name = String.format("%064x", new BigInteger(1, digest.digest()));
+            fileAttachment.setName(name);
+            target = StorageLayout.sharded(appConfiguration.getFullAttachmentsPath(), name);
+
+            synchronized (contentLock(name)) {
+                // Puede estar todavía en la carpeta sin repartir, si StorageMigration no ha llegado a él
+                stored = !Files.exists(target)
+                        && !Files.exists(StorageLayout.flat(appConfiguration.getFullAttachmentsPath(), name));
+                if (stored) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.delete(temp);
+                    fileAttachment.setVariants(fileAttachmentRepository.findFirstByNameAndVariantsNotNull(name)
+                            .map(FileAttachment::getVariants)
+                            .orElse(null));
+                }
+                saved = fileAttachmentRepository.save(fileAttachment);
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 está en todas las JVM
+            throw new IllegalStateException(e);
+        }
+
+        // Los adjuntos que son imágenes tienen variantes reducidas, como las imágenes de perfil.
+        // Se guardan en todas las filas con ese contenido, incluidas las que se suban mientras se generan
+        if (stored && saved != null && saved.getFileType() != null && saved.getFileType().startsWith("image/")) {
+            String name = saved.getName();
+            imageVariantGenerator.generate(target, variants -> {
+                synchronized (contentLock(name)) {
+                    fileAttachmentRepository.updateVariants(name, variants);
+                }
+            });
+        }
+        return saved;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("hoaxify.cleanup.progress", cleanupProgress, AtomicLong::get)
+                .description("Orphan attachments deleted by the current or last cleanup run")
+                .register(registry);
+        FunctionCounter.builder("hoaxify.cleanup.deleted", cleanupDeleted, AtomicLong::get)
+                .description("Orphan attachments deleted since startup")
+                .register(registry);
+        this.meterRegistry = registry;
+    }
+
+    // Lock para las operaciones de un contenido: comprobar si existe el fichero y crear la fila, o contar las
+    // referencias y borrarlo. Se reparten los hashes entre CONTENT_LOCKS locks. Solo cubre esta instancia.
+    // También lo coge StorageMigration al mover un fichero. Se elige por la subcarpeta del fichero, así que una
+    // imagen y sus variantes comparten lock
+    private Object contentLock(String name) {
+        return contentLocks[Math.floorMod(StorageLayout.shard(name).hashCode(), contentLocks.length)];
+    }
+
+    // Mueve un fichero de la carpeta sin repartir a su subcarpeta (ver StorageMigration). Devuelve false si ya no
+    // estaba ahí. Si ya existe en la subcarpeta (el mismo contenido se volvió a subir), sobra la copia antigua
+    public boolean moveToShardedLayout(String folder, String name) throws IOException {
+        synchronized (contentLock(name)) {
+            Path flat = StorageLayout.flat(folder, name);
+            if (!Files.isRegularFile(flat)) {
+                return false;
+            }
+            Path target = StorageLayout.sharded(folder, name);
+            if (target.equals(flat)) {
+                return false;
+            }
+            if (Files.exists(target)) {
+                Files.delete(flat);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(flat, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return true;
+        }
+    }
+
+    // Copia input a target sin cargarlo entero en memoria, y devuelve el tipo del fichero.
+    // El tipo se detecta con los primeros bytes (hoaxify.type-detection-bytes), que son los que mira Tika.
+    // El resto pasa del stream al fichero con FileChannel.transferFrom, por bloques. Así la memoria usada por
+    // cada subida no depende del tamaño del fichero.
+    // Si se pasa de hoaxify.attachment-max-size se para la copia, se borra lo escrito y se responde con 413.
+    String streamToFile(InputStream input, Path target) throws IOException {
+        long maxSize = appConfiguration.getAttachmentMaxSize().toBytes();
+        String fileType;
+        long size;
+        try (InputStream source = input;
+             ReadableByteChannel sourceChannel = Channels.newChannel(source);
+             FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.CREATE_NEW,
+                     StandardOpenOption.WRITE)) {
+            byte[] prefix = new byte[appConfiguration.getTypeDetectionBytes()];
+            int prefixLength = IOUtils.read(source, prefix);
+            fileType = detectType(prefix, 0, prefixLength);
+            targetChannel.write(ByteBuffer.wrap(prefix, 0, prefixLength));
+
+            size = prefixLength;
+            long transferred;
+            while (size <= maxSize
+                    && (transferred = targetChannel.transferFrom(sourceChannel, size, TRANSFER_CHUNK)) > 0) {
+                size += transferred;
+            }
         }
 
-        return fileAttachmentRepository.save(fileAttachment);
+        if (size > maxSize) {
+            Files.deleteIfExists(target);
+            throw new PayloadTooLargeException("Attachment is larger than " + appConfiguration.getAttachmentMaxSize());
+        }
+        return fileType;
     }
 
     // Automáticamente ejecutado por Spring cada 60 minutos
+    //
+    // Los adjuntos sin hoax se recorren por lotes de hoaxify.cleanup-batch-size, ordenados por id (ver
+    // FileAttachmentRepository.findOrphans), así que la memoria no depende de cuántos haya. Las filas de cada
+    // lote se borran con un solo delete y después sus ficheros, en paralelo con hoaxify.cleanup-threads hilos.
+    // trashAttachment vuelve a contar las referencias, así que si alguna fila se enlazó a un hoax entre
+    // la lectura y el delete, su fichero se queda.
+    //
+    // Métricas (en /actuator/metrics):
+    //   hoaxify.cleanup.progress  adjuntos borrados en la ejecución en curso (o en la última)
+    //   hoaxify.cleanup.deleted   adjuntos borrados desde que arrancó la app
+    //   hoaxify.cleanup           duración de cada ejecución
     @Scheduled(fixedRate = 60 * 60 * 1000)
     public void cleanupStorage() {
+        long start = System.nanoTime();
         Date oneHourAgo = new Date(System.currentTimeMillis() - (60*60*1000));
-        List<FileAttachment> oldFiles = fileAttachmentRepository.findByDateBeforeAndHoaxIsNull(oneHourAgo);
-        for (FileAttachment file: oldFiles) {
-            deleteAttachmentImage(file.getName());
-            fileAttachmentRepository.deleteById(file.getId());
+        cleanupProgress.set(0);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService deletions = Executors.newFixedThreadPool(appConfiguration.getCleanupThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "hoaxify-cleanup-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Pageable batchSize = PageRequest.of(0, appConfiguration.getCleanupBatchSize());
+            long afterId = 0;
+            List<OrphanAttachment> orphans;
+            do {
+                orphans = fileAttachmentRepository.findOrphans(oneHourAgo, afterId, batchSize);
+                if (orphans.isEmpty()) {
+                    break;
+                }
+                afterId = orphans.get(orphans.size() - 1).getId();
+
+                List<Long> ids = orphans.stream().map(OrphanAttachment::getId).collect(Collectors.toList());
+                int deleted = fileAttachmentRepository.deleteOrphans(ids);
+                cleanupProgress.addAndGet(deleted);
+                cleanupDeleted.addAndGet(deleted);
+
+                // Varias filas pueden compartir fichero (ver saveAttachment)
+                List<Callable<Void>> files = orphans.stream()
+                        .map(OrphanAttachment::getName)
+                        .filter(Objects::nonNull)
+                        .distinct()
+                        .map(name -> (Callable<Void>) () -> {
+                            trashAttachment(name);
+                            return null;
+                        })
+                        .collect(Collectors.toList());
+                deletions.invokeAll(files);
+            } while (orphans.size() == batchSize.getPageSize());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            deletions.shutdownNow();
+            MeterRegistry registry = meterRegistry;
+            if (registry != null) {
+                Timer.builder("hoaxify.cleanup")
+                        .description("Duration of each orphan attachment cleanup run")
+                        .register(registry)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        // Los temporales se borran al terminar su petición. Aquí se recogen los que se hayan quedado
+        // (por ejemplo si se paró la app en medio de una subida)
+        Path tempFolder = Paths.get(appConfiguration.getFullTempPath());
+        if (Files.isDirectory(tempFolder)) {
+            try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(tempFolder)) {
+                for (Path tempFile : tempFiles) {
+                    if (Files.getLastModifiedTime(tempFile).toMillis() < oneHourAgo.getTime()) {
+                        fileOperationExecutor.delete(tempFile);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Could not clean up temp folder {}", tempFolder, e);
+            }
         }
     }
 
+    // Borra el fichero solo si ya no hay ningún FileAttachment con ese nombre. La fila se tiene que haber
+    // borrado antes. Se hace en segundo plano, con trashAttachment
     public void deleteAttachmentImage(String image) {
+        fileOperationExecutor.execute(() -> trashAttachment(image));
+    }
+
+    // Las referencias se cuentan al ejecutarse, no al pedirlo: si mientras tanto se ha vuelto a subir el mismo
+    // contenido, el fichero se queda.
+    // El fichero se mueve a la papelera (hoaxify.trash-folder) con el lock cogido y FileOperationExecutor lo
+    // borra de ahí. Así una subida del mismo contenido no puede encontrarse el fichero con el borrado pendiente.
+    private void trashAttachment(String image) {
+        synchronized (contentLock(image)) {
+            if (fileAttachmentRepository.countByName(image) > 0) {
+                return;
+            }
+            trashWithVariants(appConfiguration.getFullAttachmentsPath(), image);
+        }
+    }
+
+    // Se llama con el lock de image cogido. Busca cada fichero en las dos estructuras (ver StorageLayout).
+    // No se sabe qué variantes llegaron a generarse, así que se mueven todas las que haya
+    private void trashWithVariants(String folder, String image) {
         try {
-            Files.deleteIfExists(Paths.get(appConfiguration.getFullAttachmentsPath() + "/" + image));
+            Path trash = Paths.get(appConfiguration.getFullTrashPath());
+            Files.createDirectories(trash);
+            moveToTrash(StorageLayout.locate(folder, image), trash);
+            for (int width : appConfiguration.getImageVariantWidths()) {
+                moveToTrash(StorageLayout.locate(folder, ImageVariants.name(image, width)), trash);
+            }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            log.warn("Could not move {}/{} to trash", folder, image, e);
+        }
+    }
+
+    private void moveToTrash(Path file, Path trash) throws IOException {
+        if (Files.exists(file)) {
+            Path trashed = trash.resolve(getRandomName());
+            Files.move(file, trashed, StandardCopyOption.ATOMIC_MOVE);
+            fileOperationExecutor.delete(trashed);
+        }
+    }
+
+    // Guarda los primeros bytes que se escriben y cuenta el total
+    private static class PrefixOutputStream extends FilterOutputStream {
+
+        private final byte[] prefix;
+
+        private final DataSize maxSize;
+
+        private int prefixLength;
+
+        private long size;
+
+        PrefixOutputStream(OutputStream out, int prefixSize, DataSize maxSize) {
+            super(out);
+            this.prefix = new byte[prefixSize];
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            size += length;
+            if (size > maxSize.toBytes()) {
+                throw new PayloadTooLargeException("File is larger than " + maxSize);
+            }
+            if (prefixLength < prefix.length) {
+                int copied = Math.min(length, prefix.length - prefixLength);
+                System.arraycopy(bytes, offset, prefix, prefixLength, copied);
+                prefixLength += copied;
+            }
+            out.write(bytes, offset, length);
         }
     }
 }
@@ -0,0 +1,210 @@
+package com.jmunoz.hoaxify.file;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Genera en segundo plano versiones más pequeñas de las imágenes subidas, una por cada anchura de
+// hoaxify.image-variant-widths. Los clientes piden la que necesitan (por ejemplo 40px para el avatar del feed)
+// en vez de la original. Ver ImageVariants para los nombres.
+//
+// - Solo se reduce: las anchuras mayores o iguales que la original no se generan.
+// - La imagen se decodifica con submuestreo, a poco más del doble de la variante más grande, así que una
+//   imagen grande no se llega a cargar entera en memoria.
+// - Las imágenes con transparencia se guardan en PNG y el resto en JPEG, con más compresión en las variantes
+//   pequeñas, donde no se nota.
+//
+// La cola está acotada. Si se llena, esa imagen se queda sin variantes y los clientes usan la original.
+@Component
+public class ImageVariantGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageVariantGenerator.class);
+
+    // Por debajo de esta anchura se usa SMALL_QUALITY
+    private static final int SMALL_WIDTH = 100;
+
+    private static final float SMALL_QUALITY = 0.7f;
+
+    private static final float QUALITY = 0.85f;
+
+    private final AppConfiguration appConfiguration;
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public ImageVariantGenerator(AppConfiguration appConfiguration) {
+        this.appConfiguration = appConfiguration;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(appConfiguration.getImageVariantThreads(),
+                appConfiguration.getImageVariantThreads(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(appConfiguration.getImageVariantQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "hoaxify-image-variants-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // Encola la generación de las variantes de source. Al terminar, recordVariants recibe las anchuras
+    // generadas (ver ImageVariants.format) para guardarlas en la BD. No se llama si no se ha generado ninguna
+    public void generate(Path source, Consumer<String> recordVariants) {
+        pending.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    List<Integer> widths = createVariants(source);
+                    if (!widths.isEmpty()) {
+                        recordVariants.accept(ImageVariants.format(widths));
+                    }
+                } catch (Exception e) {
+                    log.warn("Could not create the variants of {}", source, e);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            log.warn("Image variant queue is full, {} is served at original size", source);
+        }
+    }
+
+    // Imágenes encoladas o generándose, incluido el guardado en BD
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    List<Integer> createVariants(Path source) throws IOException {
+        List<Integer> created = new ArrayList<>();
+        BufferedImage image = read(source);
+        if (image == null) {
+            return created;
+        }
+
+        boolean alpha = image.getColorModel().hasAlpha();
+        for (int width : appConfiguration.getImageVariantWidths()) {
+            if (width >= image.getWidth()) {
+                continue;
+            }
+            Float quality = alpha ? null : width < SMALL_WIDTH ? SMALL_QUALITY : QUALITY;
+            write(resize(image, width, alpha), variantPath(source, width), quality);
+            created.add(width);
+        }
+
+        // Si la original se ha borrado mientras tanto, nadie borraría estas variantes
+        if (!Files.exists(source)) {
+            for (int width : created) {
+                Files.deleteIfExists(variantPath(source, width));
+            }
+            created.clear();
+        }
+        return created;
+    }
+
+    private Path variantPath(Path source, int width) {
+        return source.resolveSibling(ImageVariants.name(source.getFileName().toString(), width));
+    }
+
+    // null si no es una imagen que ImageIO sepa leer (por ejemplo un PDF) o si ya es más pequeña que todas
+    // las variantes
+    private BufferedImage read(Path source) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int sourceWidth = reader.getWidth(0);
+                int largest = appConfiguration.getImageVariantWidths().stream()
+                        .filter(width -> width < sourceWidth)
+                        .max(Integer::compare)
+                        .orElse(0);
+                if (largest == 0) {
+                    return null;
+                }
+                // Submuestreo: se lee uno de cada step píxeles, dejando al menos el doble de la variante más grande
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, sourceWidth / (largest * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Se reduce a la mitad en cada paso hasta llegar a la anchura. Con un solo paso bilineal las reducciones
+    // grandes pierden demasiado detalle
+    private BufferedImage resize(BufferedImage image, int width, boolean alpha) {
+        int height = Math.max(1, Math.round((float) image.getHeight() * width / image.getWidth()));
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight, type);
+            Graphics2D graphics = next.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            graphics.dispose();
+            current = next;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
+    }
+
+    // quality null para PNG
+    private void write(BufferedImage image, Path target, Float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(quality == null ? "png" : "jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (quality != null) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        }
+        try (OutputStream file = Files.newOutputStream(target);
+             ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.jmunoz.hoaxify.file;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// Nombres de las variantes de una imagen (ver ImageVariantGenerator).
+// Cada variante se guarda junto a la original, con el nombre de la original y su anchura: abc123-40.
+// En la BD solo se guardan las anchuras que se han generado, separadas por comas ("40,200"). Así los VM pueden
+// dar los nombres sin ir al disco.
+public final class ImageVariants {
+
+    private ImageVariants() {
+    }
+
+    public static String name(String image, int width) {
+        return image + "-" + width;
+    }
+
+    public static String format(List<Integer> widths) {
+        return widths.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    // Anchura -> nombre de la variante. Vacío si todavía no hay variantes (o la imagen es más pequeña que todas)
+    public static Map<Integer, String> names(String image, String widths) {
+        if (image == null || widths == null || widths.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, String> names = new LinkedHashMap<>();
+        for (String width : widths.split(",")) {
+            names.put(Integer.valueOf(width), name(image, Integer.parseInt(width)));
+        }
+        return names;
+    }
+}
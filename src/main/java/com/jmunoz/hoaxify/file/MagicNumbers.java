@@ -0,0 +1,59 @@
+package com.jmunoz.hoaxify.file;
+
+import java.nio.charset.StandardCharsets;
+
+// Detecta los tipos de fichero que aceptamos (imágenes y PDF) por su firma en los primeros bytes.
+// Es lo mismo que hace Tika para estos tipos, pero sin recorrer todas sus firmas ni copiar el array.
+// Devuelve null si no reconoce la firma, y entonces FileService pregunta a Tika.
+public final class MagicNumbers {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+
+    private static final byte[] GIF87A = "GIF87a".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] GIF89A = "GIF89a".getBytes(StandardCharsets.US_ASCII);
+
+    // RIFF, 4 bytes con el tamaño y WEBP
+    private static final byte[] RIFF = "RIFF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] WEBP = "WEBP".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] PDF = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+
+    private MagicNumbers() {
+    }
+
+    // Solo se miran bytes[offset] a bytes[offset + length - 1]
+    public static String detect(byte[] bytes, int offset, int length) {
+        if (startsWith(bytes, offset, length, 0, PNG)) {
+            return "image/png";
+        }
+        if (startsWith(bytes, offset, length, 0, JPEG)) {
+            return "image/jpeg";
+        }
+        if (startsWith(bytes, offset, length, 0, GIF89A) || startsWith(bytes, offset, length, 0, GIF87A)) {
+            return "image/gif";
+        }
+        if (startsWith(bytes, offset, length, 0, RIFF) && startsWith(bytes, offset, length, 8, WEBP)) {
+            return "image/webp";
+        }
+        if (startsWith(bytes, offset, length, 0, PDF)) {
+            return "application/pdf";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, int length, int position, byte[] signature) {
+        if (length < position + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (bytes[offset + position + i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package com.jmunoz.hoaxify.file;
+
+import lombok.Value;
+
+// Lo que necesita FileService.cleanupStorage de un adjunto sin hoax: el id para borrar la fila y el nombre para
+// borrar el fichero. Se rellena con "select new ..." (ver FileAttachmentRepository.findOrphans)
+@Value
+public class OrphanAttachment {
+
+    long id;
+
+    String name;
+}
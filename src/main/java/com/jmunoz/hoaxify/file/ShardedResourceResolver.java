@@ -0,0 +1,42 @@
+package com.jmunoz.hoaxify.file;
+
+import org.springframework.core.io.Resource;
+import org.springframework.web.servlet.resource.ResourceResolver;
+import org.springframework.web.servlet.resource.ResourceResolverChain;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+// Resuelve /images/<carpeta>/<nombre> con la estructura de StorageLayout: primero busca en
+// <carpeta>/ab/cd/<nombre> y, si no está, en <carpeta>/<nombre>, donde siguen los ficheros que StorageMigration
+// todavía no ha movido. Las URLs no cambian.
+//
+// Solo reescribe la ruta, la resolución (y la comprobación de que no se sale de la carpeta de subida) la hace
+// el siguiente resolver de la cadena.
+public class ShardedResourceResolver implements ResourceResolver {
+
+    @Override
+    public Resource resolveResource(HttpServletRequest request, String requestPath,
+                                    List<? extends Resource> locations, ResourceResolverChain chain) {
+        int slash = requestPath.lastIndexOf('/');
+        // Solo <carpeta>/<nombre>, ni rutas más largas ni ficheros en la raíz de upload-path
+        if (slash > 0 && requestPath.indexOf('/') == slash) {
+            String name = requestPath.substring(slash + 1);
+            String shardedName = StorageLayout.shardedName(name);
+            if (!shardedName.equals(name)) {
+                Resource resource = chain.resolveResource(request,
+                        requestPath.substring(0, slash + 1) + shardedName, locations);
+                if (resource != null) {
+                    return resource;
+                }
+            }
+        }
+        return chain.resolveResource(request, requestPath, locations);
+    }
+
+    @Override
+    public String resolveUrlPath(String resourcePath, List<? extends Resource> locations,
+                                 ResourceResolverChain chain) {
+        return chain.resolveUrlPath(resourcePath, locations);
+    }
+}
@@ -0,0 +1,66 @@
+package com.jmunoz.hoaxify.file;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Estructura de las carpetas de subida (profile y attachments).
+// Con todos los ficheros en una misma carpeta, listarla o buscar en ella se vuelve lento con cientos de miles de
+// entradas. Los ficheros se reparten en dos niveles de subcarpetas con los primeros caracteres del nombre:
+// abcd1234... se guarda en ab/cd/abcd1234...
+//
+// Los nombres ya son aleatorios (UUID) o un hash del contenido (SHA-256), así que el reparto sale uniforme sin
+// volver a calcular un hash. Y las variantes (abcd1234...-40) caen en la misma subcarpeta que su original.
+//
+// Los ficheros subidos antes de este cambio siguen en la carpeta sin repartir hasta que StorageMigration los
+// mueve. Mientras tanto, locate y el resource handler de /images (ShardedResourceResolver) buscan en los dos sitios.
+public final class StorageLayout {
+
+    private static final int LEVELS = 2;
+
+    // Caracteres del nombre por cada nivel
+    private static final int LEVEL_LENGTH = 2;
+
+    private StorageLayout() {
+    }
+
+    // Subcarpetas del fichero, por ejemplo "ab/cd". Vacío si el nombre es demasiado corto para repartirlo
+    public static String shard(String name) {
+        if (name.length() < LEVELS * LEVEL_LENGTH) {
+            return "";
+        }
+        StringBuilder shard = new StringBuilder();
+        for (int level = 0; level < LEVELS; level++) {
+            if (level > 0) {
+                shard.append('/');
+            }
+            shard.append(name, level * LEVEL_LENGTH, (level + 1) * LEVEL_LENGTH);
+        }
+        return shard.toString();
+    }
+
+    // Ruta relativa a la carpeta: "ab/cd/abcd1234..."
+    public static String shardedName(String name) {
+        String shard = shard(name);
+        return shard.isEmpty() ? name : shard + "/" + name;
+    }
+
+    public static Path sharded(String folder, String name) {
+        return Paths.get(folder, shardedName(name));
+    }
+
+    // Donde estaban los ficheros antes del reparto
+    public static Path flat(String folder, String name) {
+        return Paths.get(folder, name);
+    }
+
+    // El fichero en la estructura donde esté. Si no está en ninguna, donde se guardaría ahora
+    public static Path locate(String folder, String name) {
+        Path sharded = sharded(folder, name);
+        if (Files.exists(sharded)) {
+            return sharded;
+        }
+        Path flat = flat(folder, name);
+        return Files.exists(flat) ? flat : sharded;
+    }
+}
@@ -0,0 +1,172 @@
+package com.jmunoz.hoaxify.file;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Mueve los ficheros de profile y attachments que siguen en la carpeta sin repartir a sus subcarpetas
+// (ver StorageLayout). Se lanza en segundo plano al arrancar, con la app ya sirviendo peticiones: mientras
+// tanto FileService y el resource handler de /images buscan en las dos estructuras.
+//
+// La carpeta se lee con un DirectoryStream, sin cargar la lista entera, y los nombres se reparten en lotes de
+// hoaxify.storage-migration-batch-size entre hoaxify.storage-migration-threads hilos. Como mucho hay dos lotes
+// por hilo esperando, así que la memoria no depende del número de ficheros.
+// Cada fichero se mueve con el lock de su contenido (FileService.moveToShardedLayout), para no cruzarse con una
+// subida o un borrado del mismo fichero.
+//
+// Leer una carpeta mientras se sacan ficheros de ella puede saltarse alguno, así que se repasa hasta que una
+// pasada no mueve nada. Si se para la app a medias, la siguiente vez sigue con los que queden.
+//
+// Métricas (en /actuator/metrics):
+//   hoaxify.storage.migrated  ficheros movidos desde que arrancó la app
+@Component
+public class StorageMigration implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageMigration.class);
+
+    private final AppConfiguration appConfiguration;
+
+    private final FileService fileService;
+
+    private final AtomicLong migrated = new AtomicLong();
+
+    private volatile ExecutorService executor;
+
+    public StorageMigration(AppConfiguration appConfiguration, FileService fileService) {
+        this.appConfiguration = appConfiguration;
+        this.fileService = fileService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (appConfiguration.getStorageMigrationThreads() <= 0) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                migrate(appConfiguration.getFullProfileImagesPath());
+                migrate(appConfiguration.getFullAttachmentsPath());
+            } catch (IOException e) {
+                log.error("Storage migration stopped", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "hoaxify-storage-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Devuelve los ficheros movidos. Los que fallan se quedan donde estaban, donde se siguen encontrando
+    public long migrate(String folder) throws IOException, InterruptedException {
+        Path root = Paths.get(folder);
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        int threads = Math.max(1, appConfiguration.getStorageMigrationThreads());
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "hoaxify-storage-migration-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long total = 0;
+        try {
+            long moved;
+            do {
+                moved = migratePass(root, folder, threads);
+                total += moved;
+            } while (moved > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (total > 0) {
+            log.info("Moved {} files in {} to the sharded layout", total, folder);
+        }
+        return total;
+    }
+
+    private long migratePass(Path root, String folder, int threads) throws IOException, InterruptedException {
+        int maxBatches = threads * 2;
+        Semaphore batches = new Semaphore(maxBatches);
+        AtomicLong moved = new AtomicLong();
+        int batchSize = appConfiguration.getStorageMigrationBatchSize();
+        // Solo los ficheros, las subcarpetas son las del reparto
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, Files::isRegularFile)) {
+            List<String> batch = new ArrayList<>(batchSize);
+            for (Path file : files) {
+                batch.add(file.getFileName().toString());
+                if (batch.size() == batchSize) {
+                    submit(folder, batch, batches, moved);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(folder, batch, batches, moved);
+            }
+        } finally {
+            // Espera a que terminen los lotes enviados
+            batches.acquire(maxBatches);
+        }
+        return moved.get();
+    }
+
+    private void submit(String folder, List<String> batch, Semaphore batches, AtomicLong moved)
+            throws InterruptedException {
+        batches.acquire();
+        executor.execute(() -> {
+            try {
+                for (String name : batch) {
+                    try {
+                        if (fileService.moveToShardedLayout(folder, name)) {
+                            moved.incrementAndGet();
+                            migrated.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        log.warn("Could not move {} to the sharded layout", name, e);
+                    }
+                }
+            } finally {
+                batches.release();
+            }
+        });
+    }
+
+    public long getMigratedCount() {
+        return migrated.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("hoaxify.storage.migrated", migrated, AtomicLong::get)
+                .description("Files moved to the sharded upload layout since startup")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ExecutorService running = executor;
+        if (running != null) {
+            running.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.jmunoz.hoaxify.file;
+
+import lombok.Value;
+
+import java.nio.file.Path;
+
+// Fichero recibido en la petición y guardado en la carpeta temporal (hoaxify.temp-folder), con su tipo
+// ya detectado. Así se valida y se guarda sin volver a leerlo. Ver UploadedFileDeserializer
+@Value
+public class UploadedFile {
+
+    Path path;
+
+    long size;
+
+    String fileType;
+}
@@ -0,0 +1,32 @@
+package com.jmunoz.hoaxify.file;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import org.springframework.boot.jackson.JsonComponent;
+
+import java.io.IOException;
+
+// Lee un campo JSON en base64 directamente a un fichero temporal.
+// JsonParser.readBinaryValue decodifica el base64 por bloques mientras lee la petición, así que ni el String
+// ni los bytes decodificados llegan a estar enteros en memoria.
+// El tamaño máximo es hoaxify.profile-image-max-size (el único campo de este tipo es la imagen de perfil).
+// El fichero temporal se borra al terminar la petición (ver FileService.saveTempFile).
+@JsonComponent
+public class UploadedFileDeserializer extends JsonDeserializer<UploadedFile> {
+
+    FileService fileService;
+
+    AppConfiguration appConfiguration;
+
+    public UploadedFileDeserializer(FileService fileService, AppConfiguration appConfiguration) {
+        this.fileService = fileService;
+        this.appConfiguration = appConfiguration;
+    }
+
+    @Override
+    public UploadedFile deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        return fileService.saveTempFile(parser::readBinaryValue, appConfiguration.getProfileImageMaxSize());
+    }
+}
@@ -2,8 +2,10 @@ package com.jmunoz.hoaxify.hoax;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.jmunoz.hoaxify.file.FileAttachment;
+import com.jmunoz.hoaxify.shared.TimeOrderedIdGenerator;
 import com.jmunoz.hoaxify.user.User;
 import lombok.Data;
+import org.hibernate.annotations.GenericGenerator;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -15,7 +17,8 @@ import java.util.Date;
 public class Hoax {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = TimeOrderedIdGenerator.NAME)
+    @GenericGenerator(name = TimeOrderedIdGenerator.NAME, strategy = TimeOrderedIdGenerator.STRATEGY)
     private long id;
 
     // Para indicar la longitud máxima del campo se usa la anotación de JPA @Column y se indica la propiedad
@@ -0,0 +1,27 @@
+package com.jmunoz.hoaxify.hoax;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+// Resultado de cada hoax de POST /hoaxes/batch, en el mismo orden en que llegaron.
+// Solo se informa el id del hoax guardado o sus errores de validación, el resto ya lo tiene el cliente.
+@Data
+@NoArgsConstructor
+@JsonInclude(value = JsonInclude.Include.NON_NULL)
+public class HoaxBatchResult {
+
+    private Long id;
+
+    private Map<String, String> validationErrors;
+
+    public HoaxBatchResult(long id) {
+        this.id = id;
+    }
+
+    public HoaxBatchResult(Map<String, String> validationErrors) {
+        this.validationErrors = validationErrors;
+    }
+}
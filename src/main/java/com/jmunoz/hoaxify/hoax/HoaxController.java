@@ -1,19 +1,29 @@
 package com.jmunoz.hoaxify.hoax;
 
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.error.BadRequestException;
 import com.jmunoz.hoaxify.shared.CurrentUser;
+import com.jmunoz.hoaxify.shared.CursorPage;
 import com.jmunoz.hoaxify.shared.GenericResponse;
-import com.jmunoz.hoaxify.user.User;
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
+import com.jmunoz.hoaxify.user.vm.UserVM;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/1.0")
@@ -22,9 +32,57 @@ public class HoaxController {
     @Autowired
     HoaxService hoaxService;
 
+    @Autowired
+    AppConfiguration appConfiguration;
+
+    @Autowired
+    Validator validator;
+
     @PostMapping("/hoaxes")
-    HoaxVM createHoax(@Valid @RequestBody Hoax hoax, @CurrentUser User user) {
-        return new HoaxVM(hoaxService.save(user, hoax));
+    HoaxVM createHoax(@Valid @RequestBody Hoax hoax, @CurrentUser AuthenticatedUser user) {
+        return new HoaxVM(hoaxService.save(user, hoax), new UserVM(user));
+    }
+
+    // Alta en bloque para las integraciones que publican muchos hoaxes a la vez.
+    // Cada hoax se valida por separado (no se usa @Valid, que rechazaría la lista entera). Los válidos se
+    // guardan juntos en una transacción y la respuesta trae, en el mismo orden, el id o los errores de cada uno.
+    @PostMapping("/hoaxes/batch")
+    List<HoaxBatchResult> createHoaxes(@RequestBody List<Hoax> hoaxes, @CurrentUser AuthenticatedUser user) {
+        if (hoaxes.isEmpty() || hoaxes.size() > appConfiguration.getHoaxBatchMaxSize()) {
+            throw new BadRequestException("A batch must have between 1 and "
+                    + appConfiguration.getHoaxBatchMaxSize() + " hoaxes");
+        }
+        if (hoaxes.contains(null)) {
+            throw new BadRequestException("A batch cannot contain null hoaxes");
+        }
+
+        List<HoaxBatchResult> results = new ArrayList<>();
+        List<Hoax> valid = new ArrayList<>();
+        for (Hoax hoax : hoaxes) {
+            Set<ConstraintViolation<Hoax>> violations = validator.validate(hoax);
+            if (violations.isEmpty()) {
+                valid.add(hoax);
+                results.add(null);
+            } else {
+                Map<String, String> validationErrors = new HashMap<>();
+                for (ConstraintViolation<Hoax> violation : violations) {
+                    validationErrors.put(violation.getPropertyPath().toString(), violation.getMessage());
+                }
+                results.add(new HoaxBatchResult(validationErrors));
+            }
+        }
+
+        if (!valid.isEmpty()) {
+            // Los resultados del servicio van en el mismo orden, y ocupan los huecos que dejamos a null
+            List<HoaxBatchResult> saved = hoaxService.saveAll(user, valid);
+            int next = 0;
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == null) {
+                    results.set(i, saved.get(next++));
+                }
+            }
+        }
+        return results;
     }
 
     @GetMapping("/hoaxes")
@@ -37,6 +95,63 @@ public class HoaxController {
         return hoaxService.getHoaxesOfUser(username, pageable).map(HoaxVM::new);
     }
 
+    // Paginación por cursor (keyset). Se activa enviando el parámetro cursor (vacío para la primera página).
+    // Con direction=before (por defecto) se devuelven los hoaxes más antiguos que el cursor y con
+    // direction=after los más nuevos. En ambos casos el contenido va del más nuevo al más antiguo.
+    // Cualquier otra dirección responde 400.
+    // No se usa OFFSET ni se ejecuta count(*), por lo que cualquier página cuesta lo mismo que la primera.
+    @GetMapping(value = {"/hoaxes", "/users/{username}/hoaxes"}, params = "cursor")
+    CursorPage<HoaxVM> getHoaxesByCursor(@PathVariable(required = false) String username,
+                                         @RequestParam(name = "cursor") String cursor,
+                                         @RequestParam(name = "direction", defaultValue = "before") String direction,
+                                         Pageable pageable) {
+        boolean after = direction.equalsIgnoreCase("after");
+        if (!after && !direction.equalsIgnoreCase("before")) {
+            throw new BadRequestException("direction must be before or after");
+        }
+
+        Long id = HoaxCursor.decode(cursor);
+        if (id != null && after) {
+            Slice<HoaxVM> newer = hoaxService.getHoaxesAfter(id, username, pageable.getPageSize());
+            List<HoaxVM> content = new ArrayList<>(newer.getContent());
+            Collections.reverse(content);
+            return toCursorPage(content, newer, true);
+        }
+
+        Slice<HoaxVM> older = hoaxService.getHoaxesBefore(id, username, pageable.getPageSize());
+        return toCursorPage(older.getContent(), older, false);
+    }
+
+    // content siempre viene ordenado del más nuevo al más antiguo.
+    // nextCursor apunta al extremo en la dirección pedida y previousCursor al extremo contrario.
+    // Con la página vacía los dos son null. Si no, hacia los antiguos nextCursor es null cuando no queda ninguno
+    // (hasNext a false), y hacia los nuevos se da siempre, porque pueden llegar hoaxes nuevos en cualquier momento.
+    // Una página vacía hacia los nuevos no trae cursor: el cliente vuelve a preguntar con el mismo que envió.
+    private CursorPage<HoaxVM> toCursorPage(List<HoaxVM> content, Slice<HoaxVM> slice, boolean newer) {
+        String nextCursor = null;
+        String previousCursor = null;
+        if (!content.isEmpty()) {
+            String newest = HoaxCursor.encode(content.get(0).getId());
+            String oldest = HoaxCursor.encode(content.get(content.size() - 1).getId());
+            if (newer) {
+                nextCursor = newest;
+                previousCursor = oldest;
+            } else {
+                nextCursor = slice.hasNext() ? oldest : null;
+                previousCursor = newest;
+            }
+        }
+        return new CursorPage<>(content, slice.getSize(), slice.hasNext(), nextCursor, previousCursor);
+    }
+
+    // Server-Sent Events con los hoaxes nuevos (evento hoax) y los borrados (evento delete).
+    // Sustituye al polling de count. El id de cada evento es el id del hoax, y sirve para pedir
+    // con direction=after lo que se haya perdido tras una reconexión.
+    @GetMapping({"/hoaxes/stream", "/users/{username}/hoaxes/stream"})
+    HoaxEventStream streamHoaxes(@PathVariable(required = false) String username) {
+        return hoaxService.streamHoaxes(username);
+    }
+
     @GetMapping({"/hoaxes/{id:[0-9]+}", "/users/{username}/hoaxes/{id:[0-9]+}"})
     ResponseEntity<?> getHoaxesRelative(@PathVariable long id,
                                         @PathVariable(required = false) String username,
@@ -52,19 +167,37 @@ public class HoaxController {
             return ResponseEntity.ok(Collections.singletonMap("count", newHoaxCount));
         }
 
-        List<HoaxVM> newHoaxes = hoaxService.getNewHoaxes(id, username, pageable)
-                .stream().map(HoaxVM::new).collect(Collectors.toList());
+        List<HoaxVM> newHoaxes = hoaxService.getNewHoaxes(id, username, pageable);
         return ResponseEntity.ok(newHoaxes);
     }
 
-    // Se indica en @PreAuthorize el nombre del servicio usando @ y la versión camelCase, y el método.
-    // Los parámetros se indican con #
-    // El parámetro user registrado está en el objeto de Spring Security llamado principal (sin #)
-    // porque es un keyword especial.
+    // Long polling para los clientes que no pueden usar SSE. Con el parámetro wait (segundos, como mucho
+    // hoaxify.long-poll-max-wait) la petición queda abierta hasta que haya hoaxes más nuevos que id.
+    // Si se acaba el tiempo se responde con una lista vacía y el cliente vuelve a preguntar.
+    // direction se comprueba aquí y no en params, que distingue mayúsculas: direction=AFTER también espera.
+    // Con cualquier otra dirección wait no tiene sentido y se responde igual que sin él.
+    @GetMapping(value = {"/hoaxes/{id:[0-9]+}", "/users/{username}/hoaxes/{id:[0-9]+}"}, params = "wait")
+    DeferredResult<?> waitForNewHoaxes(@PathVariable long id,
+                                       @PathVariable(required = false) String username,
+                                       Pageable pageable,
+                                       @RequestParam(name = "direction", defaultValue = "after") String direction,
+                                       @RequestParam(name = "wait", defaultValue = "30") int wait) {
+        if (!direction.equalsIgnoreCase("after")) {
+            DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+            result.setResult(getHoaxesRelative(id, username, pageable, direction, false));
+            return result;
+        }
+
+        int seconds = Math.max(1, Math.min(wait, appConfiguration.getLongPollMaxWait()));
+        return hoaxService.waitForNewHoaxes(id, username, pageable, seconds * 1000L);
+    }
+
+    // Solo el propietario puede borrar su hoax. Antes se comprobaba con @PreAuthorize y HoaxSecurityService,
+    // que cargaba el hoax solo para ver su usuario. Ahora la comprobación va en el propio delete
+    // (ver HoaxService.deleteHoax) y se sigue respondiendo 403 si el hoax es de otro o no existe.
     @DeleteMapping("/hoaxes/{id:[0-9]+}")
-    @PreAuthorize("@hoaxSecurityService.isAllowedToDelete(#id, principal)")
-    GenericResponse deleteHoax(@PathVariable long id) {
-        hoaxService.deleteHoax(id);
+    GenericResponse deleteHoax(@PathVariable long id, @CurrentUser AuthenticatedUser loggedInUser) {
+        hoaxService.deleteHoax(id, loggedInUser);
         return new GenericResponse("Hoax is removed");
     }
 }
@@ -0,0 +1,37 @@
+package com.jmunoz.hoaxify.hoax;
+
+import com.jmunoz.hoaxify.error.BadRequestException;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+// Cursor opaco para la paginación por keyset.
+// El cliente no debe interpretar su contenido, solo devolverlo tal cual. Internamente es el id del hoax
+// codificado en Base64 URL-safe, de forma que podamos cambiar el formato más adelante sin romper clientes.
+public final class HoaxCursor {
+
+    private HoaxCursor() {
+    }
+
+    public static String encode(long id) {
+        byte[] bytes = ByteBuffer.allocate(Long.BYTES).putLong(id).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    // Un cursor vacío significa "desde el principio del feed"
+    public static Long decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+            if (bytes.length != Long.BYTES) {
+                throw new BadRequestException("Invalid cursor");
+            }
+            return ByteBuffer.wrap(bytes).getLong();
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.jmunoz.hoaxify.hoax;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Respuesta text/event-stream en la que cada evento se envía ya formateado, en un único write.
+// No se usa SseEmitter porque escribe cada campo del evento por separado, y si el cliente se ha desconectado,
+// Tomcat puede reciclar la respuesta entre un write y el siguiente, de forma que el resto del evento acaba
+// en la respuesta de otra petición
+public class HoaxEventStream extends ResponseBodyEmitter {
+
+    private static final MediaType TEXT_PLAIN = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+
+    public HoaxEventStream(long timeout) {
+        super(timeout);
+    }
+
+    @Override
+    protected void extendResponse(ServerHttpResponse outputMessage) {
+        super.extendResponse(outputMessage);
+        if (outputMessage.getHeaders().getContentType() == null) {
+            outputMessage.getHeaders().setContentType(MediaType.TEXT_EVENT_STREAM);
+        }
+    }
+
+    // El texto tiene que ser un evento completo, terminado en una línea en blanco
+    public void sendEvent(String event) throws IOException {
+        send(event, TEXT_PLAIN);
+    }
+
+    public static String event(String id, String name, String json) {
+        return "id:" + id + "\nevent:" + name + "\ndata:" + json + "\n\n";
+    }
+
+    public static String comment(String comment) {
+        return ":" + comment + "\n\n";
+    }
+}
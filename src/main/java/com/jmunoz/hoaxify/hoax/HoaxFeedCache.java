@@ -0,0 +1,223 @@
+package com.jmunoz.hoaxify.hoax;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.user.UserUpdatedEvent;
+import com.jmunoz.hoaxify.user.vm.UserVM;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+// Los últimos N hoaxes del feed global, en memoria.
+// Casi todo el tráfico pide la primera página o los hoaxes más nuevos que un id, así que los servimos
+// desde memoria y solo vamos a BD cuando el buffer no cubre la petición (por ejemplo, cursores antiguos).
+//
+// Las lecturas no usan locks ni copian nada: recorren un array ya ordenado del más nuevo al más antiguo, y solo
+// hasta donde necesitan. Cada escritura (con el lock) publica un array nuevo (copy-on-write). Hay muchas más
+// lecturas que escrituras, y una escritura copia como mucho N referencias.
+//
+// floorId es el id más bajo a partir del cual tenemos TODOS los hoaxes (salvo los borrados).
+// Cuando el buffer está lleno se expulsa el más antiguo, y ese límite sube.
+// Long.MIN_VALUE significa que el buffer contiene la tabla entera. Hasta la carga inicial no se lee de él.
+//
+// Solo vale con una instancia de la app: los hoaxes que se guardan en otra no llegan a este buffer. Si se
+// configura un nodo (hoaxify.node-id, ver TimeOrderedIdGenerator) se entiende que hay varias, y el buffer
+// no se usa: las lecturas van siempre a la BD.
+@Component
+public class HoaxFeedCache {
+
+    private static final HoaxVM[] EMPTY = new HoaxVM[0];
+
+    HoaxRepository hoaxRepository;
+
+    private final int capacity;
+
+    private final boolean enabled;
+
+    // Del más nuevo al más antiguo, sin repetidos. No se modifica nunca: cada escritura publica otro
+    private volatile HoaxVM[] hoaxes = EMPTY;
+
+    private volatile long floorId = Long.MIN_VALUE;
+
+    private volatile boolean loaded;
+
+    public HoaxFeedCache(HoaxRepository hoaxRepository, AppConfiguration appConfiguration) {
+        this.hoaxRepository = hoaxRepository;
+        this.capacity = appConfiguration.getFeedCacheSize();
+        this.enabled = appConfiguration.getNodeId() == null;
+    }
+
+    // Un hoax puede llegar dos veces (por la carga inicial y por put), y entonces se sustituye
+    public synchronized void put(HoaxVM hoax) {
+        if (!enabled) {
+            return;
+        }
+
+        HoaxVM[] current = hoaxes;
+        int index = indexOf(current, hoax.getId());
+        if (index >= 0) {
+            HoaxVM[] updated = current.clone();
+            updated[index] = hoax;
+            hoaxes = updated;
+            return;
+        }
+
+        int insertAt = -index - 1;
+        int length = Math.min(current.length + 1, capacity);
+        if (insertAt >= length) {
+            // Más antiguo que todo lo que cabe: se expulsa directamente
+            raiseFloor(hoax.getId() + 1);
+            return;
+        }
+        if (current.length == capacity) {
+            raiseFloor(current[current.length - 1].getId() + 1);
+        }
+        HoaxVM[] updated = new HoaxVM[length];
+        System.arraycopy(current, 0, updated, 0, insertAt);
+        updated[insertAt] = hoax;
+        System.arraycopy(current, insertAt, updated, insertAt + 1, length - insertAt - 1);
+        hoaxes = updated;
+    }
+
+    public synchronized void remove(long id) {
+        HoaxVM[] current = hoaxes;
+        int index = indexOf(current, id);
+        if (index < 0) {
+            return;
+        }
+        HoaxVM[] updated = new HoaxVM[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        hoaxes = updated;
+    }
+
+    // Los HoaxVM guardados llevan una copia de los datos del usuario, así que hay que sustituirlos
+    // cuando el usuario cambia su displayName o su imagen
+    @EventListener
+    public synchronized void onUserUpdated(UserUpdatedEvent event) {
+        UserVM user = new UserVM(event.getUser());
+        HoaxVM[] updated = hoaxes.clone();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i].getUser().getId() == user.getId()) {
+                updated[i] = copyWithUser(updated[i], user);
+            }
+        }
+        hoaxes = updated;
+    }
+
+    // Hoaxes con id mayor que el indicado, del más nuevo al más antiguo.
+    // Vacío si el buffer no garantiza tenerlos todos.
+    public Optional<List<HoaxVM>> getNewerThan(long id) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        ensureLoaded();
+        if (id + 1 < floorId) {
+            return Optional.empty();
+        }
+
+        List<HoaxVM> newer = new ArrayList<>();
+        for (HoaxVM hoax : hoaxes) {
+            if (hoax.getId() <= id) {
+                break;
+            }
+            newer.add(hoax);
+        }
+        return Optional.of(newer);
+    }
+
+    // Los count hoaxes más nuevos (o menos si la tabla entera cabe en el buffer).
+    // Vacío si el buffer no los cubre.
+    public Optional<List<HoaxVM>> getLatest(int count) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        ensureLoaded();
+        // El array y el límite se leen por separado. Si entre medias se expulsa algún hoax, el límite nuevo
+        // deja fuera los que ya no están garantizados
+        HoaxVM[] current = hoaxes;
+        long floor = floorId;
+        List<HoaxVM> latest = new ArrayList<>();
+        for (HoaxVM hoax : current) {
+            if (hoax.getId() < floor || latest.size() == count) {
+                break;
+            }
+            latest.add(hoax);
+        }
+
+        if (latest.size() < count && floor != Long.MIN_VALUE) {
+            return Optional.empty();
+        }
+        return Optional.of(latest);
+    }
+
+    // Vacía el buffer. La siguiente lectura lo vuelve a cargar desde la BD.
+    public synchronized void clear() {
+        loaded = false;
+        hoaxes = EMPTY;
+        floorId = Long.MIN_VALUE;
+    }
+
+    // Carga inicial desde la BD. Los hoaxes que se guarden mientras tanto esperan al lock y se añaden después
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+
+            Slice<HoaxProjection> latest = hoaxRepository.findFeedSliceBefore(Long.MAX_VALUE,
+                    PageRequest.of(0, capacity, Sort.by(Sort.Direction.DESC, "id")));
+            List<HoaxProjection> content = latest.getContent();
+            for (HoaxProjection hoax : content) {
+                put(new HoaxVM(hoax));
+            }
+            if (latest.hasNext()) {
+                raiseFloor(content.get(content.size() - 1).getId());
+            }
+            loaded = true;
+        }
+    }
+
+    // Con el lock cogido
+    private void raiseFloor(long id) {
+        floorId = Math.max(floorId, id);
+    }
+
+    // Búsqueda binaria en orden descendente. Igual que Arrays.binarySearch, si no está devuelve
+    // -(posición donde iría) - 1
+    private static int indexOf(HoaxVM[] sorted, long id) {
+        int low = 0;
+        int high = sorted.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = sorted[middle].getId();
+            if (middleId > id) {
+                low = middle + 1;
+            } else if (middleId < id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private HoaxVM copyWithUser(HoaxVM hoax, UserVM user) {
+        HoaxVM copy = new HoaxVM();
+        copy.setId(hoax.getId());
+        copy.setContent(hoax.getContent());
+        copy.setDate(hoax.getDate());
+        copy.setAttachment(hoax.getAttachment());
+        copy.setUser(user);
+        return copy;
+    }
+}
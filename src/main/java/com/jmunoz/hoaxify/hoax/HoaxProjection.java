@@ -0,0 +1,37 @@
+package com.jmunoz.hoaxify.hoax;
+
+import lombok.Value;
+
+import java.util.Date;
+
+// DTO inmutable con exactamente las columnas que necesita HoaxVM.
+// Se rellena directamente desde la query JPQL con "select new ..." (ver HoaxRepository), así que no se
+// cargan entidades Hoax, User ni FileAttachment en el contexto de persistencia: ni password, ni la colección
+// de hoaxes del usuario, ni dirty checking al terminar la petición.
+//
+// Los campos del adjunto son null cuando el hoax no tiene adjunto (left join).
+@Value
+public class HoaxProjection {
+
+    long id;
+
+    String content;
+
+    Date timestamp;
+
+    long userId;
+
+    String username;
+
+    String displayName;
+
+    String image;
+
+    String imageVariants;
+
+    String attachmentName;
+
+    String attachmentFileType;
+
+    String attachmentVariants;
+}
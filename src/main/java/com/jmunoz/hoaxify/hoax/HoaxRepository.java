@@ -1,14 +1,83 @@
 package com.jmunoz.hoaxify.hoax;
 
-import com.jmunoz.hoaxify.user.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
 
 // Generando queries dinámicas con JPA
 // Para poder usar Specification (ver HoaxService) tenemos que extender también de JPASpecificationExecutor
+//
+// Evitando el problema N+1
+// HoaxVM lee el usuario y el adjunto de cada hoax. El @OneToOne(mappedBy = "hoax") de Hoax.attachment no
+// puede ser lazy, así que una página de 100 hoaxes lanzaba hasta 200 selects extra.
+// Con @EntityGraph le pedimos a JPA que traiga user y attachment en la misma query con un join.
+// Para los métodos heredados (findAll) los redeclaramos aquí para poder anotarlos.
 public interface HoaxRepository extends JpaRepository<Hoax, Long>, JpaSpecificationExecutor<Hoax> {
 
-    Page<Hoax> findByUser(User user, Pageable pageable);
+    @Override
+    @EntityGraph(attributePaths = {"user", "attachment"})
+    Page<Hoax> findAll(Pageable pageable);
+
+    @Override
+    @EntityGraph(attributePaths = {"user", "attachment"})
+    Page<Hoax> findAll(Specification<Hoax> spec, Pageable pageable);
+
+    @Override
+    @EntityGraph(attributePaths = {"user", "attachment"})
+    List<Hoax> findAll(Specification<Hoax> spec, Sort sort);
+
+    // Proyecciones para los feeds.
+    // Las lecturas más frecuentes solo necesitan unas pocas columnas para construir HoaxVM, así que las
+    // seleccionamos directamente en un HoaxProjection en vez de hidratar las entidades.
+    // Al ser queries con @Query hay que indicar el count de las que devuelven Page.
+    String FEED_SELECT = "select new com.jmunoz.hoaxify.hoax.HoaxProjection(h.id, h.content, h.timestamp, "
+            + "u.id, u.username, u.displayName, u.image, u.imageVariants, a.name, a.fileType, a.variants) "
+            + "from Hoax h join h.user u left join h.attachment a ";
+
+    @Query(value = FEED_SELECT, countQuery = "select count(h) from Hoax h")
+    Page<HoaxProjection> findFeed(Pageable pageable);
+
+    @Query(value = FEED_SELECT + "where u.id = :userId",
+            countQuery = "select count(h) from Hoax h where h.user.id = :userId")
+    Page<HoaxProjection> findFeedOfUser(@Param("userId") long userId, Pageable pageable);
+
+    @Query(FEED_SELECT + "where h.id > :id")
+    List<HoaxProjection> findFeedAfter(@Param("id") long id, Sort sort);
+
+    @Query(FEED_SELECT + "where u.id = :userId and h.id > :id")
+    List<HoaxProjection> findFeedOfUserAfter(@Param("userId") long userId, @Param("id") long id, Sort sort);
+
+    // Paginación por keyset (cursor).
+    // Al devolver Slice en vez de Page, Spring Data pide un elemento más de los solicitados para saber si hay
+    // siguiente página y no ejecuta el count(*). Además, al filtrar por id en vez de usar OFFSET, la BD salta
+    // directamente a la posición del cursor usando la clave primaria, sea cual sea la página.
+    @Query(FEED_SELECT + "where h.id < :id")
+    Slice<HoaxProjection> findFeedSliceBefore(@Param("id") long id, Pageable pageable);
+
+    @Query(FEED_SELECT + "where h.id > :id")
+    Slice<HoaxProjection> findFeedSliceAfter(@Param("id") long id, Pageable pageable);
+
+    @Query(FEED_SELECT + "where u.id = :userId and h.id < :id")
+    Slice<HoaxProjection> findFeedSliceOfUserBefore(@Param("userId") long userId, @Param("id") long id,
+                                                    Pageable pageable);
+
+    @Query(FEED_SELECT + "where u.id = :userId and h.id > :id")
+    Slice<HoaxProjection> findFeedSliceOfUserAfter(@Param("userId") long userId, @Param("id") long id,
+                                                   Pageable pageable);
+
+    // Borra el hoax solo si es del usuario indicado. Devuelve las filas borradas (0 o 1).
+    // h.user.id es la columna user_id, no hace join
+    @Modifying
+    @Query("delete from Hoax h where h.id = :id and h.user.id = :userId")
+    int deleteByIdAndUserId(@Param("id") long id, @Param("userId") long userId);
 }
@@ -3,19 +3,38 @@ package com.jmunoz.hoaxify.hoax;
 import com.jmunoz.hoaxify.file.FileAttachment;
 import com.jmunoz.hoaxify.file.FileAttachmentRepository;
 import com.jmunoz.hoaxify.file.FileService;
+import com.jmunoz.hoaxify.shared.AfterCommit;
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
 import com.jmunoz.hoaxify.user.User;
 import com.jmunoz.hoaxify.user.UserService;
+import com.jmunoz.hoaxify.user.UserSnapshot;
+import com.jmunoz.hoaxify.user.vm.UserVM;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class HoaxService {
 
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "id");
+
     HoaxRepository hoaxRepository;
 
     UserService userService;
@@ -24,21 +43,33 @@ public class HoaxService {
 
     FileService fileService;
 
+    HoaxFeedCache hoaxFeedCache;
+
+    HoaxStreamBroadcaster hoaxStreamBroadcaster;
+
+    NewHoaxWaiters newHoaxWaiters;
+
     // Inyectado en el constructor.
     // En las clases Service escogimos inyección en constructor, ya que Spring creará una instancia de esta clase
     // HoaxService, llamará a este constructor y verá que el constructor busca HoaxRepository y suministrará la
     // instancia de HoaxRepository
     public HoaxService(HoaxRepository hoaxRepository, UserService userService,
-                       FileAttachmentRepository fileAttachmentRepository, FileService fileService) {
+                       FileAttachmentRepository fileAttachmentRepository, FileService fileService,
+                       HoaxFeedCache hoaxFeedCache, HoaxStreamBroadcaster hoaxStreamBroadcaster,
+                       NewHoaxWaiters newHoaxWaiters) {
         this.hoaxRepository = hoaxRepository;
         this.userService = userService;
         this.fileAttachmentRepository = fileAttachmentRepository;
         this.fileService = fileService;
+        this.hoaxFeedCache = hoaxFeedCache;
+        this.hoaxStreamBroadcaster = hoaxStreamBroadcaster;
+        this.newHoaxWaiters = newHoaxWaiters;
     }
 
-    public Hoax save(User user, Hoax hoax) {
+    // El autor se asocia con una referencia (UserService.getReference): el insert solo necesita su id
+    public Hoax save(AuthenticatedUser user, Hoax hoax) {
         hoax.setTimestamp(new Date());
-        hoax.setUser(user);
+        hoax.setUser(userService.getReference(user.getId()));
         // Se utiliza hoax.getAttachment para saber que hay un adjunto, pero no se puede utilizar
         // para actualizar.
         // Tenemos que recoger el FileAttachment que hay en BD, con todos los campos cargados, y ese
@@ -48,40 +79,175 @@ public class HoaxService {
             inDB.setHoax(hoax);
             hoax.setAttachment(inDB);
         }
-        return hoaxRepository.save(hoax);
+        Hoax saved = hoaxRepository.save(hoax);
+        HoaxVM hoaxVM = new HoaxVM(saved, new UserVM(user));
+        AfterCommit.run(() -> {
+            hoaxFeedCache.put(hoaxVM);
+            hoaxStreamBroadcaster.publishSaved(hoaxVM);
+            newHoaxWaiters.notifyNewHoax(user.getUsername());
+        });
+        return saved;
+    }
+
+    // Alta de varios hoaxes en una sola transacción (POST /hoaxes/batch). Los hoaxes ya vienen validados.
+    // Hibernate agrupa los inserts en lotes JDBC (hibernate.jdbc.batch_size en application.yml), y como los
+    // ids los da TimeOrderedIdGenerator no hace falta ir a la BD para cada uno.
+    // Los adjuntos se cargan todos con una sola query.
+    // Devuelve el resultado de cada hoax (su id o sus errores) en el mismo orden en que llegaron.
+    @Transactional
+    public List<HoaxBatchResult> saveAll(AuthenticatedUser user, List<Hoax> hoaxes) {
+        List<Long> attachmentIds = hoaxes.stream()
+                .filter(hoax -> hoax.getAttachment() != null)
+                .map(hoax -> hoax.getAttachment().getId())
+                .collect(Collectors.toList());
+        Map<Long, FileAttachment> attachments = attachmentIds.isEmpty() ? Collections.emptyMap()
+                : fileAttachmentRepository.findAllById(attachmentIds).stream()
+                        .collect(Collectors.toMap(FileAttachment::getId, Function.identity()));
+
+        // Un adjunto que no existe es un error de ese hoax, no de todo el lote. Ese hoax no se guarda y su
+        // resultado lo dice, igual que con los errores de validación
+        List<HoaxBatchResult> results = new ArrayList<>();
+        List<Hoax> valid = new ArrayList<>();
+        Date now = new Date();
+        User author = userService.getReference(user.getId());
+        for (Hoax hoax : hoaxes) {
+            if (hoax.getAttachment() != null) {
+                FileAttachment inDB = attachments.get(hoax.getAttachment().getId());
+                if (inDB == null) {
+                    results.add(new HoaxBatchResult(Collections.singletonMap("attachment", "Attachment not found")));
+                    continue;
+                }
+                inDB.setHoax(hoax);
+                hoax.setAttachment(inDB);
+            }
+            hoax.setTimestamp(now);
+            hoax.setUser(author);
+            valid.add(hoax);
+            results.add(null);
+        }
+        if (valid.isEmpty()) {
+            return results;
+        }
+
+        List<Hoax> saved = hoaxRepository.saveAll(valid);
+        int next = 0;
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) == null) {
+                results.set(i, new HoaxBatchResult(saved.get(next++).getId()));
+            }
+        }
+
+        UserVM authorVM = new UserVM(user);
+        List<HoaxVM> hoaxVMs = saved.stream().map(hoax -> new HoaxVM(hoax, authorVM)).collect(Collectors.toList());
+        AfterCommit.run(() -> {
+            for (HoaxVM hoaxVM : hoaxVMs) {
+                hoaxFeedCache.put(hoaxVM);
+                hoaxStreamBroadcaster.publishSaved(hoaxVM);
+            }
+            newHoaxWaiters.notifyNewHoax(user.getUsername());
+        });
+        return results;
+    }
+
+    // Suscripción a los hoaxes nuevos y borrados por Server-Sent Events, del feed global o de un usuario
+    public HoaxEventStream streamHoaxes(String username) {
+        if (username != null) {
+            userService.getByUsername(username);
+        }
+        return hoaxStreamBroadcaster.subscribe(username);
+    }
+
+    // Las lecturas del feed usan proyecciones (HoaxProjection) en vez de entidades
+    public Page<HoaxProjection> getAllHoaxes(Pageable pageable) {
+        return hoaxRepository.findFeed(pageable);
     }
 
-    public Page<Hoax> getAllHoaxes(Pageable pageable) {
-        return hoaxRepository.findAll(pageable);
+    public Page<HoaxProjection> getHoaxesOfUser(String username, Pageable pageable) {
+        UserSnapshot inDB = userService.getByUsername(username);
+        return hoaxRepository.findFeedOfUser(inDB.getId(), pageable);
     }
 
-    public Page<Hoax> getHoaxesOfUser(String username, Pageable pageable) {
-        User inDB = userService.getByUsername(username);
-        return hoaxRepository.findByUser(inDB, pageable);
+    // Paginación por cursor. Si no hay cursor empezamos por el hoax más nuevo.
+    // La primera página del feed global se sirve desde HoaxFeedCache si la cubre. Se piden size + 1 hoaxes
+    // para saber si hay página siguiente, igual que hace Spring Data con Slice.
+    public Slice<HoaxVM> getHoaxesBefore(Long id, String username, int size) {
+        Pageable pageable = PageRequest.of(0, size, Sort.by(Sort.Direction.DESC, "id"));
+        if (id == null && username == null) {
+            Optional<List<HoaxVM>> cached = hoaxFeedCache.getLatest(size + 1);
+            if (cached.isPresent()) {
+                List<HoaxVM> latest = cached.get();
+                boolean hasNext = latest.size() > size;
+                return new SliceImpl<>(hasNext ? latest.subList(0, size) : latest, pageable, hasNext);
+            }
+        }
+
+        long cursor = id == null ? Long.MAX_VALUE : id;
+        if (username == null) {
+            return hoaxRepository.findFeedSliceBefore(cursor, pageable).map(HoaxVM::new);
+        }
+        UserSnapshot inDB = userService.getByUsername(username);
+        return hoaxRepository.findFeedSliceOfUserBefore(inDB.getId(), cursor, pageable).map(HoaxVM::new);
+    }
+
+    // Se ordena ascendente para quedarnos con los hoaxes más cercanos al cursor y no con los más nuevos
+    public Slice<HoaxVM> getHoaxesAfter(long id, String username, int size) {
+        Pageable pageable = PageRequest.of(0, size, Sort.by(Sort.Direction.ASC, "id"));
+        if (username == null) {
+            return hoaxRepository.findFeedSliceAfter(id, pageable).map(HoaxVM::new);
+        }
+        UserSnapshot inDB = userService.getByUsername(username);
+        return hoaxRepository.findFeedSliceOfUserAfter(inDB.getId(), id, pageable).map(HoaxVM::new);
     }
 
     public Page<Hoax> getOldHoaxes(long id, String username, Pageable pageable) {
         Specification<Hoax> spec = Specification.where(idLessThan(id));
         if (username != null) {
-            User inDB = userService.getByUsername(username);
+            UserSnapshot inDB = userService.getByUsername(username);
             spec = spec.and(userIs(inDB));
         }
         return hoaxRepository.findAll(spec, pageable);
     }
 
-    public List<Hoax> getNewHoaxes(long id, String username, Pageable pageable) {
-        Specification<Hoax> spec = Specification.where(idGreaterThan(id));
-        if (username != null) {
-            User inDB = userService.getByUsername(username);
-            spec = spec.and(userIs(inDB));
+    // Los hoaxes nuevos del feed global se sirven desde HoaxFeedCache, que los tiene ordenados del más
+    // nuevo al más antiguo. Con otra ordenación, o si el id es demasiado antiguo, vamos a la BD.
+    public List<HoaxVM> getNewHoaxes(long id, String username, Pageable pageable) {
+        if (username == null && NEWEST_FIRST.equals(pageable.getSort())) {
+            Optional<List<HoaxVM>> cached = hoaxFeedCache.getNewerThan(id);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+        }
+
+        List<HoaxProjection> newHoaxes;
+        if (username == null) {
+            newHoaxes = hoaxRepository.findFeedAfter(id, pageable.getSort());
+        } else {
+            UserSnapshot inDB = userService.getByUsername(username);
+            newHoaxes = hoaxRepository.findFeedOfUserAfter(inDB.getId(), id, pageable.getSort());
         }
-        return hoaxRepository.findAll(spec, pageable.getSort());
+        return newHoaxes.stream().map(HoaxVM::new).collect(Collectors.toList());
+    }
+
+    // Long polling: responde en cuanto haya hoaxes más nuevos que id, o con una lista vacía al terminar timeout.
+    // Las consultas las hace NewHoaxWaiters en su pool, nunca el hilo de la petición.
+    public DeferredResult<List<HoaxVM>> waitForNewHoaxes(long id, String username, Pageable pageable, long timeout) {
+        return newHoaxWaiters.await(username, timeout, Collections.emptyList(), () -> {
+            List<HoaxVM> newHoaxes = getNewHoaxes(id, username, pageable);
+            return newHoaxes.isEmpty() ? Optional.empty() : Optional.of(newHoaxes);
+        });
     }
 
     public long getNewHoaxesCount(long id, String username) {
+        if (username == null) {
+            Optional<List<HoaxVM>> cached = hoaxFeedCache.getNewerThan(id);
+            if (cached.isPresent()) {
+                return cached.get().size();
+            }
+        }
+
         Specification<Hoax> spec = Specification.where(idGreaterThan(id));
         if (username != null) {
-            User inDB = userService.getByUsername(username);
+            UserSnapshot inDB = userService.getByUsername(username);
             spec = spec.and(userIs(inDB));
         }
 
@@ -93,11 +259,11 @@ public class HoaxService {
     //
     // Chequeamos la igualdad de user.
     // El primer parámetro en el valor que obtenemos de nuestros resultados de la query.
-    //    root es el objeto Hoax, y obtenemos el campo user.
-    // El segundo parámetro es el objeto user que tenemos como parámetro en el método
-    private Specification<Hoax> userIs(User user) {
+    //    root es el objeto Hoax, y obtenemos el id de su campo user (la FK, sin join).
+    // El segundo parámetro es el id del user que tenemos como parámetro en el método
+    private Specification<Hoax> userIs(UserSnapshot user) {
         // Como función lambda
-        return (root, query, criteriaBuilder) -> criteriaBuilder.equal(root.get("user"), user);
+        return (root, query, criteriaBuilder) -> criteriaBuilder.equal(root.get("user").get("id"), user.getId());
 
         // Sin usar lambda
 //        return new Specification<Hoax>() {
@@ -117,11 +283,21 @@ public class HoaxService {
         return (root, query, criteriaBuilder) -> criteriaBuilder.greaterThan(root.get("id"), id);
     }
 
-    public void deleteHoax(long id) {
-        Hoax hoax = hoaxRepository.getReferenceById(id);
-        if (hoax.getAttachment() != null) {
-            fileService.deleteAttachmentImage(hoax.getAttachment().getName());
+    // Borrado en dos sentencias: se lee el nombre del adjunto y se borra el hoax solo si es de loggedInUser.
+    // La fila del adjunto la borra la BD (on delete cascade, migración V4), y el fichero se borra al confirmar.
+    // Si no se borra nada, el hoax no existe o es de otro usuario: AccessDeniedException, que Spring Security
+    // convierte en 403 como hacía @PreAuthorize.
+    @Transactional
+    public void deleteHoax(long id, AuthenticatedUser loggedInUser) {
+        Optional<String> attachmentName = fileAttachmentRepository.findNameByHoaxId(id);
+        if (hoaxRepository.deleteByIdAndUserId(id, loggedInUser.getId()) == 0) {
+            throw new AccessDeniedException("You are not allowed to delete this hoax");
         }
-        hoaxRepository.deleteById(id);
+        String username = loggedInUser.getUsername();
+        AfterCommit.run(() -> {
+            attachmentName.ifPresent(fileService::deleteAttachmentImage);
+            hoaxFeedCache.remove(id);
+            hoaxStreamBroadcaster.publishDeleted(id, username);
+        });
     }
 }
@@ -0,0 +1,266 @@
+package com.jmunoz.hoaxify.hoax;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Reparte los hoaxes nuevos y los borrados a los clientes conectados por Server-Sent Events.
+// Sustituye al polling de GET /hoaxes/{id}?direction=after&count=true: en vez de miles de count(*) por
+// segundo, se hace un envío por cada escritura.
+//
+// Cada cliente tiene una cola acotada. publish solo encola y un pool pequeño de hilos se encarga de enviar,
+// así que quien guarda el hoax no espera a la red. Si la cola de un cliente se llena (cliente lento) o el
+// envío falla, se le desconecta. El cliente se puede volver a conectar y recuperar lo perdido con
+// GET /hoaxes/{id}?direction=after usando el id del último evento recibido.
+//
+// Un cliente que no lee deja el envío bloqueado en el socket, y complete() no libera ese hilo. Un vigilante
+// revisa los envíos en curso y, si alguno pasa de hoaxify.stream-write-timeout, desconecta al cliente, interrumpe
+// el hilo y pone otro en el pool mientras siga atascado. Así los demás clientes siempre tienen
+// hoaxify.stream-dispatch-threads hilos para ellos.
+@Component
+public class HoaxStreamBroadcaster {
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    private final ObjectMapper objectMapper;
+
+    private final int bufferSize;
+
+    private final long timeout;
+
+    private final int dispatchThreads;
+
+    private final long writeTimeout;
+
+    private final ThreadPoolExecutor dispatcher;
+
+    private final ScheduledExecutorService watchdog;
+
+    // Hilos del pool atascados en un envío. Se sustituyen por otros hasta que terminan
+    private int stalledThreads;
+
+    public HoaxStreamBroadcaster(AppConfiguration appConfiguration, ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.bufferSize = appConfiguration.getStreamBufferSize();
+        this.timeout = appConfiguration.getStreamTimeout();
+        this.dispatchThreads = appConfiguration.getStreamDispatchThreads();
+        this.writeTimeout = appConfiguration.getStreamWriteTimeout();
+        AtomicInteger threadCount = new AtomicInteger();
+        // Como mucho hay una tarea por cliente en la cola (ver schedule)
+        this.dispatcher = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "hoax-stream-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hoax-stream-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, writeTimeout / 2);
+        watchdog.scheduleAtFixedRate(this::checkStalledSends, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // username null significa el feed global
+    public HoaxEventStream subscribe(String username) {
+        HoaxEventStream emitter = new HoaxEventStream(timeout);
+        try {
+            // Un comentario inicial para que el cliente reciba las cabeceras sin esperar al primer hoax
+            emitter.sendEvent(HoaxEventStream.comment("connected"));
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+            return emitter;
+        }
+        subscribe(username, emitter);
+        return emitter;
+    }
+
+    public void subscribe(String username, HoaxEventStream emitter) {
+        Subscriber subscriber = new Subscriber(username, emitter, bufferSize);
+        subscribers.add(subscriber);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> evict(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public void publishSaved(HoaxVM hoax) {
+        publish(hoax.getUser().getUsername(), render("hoax", hoax.getId(), hoax));
+    }
+
+    public void publishDeleted(long id, String username) {
+        publish(username, render("delete", id, Collections.singletonMap("id", id)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.forEach(this::evict);
+        watchdog.shutdownNow();
+        dispatcher.shutdownNow();
+    }
+
+    // El evento se formatea una sola vez, y no una vez por cliente: todos reciben el mismo texto
+    private String render(String name, long id, Object data) {
+        try {
+            return HoaxEventStream.event(String.valueOf(id), name, objectMapper.writeValueAsString(data));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize " + name + " event", e);
+        }
+    }
+
+    private void publish(String owner, String event) {
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.username != null && !subscriber.username.equals(owner)) {
+                continue;
+            }
+
+            if (!subscriber.queue.offer(event)) {
+                evict(subscriber);
+                continue;
+            }
+            schedule(subscriber);
+        }
+    }
+
+    // Como mucho un hilo vaciando la cola de cada cliente, para que los eventos lleguen en orden
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.draining.compareAndSet(false, true)) {
+            dispatcher.execute(() -> drain(subscriber));
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        try {
+            String event;
+            while ((event = subscriber.queue.poll()) != null) {
+                subscriber.startSending();
+                subscriber.emitter.sendEvent(event);
+                if (subscriber.finishSending()) {
+                    // El vigilante ya lo ha dado por atascado y desconectado
+                    stalledThreadReleased();
+                    return;
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            // La conexión está rota o ya cerrada. No se llama a complete(): el contenedor se encarga de cerrarla
+            if (subscriber.finishSending()) {
+                stalledThreadReleased();
+            }
+            subscribers.remove(subscriber);
+            subscriber.queue.clear();
+            return;
+        } finally {
+            subscriber.draining.set(false);
+        }
+
+        // Puede haber llegado un evento justo después de vaciar la cola
+        if (!subscriber.queue.isEmpty()) {
+            schedule(subscriber);
+        }
+    }
+
+    // Ejecutado por el vigilante cada writeTimeout / 2
+    private void checkStalledSends() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            Thread sender = subscriber.markStalled(now, TimeUnit.MILLISECONDS.toNanos(writeTimeout));
+            if (sender != null) {
+                stalledThreadAdded();
+                evict(subscriber);
+                sender.interrupt();
+            }
+        }
+    }
+
+    // El core se cambia siempre en el orden que permite ThreadPoolExecutor (max >= core)
+    private synchronized void stalledThreadAdded() {
+        stalledThreads++;
+        dispatcher.setMaximumPoolSize(dispatchThreads + stalledThreads);
+        dispatcher.setCorePoolSize(dispatchThreads + stalledThreads);
+    }
+
+    private synchronized void stalledThreadReleased() {
+        stalledThreads--;
+        dispatcher.setCorePoolSize(dispatchThreads + stalledThreads);
+        dispatcher.setMaximumPoolSize(dispatchThreads + stalledThreads);
+    }
+
+    private void evict(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            subscriber.queue.clear();
+            try {
+                subscriber.emitter.complete();
+            } catch (RuntimeException e) {
+                // La conexión ya estaba cerrada
+            }
+        }
+    }
+
+    private static class Subscriber {
+
+        final String username;
+
+        final HoaxEventStream emitter;
+
+        final BlockingQueue<String> queue;
+
+        final AtomicBoolean draining = new AtomicBoolean();
+
+        // Envío en curso: cuándo empezó (0 si no hay ninguno), qué hilo lo hace y si el vigilante lo ha dado por
+        // atascado. Se leen y cambian juntos, con el lock del propio Subscriber
+        private long sendingSince;
+
+        private Thread sender;
+
+        private boolean stalled;
+
+        Subscriber(String username, HoaxEventStream emitter, int bufferSize) {
+            this.username = username;
+            this.emitter = emitter;
+            this.queue = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        synchronized void startSending() {
+            sendingSince = System.nanoTime();
+            sender = Thread.currentThread();
+        }
+
+        // Devuelve si el vigilante lo había dado por atascado
+        synchronized boolean finishSending() {
+            sendingSince = 0;
+            sender = null;
+            boolean wasStalled = stalled;
+            stalled = false;
+            return wasStalled;
+        }
+
+        // Devuelve el hilo del envío si lleva más de timeout y no se había dado ya por atascado
+        synchronized Thread markStalled(long now, long timeout) {
+            if (sendingSince == 0 || stalled || now - sendingSince < timeout) {
+                return null;
+            }
+            stalled = true;
+            return sender;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.jmunoz.hoaxify.hoax;
 
 import com.jmunoz.hoaxify.file.FileAttachmentVM;
+import com.jmunoz.hoaxify.file.ImageVariants;
 import com.jmunoz.hoaxify.user.vm.UserVM;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -21,13 +22,41 @@ public class HoaxVM {
     private FileAttachmentVM attachment;
 
     public HoaxVM(Hoax hoax) {
+        this(hoax, new UserVM(hoax.getUser()));
+    }
+
+    // Para un hoax recién guardado: su user es solo una referencia (ver HoaxService.save), los datos del autor
+    // vienen del usuario autenticado
+    public HoaxVM(Hoax hoax, UserVM user) {
         this.setId(hoax.getId());
         this.setContent(hoax.getContent());
         this.setDate(hoax.getTimestamp().getTime());
-        this.setUser(new UserVM(hoax.getUser()));
+        this.setUser(user);
 
         if (hoax.getAttachment() != null) {
             this.setAttachment(new FileAttachmentVM(hoax.getAttachment()));
         }
     }
+
+    public HoaxVM(HoaxProjection hoax) {
+        this.setId(hoax.getId());
+        this.setContent(hoax.getContent());
+        this.setDate(hoax.getTimestamp().getTime());
+
+        UserVM user = new UserVM();
+        user.setId(hoax.getUserId());
+        user.setUsername(hoax.getUsername());
+        user.setDisplayName(hoax.getDisplayName());
+        user.setImage(hoax.getImage());
+        user.setImageVariants(ImageVariants.names(hoax.getImage(), hoax.getImageVariants()));
+        this.setUser(user);
+
+        if (hoax.getAttachmentName() != null) {
+            FileAttachmentVM attachment = new FileAttachmentVM();
+            attachment.setName(hoax.getAttachmentName());
+            attachment.setFileType(hoax.getAttachmentFileType());
+            attachment.setVariants(ImageVariants.names(hoax.getAttachmentName(), hoax.getAttachmentVariants()));
+            this.setAttachment(attachment);
+        }
+    }
 }
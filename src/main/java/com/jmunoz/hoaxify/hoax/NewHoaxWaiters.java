@@ -0,0 +1,152 @@
+package com.jmunoz.hoaxify.hoax;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PreDestroy;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Clientes esperando hoaxes nuevos con long polling, agrupados por feed: el global y uno por usuario.
+//
+// Mientras esperan no ocupan ningún hilo de Tomcat (la respuesta es un DeferredResult) ni ninguna conexión a
+// la BD: las consultas se hacen en un pool propio, y solo al registrarse y cada vez que HoaxService avisa de
+// un hoax nuevo en su feed.
+//
+// La cola del pool está acotada. Los avisos de un mismo feed se agrupan: mientras haya una comprobación del
+// feed pendiente, los avisos nuevos no encolan otra (esa comprobación ya verá sus hoaxes). Así una ráfaga
+// de hoaxes ocupa una tarea por feed, y no una por cliente y hoax.
+@Component
+public class NewHoaxWaiters {
+
+    private static final Logger log = LoggerFactory.getLogger(NewHoaxWaiters.class);
+
+    private static final String GLOBAL_FEED = "";
+
+    private final ConcurrentHashMap<String, Feed> feeds = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor executor;
+
+    public NewHoaxWaiters(AppConfiguration appConfiguration) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(appConfiguration.getLongPollThreads(),
+                appConfiguration.getLongPollThreads(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(appConfiguration.getLongPollQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "hoax-long-poll-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // check devuelve el resultado si ya hay hoaxes nuevos. Si al terminar timeout no los hay, se responde
+    // con timeoutResult.
+    // Primero se registra y después se comprueba, para no perder un hoax guardado entre medias.
+    public <T> DeferredResult<T> await(String username, long timeout, T timeoutResult, Supplier<Optional<T>> check) {
+        String feed = username == null ? GLOBAL_FEED : username;
+        DeferredResult<T> result = new DeferredResult<>(timeout, timeoutResult);
+        Waiter<T> waiter = new Waiter<>(result, check);
+
+        // El alta va dentro de compute para que no se cuele entre remove y el borrado del feed vacío
+        feeds.compute(feed, (key, existing) -> {
+            Feed target = existing == null ? new Feed() : existing;
+            target.waiters.add(waiter);
+            return target;
+        });
+        result.onCompletion(() -> remove(feed, waiter));
+        try {
+            executor.execute(waiter::check);
+        } catch (RejectedExecutionException e) {
+            // Con la cola llena se responde como si se hubiera acabado el tiempo, y el cliente vuelve a preguntar
+            log.warn("Long poll queue is full, answering without waiting");
+            result.setResult(timeoutResult);
+        }
+        return result;
+    }
+
+    // Se avisa a los que esperan en el feed global y en el del usuario
+    public void notifyNewHoax(String username) {
+        notifyFeed(GLOBAL_FEED);
+        notifyFeed(username);
+    }
+
+    public int getWaiterCount() {
+        return feeds.values().stream().mapToInt(feed -> feed.waiters.size()).sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void notifyFeed(String name) {
+        Feed feed = feeds.get(name);
+        if (feed == null || !feed.pending.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> check(feed));
+        } catch (RejectedExecutionException e) {
+            // Los clientes de este feed se enteran con el siguiente aviso o, como mucho, al acabar su tiempo
+            feed.pending.set(false);
+            log.warn("Long poll queue is full, skipping notification of feed '{}'", name);
+        }
+    }
+
+    // pending se baja antes de comprobar: un aviso que llegue durante la comprobación encola otra
+    private void check(Feed feed) {
+        feed.pending.set(false);
+        feed.waiters.forEach(Waiter::check);
+    }
+
+    private void remove(String name, Waiter<?> waiter) {
+        feeds.computeIfPresent(name, (key, feed) -> {
+            feed.waiters.remove(waiter);
+            return feed.waiters.isEmpty() ? null : feed;
+        });
+    }
+
+    private static class Feed {
+
+        final Set<Waiter<?>> waiters = ConcurrentHashMap.newKeySet();
+
+        final AtomicBoolean pending = new AtomicBoolean();
+    }
+
+    private static class Waiter<T> {
+
+        final DeferredResult<T> result;
+
+        final Supplier<Optional<T>> check;
+
+        Waiter(DeferredResult<T> result, Supplier<Optional<T>> check) {
+            this.result = result;
+            this.check = check;
+        }
+
+        void check() {
+            if (result.isSetOrExpired()) {
+                return;
+            }
+
+            try {
+                check.get().ifPresent(result::setResult);
+            } catch (RuntimeException e) {
+                // Por ejemplo NotFoundException si el usuario no existe
+                result.setErrorResult(e);
+            }
+        }
+    }
+}
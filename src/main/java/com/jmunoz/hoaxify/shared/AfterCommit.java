@@ -0,0 +1,27 @@
+package com.jmunoz.hoaxify.shared;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// Ejecuta una acción cuando la transacción actual hace commit.
+// Si no hay transacción abierta (los métodos del repository hacen commit al terminar) se ejecuta en el momento.
+// Lo usamos para avisar a cachés y clientes conectados solo de cambios que ya están en la BD.
+public final class AfterCommit {
+
+    private AfterCommit() {
+    }
+
+    public static void run(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
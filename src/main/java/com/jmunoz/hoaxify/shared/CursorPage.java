@@ -0,0 +1,36 @@
+package com.jmunoz.hoaxify.shared;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Respuesta tipo Slice para la paginación por cursor.
+// A diferencia de Page no lleva totalElements ni totalPages, así que nunca hace falta ejecutar el count(*).
+//
+// nextCursor sirve para seguir avanzando en la misma dirección que se ha pedido y previousCursor
+// para ir en la dirección contraria. Son null si la página está vacía, y el cursor hacia los antiguos también
+// cuando ya no queda ninguno. Si hay hoaxes, hacia los nuevos siempre hay cursor, para preguntar más tarde por
+// los que lleguen. Con una página vacía hacia los nuevos se vuelve a preguntar con el cursor que se envió.
+@Data
+@NoArgsConstructor
+public class CursorPage<T> {
+
+    private List<T> content;
+
+    private int size;
+
+    private boolean hasNext;
+
+    private String nextCursor;
+
+    private String previousCursor;
+
+    public CursorPage(List<T> content, int size, boolean hasNext, String nextCursor, String previousCursor) {
+        this.content = content;
+        this.size = size;
+        this.hasNext = hasNext;
+        this.nextCursor = nextCursor;
+        this.previousCursor = previousCursor;
+    }
+}
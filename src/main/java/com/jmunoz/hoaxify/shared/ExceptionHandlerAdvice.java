@@ -1,15 +1,21 @@
 package com.jmunoz.hoaxify.shared;
 
 import com.jmunoz.hoaxify.error.ApiError;
+import com.jmunoz.hoaxify.error.PayloadTooLargeException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -36,4 +42,42 @@ public class ExceptionHandlerAdvice {
 
         return apiError;
     }
+
+    // Validaciones hechas a mano con Validator (por ejemplo la imagen de PUT /users/{id}/image). Se responde
+    // igual que con @Valid, con el error de cada campo
+    @ExceptionHandler({ConstraintViolationException.class})
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    ApiError handleConstraintViolationException(ConstraintViolationException exception, HttpServletRequest request) {
+        ApiError apiError = new ApiError(400, "Validation error", request.getServletPath());
+
+        Map<String, String> validationErrors = new HashMap<>();
+        for (ConstraintViolation<?> violation : exception.getConstraintViolations()) {
+            validationErrors.put(violation.getPropertyPath().toString(), violation.getMessage());
+        }
+        apiError.setValidationErrors(validationErrors);
+
+        return apiError;
+    }
+
+    // El multipart de Spring rechaza los ficheros más grandes que spring.servlet.multipart.max-file-size
+    // antes de llegar al controlador. Se responde igual que cuando lo detecta FileService
+    @ExceptionHandler({MaxUploadSizeExceededException.class})
+    @ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+    ApiError handleMaxUploadSizeExceededException(MaxUploadSizeExceededException exception,
+                                                  HttpServletRequest request) {
+        return new ApiError(413, exception.getMessage(), request.getServletPath());
+    }
+
+    // Jackson envuelve las excepciones de los deserializadores. Si la causa es que un fichero del JSON pasa del
+    // tamaño máximo (ver UploadedFileDeserializer) se responde con 413, si no es un JSON mal formado
+    @ExceptionHandler({HttpMessageNotReadableException.class})
+    ResponseEntity<ApiError> handleHttpMessageNotReadableException(HttpMessageNotReadableException exception,
+                                                                   HttpServletRequest request) {
+        Throwable cause = exception.getMostSpecificCause();
+        if (cause instanceof PayloadTooLargeException) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .body(new ApiError(413, cause.getMessage(), request.getServletPath()));
+        }
+        return ResponseEntity.badRequest().body(new ApiError(400, "Malformed request", request.getServletPath()));
+    }
 }
@@ -0,0 +1,86 @@
+package com.jmunoz.hoaxify.shared;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Caché en memoria acotada (se descarta la entrada usada hace más tiempo) y con caducidad.
+// Pensada para datos que se leen en casi todas las peticiones y cambian poco.
+//
+// El loader puede devolver null y también se guarda (caché negativa): así las claves que no existen
+// tampoco llegan a la BD en cada petición.
+public class ExpiringCache<K, V> {
+
+    private final long ttlNanos;
+
+    private final Map<K, Entry<V>> entries;
+
+    // Cuenta las invalidaciones. Si cambia mientras se carga un valor, ese valor puede ser antiguo y no se guarda
+    private long invalidations;
+
+    public ExpiringCache(int maxSize, Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+        // accessOrder true: el orden de iteración es el de último acceso, y removeEldestEntry quita el más antiguo
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    // El loader se ejecuta fuera del lock, así una consulta lenta no bloquea al resto de claves
+    public V get(K key, Function<K, V> loader) {
+        long loadedInvalidations;
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.expiresAt < 0) {
+                return entry.value;
+            }
+            loadedInvalidations = invalidations;
+        }
+
+        V value = loader.apply(key);
+
+        synchronized (this) {
+            if (loadedInvalidations == invalidations) {
+                entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+            }
+        }
+        return value;
+    }
+
+    public synchronized void invalidate(K key) {
+        invalidations++;
+        entries.remove(key);
+    }
+
+    // Quita las entradas cuyo valor cumple condition. Recorre toda la caché, es para cuando no se conoce la clave
+    public synchronized void invalidateIf(Predicate<V> condition) {
+        invalidations++;
+        entries.values().removeIf(entry -> entry.value != null && condition.test(entry.value));
+    }
+
+    public synchronized void clear() {
+        invalidations++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry<V> {
+
+        final V value;
+
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
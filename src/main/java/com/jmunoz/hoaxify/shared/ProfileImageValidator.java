@@ -1,25 +1,20 @@
 package com.jmunoz.hoaxify.shared;
 
-import com.jmunoz.hoaxify.file.FileService;
-import org.springframework.beans.factory.annotation.Autowired;
+import com.jmunoz.hoaxify.file.UploadedFile;
 
 import javax.validation.ConstraintValidator;
 import javax.validation.ConstraintValidatorContext;
-import java.util.Base64;
 
-public class ProfileImageValidator implements ConstraintValidator<ProfileImage, String> {
-
-    @Autowired
-    FileService fileService;
+// El tipo ya viene detectado en UploadedFile (se detecta una vez, al leer la petición)
+public class ProfileImageValidator implements ConstraintValidator<ProfileImage, UploadedFile> {
 
     @Override
-    public boolean isValid(String value, ConstraintValidatorContext constraintValidatorContext) {
+    public boolean isValid(UploadedFile value, ConstraintValidatorContext constraintValidatorContext) {
         if (value == null) {
             return true;
         }
 
-        byte[] decodedBytes = Base64.getDecoder().decode(value);
-        String fileType = fileService.detectType(decodedBytes);
+        String fileType = value.getFileType();
         if (fileType.equalsIgnoreCase("image/png") || fileType.equalsIgnoreCase("image/jpeg")) {
             return true;
         }
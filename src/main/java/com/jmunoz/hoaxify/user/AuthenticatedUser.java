@@ -0,0 +1,52 @@
+package com.jmunoz.hoaxify.user;
+
+import lombok.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import java.io.Serializable;
+import java.util.List;
+
+// Usuario autenticado: el principal que dejan en el contexto de seguridad el login (CachingAuthenticationProvider)
+// y TokenAuthenticationFilter, y el que reciben los controllers con @CurrentUser.
+// Antes era la entidad User, desconectada de la sesión de Hibernate, con el hash del password y la colección
+// lazy de hoaxes. Esta copia solo tiene lo que se usa durante la petición y se puede guardar en CredentialCache.
+// Para escribir, los servicios piden a UserService una referencia a la entidad con el id (UserService.getReference).
+@Value
+public class AuthenticatedUser implements Serializable {
+
+    private static final long serialVersionUID = -8126957186175483577L;
+
+    private static final List<GrantedAuthority> AUTHORITIES = AuthorityUtils.createAuthorityList("Role_USER");
+
+    long id;
+
+    String username;
+
+    String displayName;
+
+    String image;
+
+    // Para la respuesta del login (ver UserVM)
+    String imageVariants;
+
+    public AuthenticatedUser(User user) {
+        this.id = user.getId();
+        this.username = user.getUsername();
+        this.displayName = user.getDisplayName();
+        this.image = user.getImage();
+        this.imageVariants = user.getImageVariants();
+    }
+
+    public AuthenticatedUser(UserSnapshot user) {
+        this.id = user.getId();
+        this.username = user.getUsername();
+        this.displayName = user.getDisplayName();
+        this.image = user.getImage();
+        this.imageVariants = user.getImageVariants();
+    }
+
+    public List<GrantedAuthority> getAuthorities() {
+        return AUTHORITIES;
+    }
+}
@@ -1,7 +1,9 @@
 package com.jmunoz.hoaxify.user;
 
+import com.jmunoz.hoaxify.configuration.AccessToken;
+import com.jmunoz.hoaxify.configuration.TokenService;
 import com.jmunoz.hoaxify.shared.CurrentUser;
-import com.jmunoz.hoaxify.user.vm.UserVM;
+import com.jmunoz.hoaxify.user.vm.LoginVM;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -12,9 +14,14 @@ public class LoginController {
     @Autowired
     UserService userService;
 
+    @Autowired
+    TokenService tokenService;
+
     // Vamos a utilizar el enfoque VM (o DTO) y eliminar @JsonView
+    // Es la única ruta que acepta HTTP Basic. Devuelve el token con el que se autentica el resto
     @PostMapping("/api/1.0/login")
-    UserVM handleLogin(@CurrentUser User loggedInUser) {
-        return new UserVM(loggedInUser);
+    LoginVM handleLogin(@CurrentUser AuthenticatedUser loggedInUser) {
+        AccessToken token = tokenService.issue(loggedInUser.getId(), loggedInUser.getUsername());
+        return new LoginVM(loggedInUser, tokenService.encode(token), token.getExpiresAt());
     }
 }
@@ -1,30 +1,33 @@
 package com.jmunoz.hoaxify.user;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.jmunoz.hoaxify.hoax.Hoax;
+import com.jmunoz.hoaxify.shared.TimeOrderedIdGenerator;
 import lombok.Data;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.AuthorityUtils;
-import org.springframework.security.core.userdetails.UserDetails;
-// IMPORTANTE ESTE IMPORT
-import java.beans.Transient;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
-import java.util.Collection;
 import java.util.List;
 
 // Cambiamos el nombre de la tabla usando @Table(name="users) en vez de @Entity(name="Users)
+// @DynamicUpdate: los updates solo llevan las columnas modificadas, para no sobrescribir imageVariants, que se
+// guarda en segundo plano (ver UserService)
+// Ya no implementa UserDetails: el usuario autenticado es AuthenticatedUser
 @Data
 @Entity
 @Table(name = "users")
-public class User implements UserDetails {
-
-    private static final long serialVersionUID = 4074374728582967483L;
+@DynamicUpdate
+public class User {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(generator = TimeOrderedIdGenerator.NAME)
+    @GenericGenerator(name = TimeOrderedIdGenerator.NAME, strategy = TimeOrderedIdGenerator.STRATEGY)
     private long id;
 
     // Usamos nuestro custom Constraint @UniqueUsername
@@ -62,37 +65,15 @@ public class User implements UserDetails {
 
     private String image;
 
+    // Anchuras de las variantes de image que ya están generadas. Ver ImageVariants
+    @JsonIgnore
+    private String imageVariants;
+
     // Un User puede tener mucho Hoaxes
+    // Fuera de equals, hashCode y toString: es lazy, y recorrerla cargaría todos los hoaxes del usuario (o fallaría
+    // sin sesión de Hibernate)
     @OneToMany(mappedBy = "user")
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     private List<Hoax> hoaxes;
-
-    @Override
-    @Transient
-    public Collection<? extends GrantedAuthority> getAuthorities() {
-        return AuthorityUtils.createAuthorityList("Role_USER");
-    }
-
-    @Override
-    @Transient
-    public boolean isAccountNonExpired() {
-        return true;
-    }
-
-    @Override
-    @Transient
-    public boolean isAccountNonLocked() {
-        return true;
-    }
-
-    @Override
-    @Transient
-    public boolean isCredentialsNonExpired() {
-        return true;
-    }
-
-    @Override
-    @Transient
-    public boolean isEnabled() {
-        return true;
-    }
 }
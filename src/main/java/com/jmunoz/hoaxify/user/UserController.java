@@ -1,5 +1,9 @@
 package com.jmunoz.hoaxify.user;
 
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.error.PayloadTooLargeException;
+import com.jmunoz.hoaxify.file.FileService;
+import com.jmunoz.hoaxify.file.UploadedFile;
 import com.jmunoz.hoaxify.shared.CurrentUser;
 import com.jmunoz.hoaxify.shared.GenericResponse;
 import com.jmunoz.hoaxify.user.vm.UserUpdateVM;
@@ -8,10 +12,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/1.0")
@@ -20,6 +32,15 @@ public class UserController {
     @Autowired
     UserService userService;
 
+    @Autowired
+    FileService fileService;
+
+    @Autowired
+    AppConfiguration appConfiguration;
+
+    @Autowired
+    Validator validator;
+
     @PostMapping("/users")
     GenericResponse createUser(@Valid @RequestBody User user) {
         userService.save(user);
@@ -28,13 +49,13 @@ public class UserController {
 
     // Obtenemos el usuario que se ha loggeado
     @GetMapping("/users")
-    Page<UserVM> getUsers(@CurrentUser User loggedInUser, @PageableDefault Pageable page) {
+    Page<UserVM> getUsers(@CurrentUser AuthenticatedUser loggedInUser, @PageableDefault Pageable page) {
         return userService.getUsers(loggedInUser, page).map(UserVM::new);
     }
 
     @GetMapping("/users/{username}")
     UserVM getUserByName(@PathVariable String username) {
-        User user = userService.getByUsername(username);
+        UserSnapshot user = userService.getByUsername(username);
         return new UserVM(user);
     }
 
@@ -44,4 +65,40 @@ public class UserController {
         User updated = userService.update(id, userUpdate);
         return new UserVM((updated));
     }
+
+    // Solo la imagen de perfil, en binario. Se puede enviar como multipart/form-data (parte image) o directamente
+    // en el cuerpo con su Content-Type (image/png, image/jpeg). Ocupa un tercio menos que en base64 dentro del JSON
+    // de PUT /users/{id}, que se sigue admitiendo.
+    @PutMapping(path = "/users/{id:[0-9]+}/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @PreAuthorize("#id == principal.id")
+    UserVM updateUserImage(@PathVariable long id, @RequestPart("image") MultipartFile image) throws IOException {
+        checkProfileImageSize(image.getSize());
+        return updateUserImage(id, fileService.saveTempFile(image.getInputStream(),
+                appConfiguration.getProfileImageMaxSize()));
+    }
+
+    @PutMapping(path = "/users/{id:[0-9]+}/image", consumes = "image/*")
+    @PreAuthorize("#id == principal.id")
+    UserVM updateUserImage(@PathVariable long id, HttpServletRequest request) throws IOException {
+        checkProfileImageSize(request.getContentLengthLong());
+        return updateUserImage(id, fileService.saveTempFile(request.getInputStream(),
+                appConfiguration.getProfileImageMaxSize()));
+    }
+
+    // Las mismas reglas que el campo image de UserUpdateVM (@ProfileImage)
+    private UserVM updateUserImage(long id, UploadedFile image) {
+        Set<ConstraintViolation<UserUpdateVM>> violations = validator.validateValue(UserUpdateVM.class, "image", image);
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(violations);
+        }
+        User updated = userService.updateImage(id, image);
+        return new UserVM(updated);
+    }
+
+    // Si el tamaño ya viene en la petición se rechaza sin leer nada. Si no, lo controla FileService al guardarla
+    private void checkProfileImageSize(long size) {
+        if (size > appConfiguration.getProfileImageMaxSize().toBytes()) {
+            throw new PayloadTooLargeException("Image is larger than " + appConfiguration.getProfileImageMaxSize());
+        }
+    }
 }
@@ -3,10 +3,27 @@ package com.jmunoz.hoaxify.user;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     User findByUsername(String username);
 
     // Devolvemos todos los usuarios salvo el que hizo login
     Page<User> findByUsernameNot(String username, Pageable page);
+
+    // Las variantes se generan en segundo plano. Si el usuario ha cambiado de imagen mientras tanto, no se toca
+    @Modifying
+    @Transactional
+    @Query("update User u set u.imageVariants = :variants where u.id = :id and u.image = :image")
+    int updateImageVariants(@Param("id") long id, @Param("image") String image, @Param("variants") String variants);
+
+    // Rehash tras un login (ver AuthUserService.updatePassword). Solo cambia el password, el resto del usuario
+    // puede estar cambiando a la vez
+    @Modifying
+    @Transactional
+    @Query("update User u set u.password = :password where u.username = :username")
+    int updatePassword(@Param("username") String username, @Param("password") String password);
 }
@@ -1,8 +1,12 @@
 package com.jmunoz.hoaxify.user;
 
+import com.jmunoz.hoaxify.configuration.CredentialCache;
 import com.jmunoz.hoaxify.error.NotFoundException;
 import com.jmunoz.hoaxify.file.FileService;
+import com.jmunoz.hoaxify.file.UploadedFile;
+import com.jmunoz.hoaxify.shared.AfterCommit;
 import com.jmunoz.hoaxify.user.vm.UserUpdateVM;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -22,50 +26,116 @@ public class UserService {
 
     FileService fileService;
 
-    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder, FileService fileService) {
+    ApplicationEventPublisher eventPublisher;
+
+    UsernameCache usernameCache;
+
+    // Logins HTTP Basic ya comprobados, con el usuario de entonces. Se invalidan cuando cambia
+    CredentialCache credentialCache;
+
+    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder, FileService fileService,
+                       ApplicationEventPublisher eventPublisher, UsernameCache usernameCache,
+                       CredentialCache credentialCache) {
         super();
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
         this.fileService = fileService;
+        this.eventPublisher = eventPublisher;
+        this.usernameCache = usernameCache;
+        this.credentialCache = credentialCache;
     }
 
     public User save(User user) {
         user.setPassword(passwordEncoder.encode(user.getPassword()));
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        // Puede haber guardado en caché que este username no existía, o un usuario anterior con ese username
+        AfterCommit.run(() -> {
+            usernameCache.invalidate(saved.getUsername());
+            credentialCache.invalidateUser(saved.getUsername());
+        });
+        return saved;
     }
 
-    public Page<User> getUsers(User loggedInUser, Pageable pageable) {
+    public Page<User> getUsers(AuthenticatedUser loggedInUser, Pageable pageable) {
         if (loggedInUser != null) {
             return userRepository.findByUsernameNot(loggedInUser.getUsername(), pageable);
         }
         return userRepository.findAll(pageable);
     }
 
-    public User getByUsername(String username) {
-        User inDB = userRepository.findByUsername(username);
-        if (inDB == null) {
+    // Referencia a la entidad sin ir a la BD, para asociarla al guardar otra (por ejemplo el autor de un hoax).
+    // No hay que leer sus campos: se cargaría entonces, o fallaría fuera de una sesión de Hibernate
+    public User getReference(long id) {
+        return userRepository.getReferenceById(id);
+    }
+
+    // Se resuelve con UsernameCache, así que la mayoría de peticiones a /users/{username}/... no llegan a la BD.
+    // Devuelve una copia de solo lectura. Para modificar el usuario hay que cargar la entidad con su id.
+    public UserSnapshot getByUsername(String username) {
+        UserSnapshot user = usernameCache.get(username, key -> {
+            User inDB = userRepository.findByUsername(key);
+            return inDB == null ? null : new UserSnapshot(inDB);
+        });
+        if (user == null) {
             throw new NotFoundException(username + " not found");
         }
 
-        return inDB;
+        return user;
     }
 
     public User update(long id, UserUpdateVM userUpdate) {
         User inDB = userRepository.getReferenceById(id);
         inDB.setDisplayName(userUpdate.getDisplayName());
 
-        if (userUpdate.getImage() != null) {
-            String savedImageName = null;
-            try {
-                savedImageName = fileService.saveProfileImage(userUpdate.getImage());
-                // Eliminamos la imagen antigua
-                fileService.deleteProfileImage(inDB.getImage());
-                inDB.setImage(savedImageName);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+        if (userUpdate.getImage() == null) {
+            return saveUpdated(inDB, false, null);
         }
+        String oldImage = inDB.getImage();
+        replaceImage(inDB, userUpdate.getImage());
+        return saveUpdated(inDB, true, oldImage);
+    }
 
-        return userRepository.save(inDB);
+    // Solo cambia la imagen. La imagen ya está validada (ver UserController.updateUserImage)
+    public User updateImage(long id, UploadedFile image) {
+        User inDB = userRepository.getReferenceById(id);
+        String oldImage = inDB.getImage();
+        replaceImage(inDB, image);
+        return saveUpdated(inDB, true, oldImage);
+    }
+
+    // Las variantes de la imagen anterior ya no valen. Las de la nueva se generan al confirmar
+    private void replaceImage(User inDB, UploadedFile image) {
+        try {
+            inDB.setImage(fileService.saveProfileImage(image));
+            inDB.setImageVariants(null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private User saveUpdated(User inDB, boolean imageChanged, String oldImage) {
+        User updated = userRepository.save(inDB);
+        // Eliminamos la imagen antigua cuando el usuario ya apunta a la nueva. El borrado va en segundo plano
+        AfterCommit.run(() -> {
+            usernameCache.invalidate(updated.getUsername());
+            credentialCache.invalidateUser(updated.getUsername());
+            fileService.deleteProfileImage(oldImage);
+            if (imageChanged) {
+                createImageVariants(updated.getId(), updated.getUsername(), updated.getImage());
+            }
+        });
+        eventPublisher.publishEvent(new UserUpdatedEvent(updated));
+        return updated;
+    }
+
+    private void createImageVariants(long id, String username, String image) {
+        fileService.createProfileImageVariants(image, variants -> {
+            if (userRepository.updateImageVariants(id, image, variants) > 0) {
+                usernameCache.invalidate(username);
+                credentialCache.invalidateUser(username);
+                userRepository.findById(id)
+                        .ifPresent(user -> eventPublisher.publishEvent(new UserUpdatedEvent(user)));
+            }
+        });
     }
 }
@@ -0,0 +1,27 @@
+package com.jmunoz.hoaxify.user;
+
+import lombok.Value;
+
+// Copia inmutable de los datos públicos de un usuario. Es lo que guarda UsernameCache, en vez de la entidad,
+// para que se pueda compartir entre peticiones sin problemas.
+@Value
+public class UserSnapshot {
+
+    long id;
+
+    String username;
+
+    String displayName;
+
+    String image;
+
+    String imageVariants;
+
+    public UserSnapshot(User user) {
+        this.id = user.getId();
+        this.username = user.getUsername();
+        this.displayName = user.getDisplayName();
+        this.image = user.getImage();
+        this.imageVariants = user.getImageVariants();
+    }
+}
@@ -0,0 +1,12 @@
+package com.jmunoz.hoaxify.user;
+
+import lombok.Data;
+
+// Evento que publica UserService cuando se actualizan los datos de un usuario.
+// Así, las partes de la app que guardan copias de esos datos (por ejemplo cachés) pueden refrescarse
+// sin que UserService tenga que conocerlas.
+@Data
+public class UserUpdatedEvent {
+
+    private final User user;
+}
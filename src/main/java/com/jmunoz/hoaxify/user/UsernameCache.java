@@ -0,0 +1,18 @@
+package com.jmunoz.hoaxify.user;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.shared.ExpiringCache;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+// Caché de username a UserSnapshot que usa UserService.getByUsername.
+// Los usernames que no existen también se guardan (como null), y UserService invalida la entrada al
+// guardar o actualizar el usuario.
+@Component
+public class UsernameCache extends ExpiringCache<String, UserSnapshot> {
+
+    public UsernameCache(AppConfiguration appConfiguration) {
+        super(appConfiguration.getUsernameCacheSize(), Duration.ofSeconds(appConfiguration.getUsernameCacheTtl()));
+    }
+}
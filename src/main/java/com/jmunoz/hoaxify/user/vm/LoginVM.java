@@ -0,0 +1,25 @@
+package com.jmunoz.hoaxify.user.vm;
+
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+// Respuesta de POST /login: el usuario, como antes, y el token de acceso para el resto de peticiones
+// (cabecera Authorization: Bearer <token>). Ver TokenService
+@Data
+@EqualsAndHashCode(callSuper = true)
+@NoArgsConstructor
+public class LoginVM extends UserVM {
+
+    private String token;
+
+    // Segundos desde epoch. A partir de ahí hay que volver a hacer login
+    private long expiresAt;
+
+    public LoginVM(AuthenticatedUser user, String token, long expiresAt) {
+        super(user);
+        this.token = token;
+        this.expiresAt = expiresAt;
+    }
+}
@@ -1,5 +1,6 @@
 package com.jmunoz.hoaxify.user.vm;
 
+import com.jmunoz.hoaxify.file.UploadedFile;
 import com.jmunoz.hoaxify.shared.ProfileImage;
 import lombok.Data;
 
@@ -14,5 +15,5 @@ public class UserUpdateVM {
     private String displayName;
 
     @ProfileImage
-    private String image;
+    private UploadedFile image;
 }
@@ -1,9 +1,15 @@
 package com.jmunoz.hoaxify.user.vm;
 
+import com.jmunoz.hoaxify.file.ImageVariants;
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
 import com.jmunoz.hoaxify.user.User;
+import com.jmunoz.hoaxify.user.UserSnapshot;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.Collections;
+import java.util.Map;
+
 // Se añaden los campos que queremos que tenga este modelo
 @Data
 @NoArgsConstructor
@@ -16,11 +22,31 @@ public class UserVM {
 
     private String image;
 
+    // Anchura -> nombre de cada variante reducida de image. Ver ImageVariants
+    private Map<Integer, String> imageVariants = Collections.emptyMap();
+
     // Informamos un constructor que tomará el objeto User como parámetro
     public UserVM(User user) {
         this.setId(user.getId());
         this.setUsername(user.getUsername());
         this.setDisplayName(user.getDisplayName());
         this.setImage(user.getImage());
+        this.setImageVariants(ImageVariants.names(user.getImage(), user.getImageVariants()));
+    }
+
+    public UserVM(AuthenticatedUser user) {
+        this.setId(user.getId());
+        this.setUsername(user.getUsername());
+        this.setDisplayName(user.getDisplayName());
+        this.setImage(user.getImage());
+        this.setImageVariants(ImageVariants.names(user.getImage(), user.getImageVariants()));
+    }
+
+    public UserVM(UserSnapshot user) {
+        this.setId(user.getId());
+        this.setUsername(user.getUsername());
+        this.setDisplayName(user.getDisplayName());
+        this.setImage(user.getImage());
+        this.setImageVariants(ImageVariants.names(user.getImage(), user.getImageVariants()));
     }
 }
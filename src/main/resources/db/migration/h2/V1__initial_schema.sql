@@ -0,0 +1,31 @@
+-- Esquema que generaba Hibernate con ddl-auto
+create sequence hibernate_sequence start with 1 increment by 1;
+
+create table users (
+    id bigint not null,
+    display_name varchar(255),
+    image varchar(255),
+    password varchar(255),
+    username varchar(255),
+    primary key (id)
+);
+
+create table hoax (
+    id bigint not null,
+    content varchar(5000),
+    timestamp timestamp,
+    user_id bigint,
+    primary key (id)
+);
+
+create table file_attachment (
+    id bigint not null,
+    date timestamp,
+    file_type varchar(255),
+    name varchar(255),
+    hoax_id bigint,
+    primary key (id)
+);
+
+alter table file_attachment add constraint FKm4s6ke3jlye084brffy7ngs7t foreign key (hoax_id) references hoax;
+alter table hoax add constraint FKogpucj97ipwi7yr6bjvej25xe foreign key (user_id) references users;
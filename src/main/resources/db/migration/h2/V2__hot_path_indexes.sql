@@ -0,0 +1,8 @@
+-- Login, perfil y /users/{username}/...: búsqueda por username. Además garantiza que no se repite
+create unique index ux_users_username on users (username);
+
+-- Feed de un usuario: where user_id = ? and id < ? order by id desc
+create index ix_hoax_user_id_id on hoax (user_id, id);
+
+-- Limpieza de adjuntos huérfanos (FileService.cleanupStorage): where date < ? and hoax_id is null
+create index ix_file_attachment_date_hoax_id on file_attachment (date, hoax_id);
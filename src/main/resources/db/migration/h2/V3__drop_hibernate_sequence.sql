@@ -0,0 +1,2 @@
+-- Los ids los genera TimeOrderedIdGenerator en memoria
+drop sequence hibernate_sequence;
@@ -0,0 +1,3 @@
+-- Al borrar un hoax la BD borra su adjunto. Ver HoaxService.deleteHoax
+alter table file_attachment drop constraint FKm4s6ke3jlye084brffy7ngs7t;
+alter table file_attachment add constraint fk_file_attachment_hoax foreign key (hoax_id) references hoax on delete cascade;
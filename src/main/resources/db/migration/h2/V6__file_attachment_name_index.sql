@@ -0,0 +1,3 @@
+-- Los adjuntos con el mismo contenido comparten fichero (FileService.saveAttachment).
+-- Referencias de un fichero y variantes: where name = ?
+create index ix_file_attachment_name on file_attachment (name);
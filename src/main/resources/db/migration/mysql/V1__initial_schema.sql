@@ -0,0 +1,32 @@
+-- Esquema que generaba Hibernate con ddl-auto. En las BD que ya existían no se ejecuta (ver baseline en application.yml)
+create table hibernate_sequence (next_val bigint) engine=InnoDB;
+insert into hibernate_sequence values (1);
+
+create table users (
+    id bigint not null,
+    display_name varchar(255),
+    image varchar(255),
+    password varchar(255),
+    username varchar(255),
+    primary key (id)
+) engine=InnoDB;
+
+create table hoax (
+    id bigint not null,
+    content varchar(5000),
+    timestamp datetime(6),
+    user_id bigint,
+    primary key (id)
+) engine=InnoDB;
+
+create table file_attachment (
+    id bigint not null,
+    date datetime(6),
+    file_type varchar(255),
+    name varchar(255),
+    hoax_id bigint,
+    primary key (id)
+) engine=InnoDB;
+
+alter table file_attachment add constraint FKm4s6ke3jlye084brffy7ngs7t foreign key (hoax_id) references hoax (id);
+alter table hoax add constraint FKogpucj97ipwi7yr6bjvej25xe foreign key (user_id) references users (id);
@@ -0,0 +1,2 @@
+-- Los ids los genera TimeOrderedIdGenerator en memoria
+drop table hibernate_sequence;
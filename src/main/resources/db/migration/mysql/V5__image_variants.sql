@@ -0,0 +1,3 @@
+-- Anchuras de las variantes reducidas de la imagen, separadas por comas. Ver ImageVariantGenerator
+alter table users add column image_variants varchar(255);
+alter table file_attachment add column variants varchar(255);
@@ -0,0 +1,183 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.configuration.BasicAuthenticationEntryPoint;
+import com.jmunoz.hoaxify.configuration.BoundedPasswordEncoder;
+import com.jmunoz.hoaxify.error.PasswordHashingBusyException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de BoundedPasswordEncoder. delegate codifica anteponiendo "hash:" y, mientras release no se abre,
+// se queda bloqueado en los passwords "slow", para poder llenar el pool. Como BCrypt, no para si se le interrumpe
+public class BoundedPasswordEncoderTest {
+
+    CountDownLatch release;
+
+    CountDownLatch slowStarted;
+
+    PasswordEncoder delegate;
+
+    BoundedPasswordEncoder encoder;
+
+    @BeforeEach
+    void setUp() {
+        release = new CountDownLatch(1);
+        slowStarted = new CountDownLatch(1);
+        delegate = new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                if ("slow".contentEquals(rawPassword)) {
+                    slowStarted.countDown();
+                    long deadline = System.currentTimeMillis() + 5000;
+                    while (release.getCount() > 0 && System.currentTimeMillis() < deadline) {
+                        try {
+                            release.await(10, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            // Se ignora
+                        }
+                    }
+                }
+                return "hash:" + rawPassword;
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                return encodedPassword.equals(encode(rawPassword));
+            }
+        };
+        encoder = createEncoder(5000);
+    }
+
+    // Un hilo y un hueco en la cola
+    private BoundedPasswordEncoder createEncoder(long maxWait) {
+        AppConfiguration appConfiguration = new AppConfiguration();
+        appConfiguration.setPasswordHashThreads(1);
+        appConfiguration.setPasswordHashQueuePerThread(1);
+        appConfiguration.setPasswordHashMaxWait(maxWait);
+        return new BoundedPasswordEncoder(delegate, appConfiguration);
+    }
+
+    @AfterEach
+    void cleanup() {
+        release.countDown();
+        encoder.shutdown();
+    }
+
+    // Ocupa el único hilo y el único hueco de la cola
+    private void saturate() throws Exception {
+        CompletableFuture.runAsync(() -> encoder.encode("slow"));
+        TestUtil.waitUntil(() -> encoder.getQueueSize() == 0);
+        CompletableFuture.runAsync(() -> encoder.encode("slow"));
+        TestUtil.waitUntil(() -> encoder.getQueueSize() == 1);
+    }
+
+    @Test
+    void encode_whenPoolIsFree_returnsDelegateHash() {
+        assertThat(encoder.encode("P4ssword")).isEqualTo("hash:P4ssword");
+    }
+
+    @Test
+    void matches_whenPasswordIsCorrect_returnsTrue() {
+        assertThat(encoder.matches("P4ssword", "hash:P4ssword")).isTrue();
+    }
+
+    @Test
+    void matches_whenPasswordIsIncorrect_returnsFalse() {
+        assertThat(encoder.matches("other", "hash:P4ssword")).isFalse();
+    }
+
+    @Test
+    void encode_whenPoolAndQueueAreFull_throwsPasswordHashingBusyException() throws Exception {
+        saturate();
+
+        assertThatThrownBy(() -> encoder.encode("P4ssword")).isInstanceOf(PasswordHashingBusyException.class);
+    }
+
+    @Test
+    void encode_whenWaitExceedsMaxWait_throwsPasswordHashingBusyException() throws Exception {
+        encoder.shutdown();
+        encoder = createEncoder(100);
+        CompletableFuture.runAsync(() -> encoder.encode("slow"));
+        slowStarted.await(5, TimeUnit.SECONDS);
+
+        assertThatThrownBy(() -> encoder.encode("P4ssword")).isInstanceOf(PasswordHashingBusyException.class);
+    }
+
+    @Test
+    void encode_whenWaitExceedsMaxWait_leavesQueue() throws Exception {
+        encoder.shutdown();
+        encoder = createEncoder(100);
+        CompletableFuture.runAsync(() -> encoder.encode("slow"));
+        slowStarted.await(5, TimeUnit.SECONDS);
+
+        assertThatThrownBy(() -> encoder.encode("P4ssword"));
+
+        assertThat(encoder.getQueueSize()).isEqualTo(0);
+    }
+
+    @Test
+    void encode_whenPoolFreesUp_acceptsHashesAgain() throws Exception {
+        saturate();
+        release.countDown();
+        TestUtil.waitUntil(() -> encoder.getQueueSize() == 0);
+
+        assertThat(encoder.encode("P4ssword")).isEqualTo("hash:P4ssword");
+    }
+
+    @Test
+    void bindTo_whenHashIsDone_recordsHashAndQueueWaitTimers() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        encoder.bindTo(registry);
+
+        encoder.encode("P4ssword");
+        encoder.matches("P4ssword", "hash:P4ssword");
+
+        assertThat(registry.get("hoaxify.password.hash").tag("operation", "encode").timer().count()).isEqualTo(1);
+        assertThat(registry.get("hoaxify.password.hash").tag("operation", "matches").timer().count()).isEqualTo(1);
+        assertThat(registry.get("hoaxify.password.queue.wait").timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void bindTo_whenHashIsRejected_countsRejection() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        encoder.bindTo(registry);
+        saturate();
+
+        assertThatThrownBy(() -> encoder.encode("P4ssword")).isInstanceOf(PasswordHashingBusyException.class);
+
+        assertThat(registry.get("hoaxify.password.rejected").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void commence_whenPasswordHashingIsBusy_returnsServiceUnavailableWithRetryAfter() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        new BasicAuthenticationEntryPoint().commence(new MockHttpServletRequest(), response,
+                new PasswordHashingBusyException("busy"));
+
+        assertThat(response.getStatus()).isEqualTo(503);
+        assertThat(response.getHeader("Retry-After")).isEqualTo("1");
+    }
+
+    @Test
+    void commence_whenCredentialsAreBad_returnsUnauthorized() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        new BasicAuthenticationEntryPoint().commence(new MockHttpServletRequest(), response,
+                new BadCredentialsException("Bad credentials"));
+
+        assertThat(response.getStatus()).isEqualTo(401);
+    }
+}
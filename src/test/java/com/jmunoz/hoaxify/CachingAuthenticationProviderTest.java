@@ -0,0 +1,106 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.configuration.AuthUserDetails;
+import com.jmunoz.hoaxify.configuration.CachingAuthenticationProvider;
+import com.jmunoz.hoaxify.configuration.CredentialCache;
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de CachingAuthenticationProvider. delegate es un mock que acepta P4ssword
+public class CachingAuthenticationProviderTest {
+
+    AuthenticationProvider delegate;
+
+    CredentialCache credentialCache;
+
+    CachingAuthenticationProvider provider;
+
+    @BeforeEach
+    void setUp() {
+        delegate = Mockito.mock(AuthenticationProvider.class);
+        Mockito.when(delegate.authenticate(Mockito.any(Authentication.class))).then(invocation -> {
+            Authentication authentication = invocation.getArgument(0);
+            if (!"P4ssword".equals(authentication.getCredentials())) {
+                throw new BadCredentialsException("Bad credentials");
+            }
+            AuthUserDetails user = new AuthUserDetails(
+                    new AuthenticatedUser(TestUtil.createValidUser(authentication.getName())), "hash");
+            return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+        });
+        credentialCache = new CredentialCache(new AppConfiguration());
+        provider = new CachingAuthenticationProvider(delegate, credentialCache);
+    }
+
+    private Authentication credentials(String username, String password) {
+        return new UsernamePasswordAuthenticationToken(username, password);
+    }
+
+    @Test
+    void authenticate_whenCredentialsAreValid_returnsUserAsPrincipal() {
+        Authentication result = provider.authenticate(credentials("user1", "P4ssword"));
+
+        assertThat(((AuthenticatedUser) result.getPrincipal()).getUsername()).isEqualTo("user1");
+    }
+
+    // En el contexto de seguridad (y en la caché) no queda el hash del password
+    @Test
+    void authenticate_whenCredentialsAreValid_returnsAuthenticatedUserAsPrincipal() {
+        Authentication result = provider.authenticate(credentials("user1", "P4ssword"));
+
+        assertThat(result.getPrincipal()).isInstanceOf(AuthenticatedUser.class);
+    }
+
+    @Test
+    void authenticate_whenSameCredentialsAreRepeated_callsDelegateOnce() {
+        provider.authenticate(credentials("user1", "P4ssword"));
+        provider.authenticate(credentials("user1", "P4ssword"));
+
+        Mockito.verify(delegate, Mockito.times(1)).authenticate(Mockito.any(Authentication.class));
+    }
+
+    @Test
+    void authenticate_whenPasswordIsDifferent_callsDelegateAgain() {
+        provider.authenticate(credentials("user1", "P4ssword"));
+
+        assertThatThrownBy(() -> provider.authenticate(credentials("user1", "other")))
+                .isInstanceOf(BadCredentialsException.class);
+    }
+
+    @Test
+    void authenticate_whenCredentialsFailedBefore_callsDelegateAgain() {
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> provider.authenticate(credentials("user1", "wrong")))
+                    .isInstanceOf(BadCredentialsException.class);
+        }
+
+        Mockito.verify(delegate, Mockito.times(2)).authenticate(Mockito.any(Authentication.class));
+    }
+
+    @Test
+    void authenticate_whenUserIsInvalidated_callsDelegateAgain() {
+        provider.authenticate(credentials("user1", "P4ssword"));
+        credentialCache.invalidateUser("user1");
+        provider.authenticate(credentials("user1", "P4ssword"));
+
+        Mockito.verify(delegate, Mockito.times(2)).authenticate(Mockito.any(Authentication.class));
+    }
+
+    @Test
+    void key_whenCalled_doesNotContainPassword() {
+        assertThat(credentialCache.key("user1", "P4ssword")).doesNotContain("P4ssword");
+    }
+
+    @Test
+    void key_whenUsernameAndPasswordSplitDifferently_returnsDifferentKeys() {
+        assertThat(credentialCache.key("user1", "P4ssword")).isNotEqualTo(credentialCache.key("user1P", "4ssword"));
+    }
+}
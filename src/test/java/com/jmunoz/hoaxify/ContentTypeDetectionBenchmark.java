@@ -0,0 +1,79 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.file.FileService;
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.Tika;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Compara FileService.detectType (MagicNumbers y Tika si no reconoce la firma) con Tika solo.
+// No es un test, mvn test no lo ejecuta. Para lanzarlo, después de mvn test-compile:
+//   java -cp target/test-classes:target/classes:<classpath de test> com.jmunoz.hoaxify.ContentTypeDetectionBenchmark
+// (el classpath se obtiene con mvn dependency:build-classpath -Dmdep.includeScope=test), o desde el IDE con main.
+//
+// payload es el fichero de test y el tamaño al que se rellena con ceros (0 para dejarlo como está).
+// Ninguno de los dos lee el fichero entero: Tika solo mira un prefijo acotado (el máximo que necesitan sus
+// firmas, unos 64KB) y detectType recibe solo el principio. El caso de 1MB comprueba que el coste no crece con
+// el tamaño. La diferencia está en lo que hace cada uno con ese prefijo: Tika lo copia y prueba todas sus firmas
+// (y si es texto lo analiza), MagicNumbers compara unos pocos bytes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentTypeDetectionBenchmark {
+
+    @Param({"test-png.png:0", "test-jpg.jpg:0", "test-gif.gif:0", "test-jpg.jpg:1048576", "test-txt.txt:0"})
+    String payload;
+
+    byte[] bytes;
+
+    FileService fileService;
+
+    Tika tika;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] parts = payload.split(":");
+        byte[] file = FileUtils.readFileToByteArray(new ClassPathResource(parts[0]).getFile());
+        int size = Integer.parseInt(parts[1]);
+        bytes = size > file.length ? Arrays.copyOf(file, size) : file;
+
+        AppConfiguration appConfiguration = new AppConfiguration();
+        fileService = new FileService(appConfiguration, null, null, null);
+        tika = new Tika();
+    }
+
+    @Benchmark
+    public String detectType() {
+        return fileService.detectType(bytes);
+    }
+
+    @Benchmark
+    public String tikaOnly() {
+        return tika.detect(bytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ContentTypeDetectionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
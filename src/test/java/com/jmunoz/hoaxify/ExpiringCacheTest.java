@@ -0,0 +1,102 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.shared.ExpiringCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de la caché acotada con caducidad. El loader cuenta cuántas veces se llama
+public class ExpiringCacheTest {
+
+    ExpiringCache<String, String> cache;
+
+    AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        cache = new ExpiringCache<>(2, Duration.ofMinutes(1));
+        loads = new AtomicInteger();
+    }
+
+    private String load(String key) {
+        loads.incrementAndGet();
+        return key.startsWith("unknown") ? null : key.toUpperCase();
+    }
+
+    @Test
+    void get_whenKeyIsNotCached_returnsLoadedValue() {
+        assertThat(cache.get("user1", this::load)).isEqualTo("USER1");
+    }
+
+    @Test
+    void get_whenKeyIsCached_doesNotCallLoader() {
+        cache.get("user1", this::load);
+        cache.get("user1", this::load);
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    void get_whenLoaderReturnedNull_doesNotCallLoaderAgain() {
+        cache.get("unknown-user", this::load);
+        cache.get("unknown-user", this::load);
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    void get_whenKeyIsInvalidated_callsLoaderAgain() {
+        cache.get("user1", this::load);
+        cache.invalidate("user1");
+        cache.get("user1", this::load);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void invalidateIf_whenValueMatches_callsLoaderAgainOnlyForThatKey() {
+        cache.get("user1", this::load);
+        cache.get("user2", this::load);
+        cache.invalidateIf(value -> value.equals("USER1"));
+        cache.get("user1", this::load);
+        cache.get("user2", this::load);
+        assertThat(loads.get()).isEqualTo(3);
+    }
+
+    @Test
+    void get_whenEntryHasExpired_callsLoaderAgain() {
+        cache = new ExpiringCache<>(2, Duration.ZERO);
+        cache.get("user1", this::load);
+        cache.get("user1", this::load);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void get_whenMaxSizeIsExceeded_removesLeastRecentlyUsedKey() {
+        cache.get("user1", this::load);
+        cache.get("user2", this::load);
+        cache.get("user1", this::load);
+        cache.get("user3", this::load);
+        cache.get("user2", this::load);
+        assertThat(loads.get()).isEqualTo(4);
+    }
+
+    @Test
+    void get_whenMaxSizeIsExceeded_keepsMaxSizeEntries() {
+        cache.get("user1", this::load);
+        cache.get("user2", this::load);
+        cache.get("user3", this::load);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void get_whenKeyIsInvalidatedWhileLoading_doesNotCacheLoadedValue() {
+        cache.get("user1", key -> {
+            cache.invalidate(key);
+            return load(key);
+        });
+        cache.get("user1", this::load);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+}
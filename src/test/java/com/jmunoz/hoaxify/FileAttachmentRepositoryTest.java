@@ -2,13 +2,16 @@ package com.jmunoz.hoaxify;
 
 import com.jmunoz.hoaxify.file.FileAttachment;
 import com.jmunoz.hoaxify.file.FileAttachmentRepository;
+import com.jmunoz.hoaxify.file.OrphanAttachment;
 import com.jmunoz.hoaxify.hoax.Hoax;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -49,19 +52,23 @@ public class FileAttachmentRepositoryTest {
         return fileAttachment;
     }
 
+    private List<OrphanAttachment> findOrphansBefore(Date date) {
+        return fileAttachmentRepository.findOrphans(date, 0, PageRequest.of(0, 100));
+    }
+
     @Test
-    void findByDateBeforeAndHoaxIsNull_whenAttachmentsDateOlderThanOneHour_returnsAll() {
+    void findOrphans_whenAttachmentsDateOlderThanOneHour_returnsAll() {
         testEntityManager.persist(getOneHourOldFileAttachment());
         testEntityManager.persist(getOneHourOldFileAttachment());
         testEntityManager.persist(getOneHourOldFileAttachment());
 
         Date oneHourAgo = new Date(System.currentTimeMillis() - (60*60*1000));
-        List<FileAttachment> attachments = fileAttachmentRepository.findByDateBeforeAndHoaxIsNull(oneHourAgo);
+        List<OrphanAttachment> attachments = findOrphansBefore(oneHourAgo);
         assertThat(attachments.size()).isEqualTo(3);
     }
 
     @Test
-    void findByDateBeforeAndHoaxIsNull_whenAttachmentsDateOlderThanOneHourButHaveHoax_returnsNone() {
+    void findOrphans_whenAttachmentsDateOlderThanOneHourButHaveHoax_returnsNone() {
         Hoax hoax1 = testEntityManager.persist(TestUtil.createValidHoax());
         Hoax hoax2 = testEntityManager.persist(TestUtil.createValidHoax());
         Hoax hoax3 = testEntityManager.persist(TestUtil.createValidHoax());
@@ -71,23 +78,23 @@ public class FileAttachmentRepositoryTest {
         testEntityManager.persist(getOldFileAttachmentWithHoax(hoax3));
 
         Date oneHourAgo = new Date(System.currentTimeMillis() - (60*60*1000));
-        List<FileAttachment> attachments = fileAttachmentRepository.findByDateBeforeAndHoaxIsNull(oneHourAgo);
+        List<OrphanAttachment> attachments = findOrphansBefore(oneHourAgo);
         assertThat(attachments.size()).isEqualTo(0);
     }
 
     @Test
-    void findByDateBeforeAndHoaxIsNull_whenAttachmentsDateWithinOneHour_returnsNone() {
+    void findOrphans_whenAttachmentsDateWithinOneHour_returnsNone() {
         testEntityManager.persist(getFileAttachmentWithinOneHour());
         testEntityManager.persist(getFileAttachmentWithinOneHour());
         testEntityManager.persist(getFileAttachmentWithinOneHour());
 
         Date oneHourAgo = new Date(System.currentTimeMillis() - (60*60*1000));
-        List<FileAttachment> attachments = fileAttachmentRepository.findByDateBeforeAndHoaxIsNull(oneHourAgo);
+        List<OrphanAttachment> attachments = findOrphansBefore(oneHourAgo);
         assertThat(attachments.size()).isEqualTo(0);
     }
 
     @Test
-    void findByDateBeforeAndHoaxIsNull_whenSomeAttachmentsOldSomeNewAndSomeWithHoax_returnsAttachmentsWithOlderAndNoHoaxAssigned() {
+    void findOrphans_whenSomeAttachmentsOldSomeNewAndSomeWithHoax_returnsAttachmentsWithOlderAndNoHoaxAssigned() {
         Hoax hoax1 = testEntityManager.persist(TestUtil.createValidHoax());
 
         testEntityManager.persist(getOldFileAttachmentWithHoax(hoax1));
@@ -95,7 +102,32 @@ public class FileAttachmentRepositoryTest {
         testEntityManager.persist(getFileAttachmentWithinOneHour());
 
         Date oneHourAgo = new Date(System.currentTimeMillis() - (60*60*1000));
-        List<FileAttachment> attachments = fileAttachmentRepository.findByDateBeforeAndHoaxIsNull(oneHourAgo);
+        List<OrphanAttachment> attachments = findOrphansBefore(oneHourAgo);
         assertThat(attachments.size()).isEqualTo(1);
     }
+
+    @Test
+    void findOrphans_whenMoreOrphansThanPageSize_returnsFirstOnesAfterIdInOrder() {
+        FileAttachment first = testEntityManager.persist(getOneHourOldFileAttachment());
+        FileAttachment second = testEntityManager.persist(getOneHourOldFileAttachment());
+        FileAttachment third = testEntityManager.persist(getOneHourOldFileAttachment());
+        testEntityManager.persist(getOneHourOldFileAttachment());
+
+        Date oneHourAgo = new Date(System.currentTimeMillis() - (60*60*1000));
+        List<OrphanAttachment> orphans = fileAttachmentRepository.findOrphans(oneHourAgo, first.getId(),
+                PageRequest.of(0, 2));
+        assertThat(orphans).extracting(OrphanAttachment::getId).containsExactly(second.getId(), third.getId());
+    }
+
+    @Test
+    void deleteOrphans_whenAttachmentHasHoax_keepsAttachment() {
+        Hoax hoax = testEntityManager.persist(TestUtil.createValidHoax());
+        FileAttachment linked = testEntityManager.persist(getOldFileAttachmentWithHoax(hoax));
+        FileAttachment orphan = testEntityManager.persist(getOneHourOldFileAttachment());
+
+        int deleted = fileAttachmentRepository.deleteOrphans(Arrays.asList(linked.getId(), orphan.getId()));
+
+        assertThat(deleted).isEqualTo(1);
+        assertThat(fileAttachmentRepository.existsById(linked.getId())).isTrue();
+    }
 }
@@ -0,0 +1,210 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.file.FileOperationExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de FileOperationExecutor. Cada test usa una carpeta temporal como upload-path, donde
+// también está el diario de borrados
+public class FileOperationExecutorTest {
+
+    @TempDir
+    Path uploadPath;
+
+    AppConfiguration appConfiguration;
+
+    FileOperationExecutor fileOperationExecutor;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        appConfiguration = new AppConfiguration();
+        appConfiguration.setUploadPath(uploadPath.toString());
+        // Reintentos casi inmediatos, para que los tests no esperen
+        appConfiguration.setFileRetryDelay(1);
+        fileOperationExecutor = new FileOperationExecutor(appConfiguration);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        fileOperationExecutor.shutdown();
+    }
+
+    private Path createFile(String name) throws IOException {
+        return Files.write(uploadPath.resolve(name), new byte[]{1, 2, 3});
+    }
+
+    private Path getJournal() {
+        return uploadPath.resolve(appConfiguration.getDeleteJournal());
+    }
+
+    private List<String> getJournalLines() {
+        try {
+            return Files.readAllLines(getJournal(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    void delete_whenFileExists_removesFileFromStorage() throws IOException {
+        Path file = createFile("file-1");
+
+        fileOperationExecutor.delete(file);
+
+        TestUtil.waitUntil(() -> !Files.exists(file));
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    void delete_whenFileDoesNotExist_leavesNothingPending() {
+        fileOperationExecutor.delete(uploadPath.resolve("not-existing"));
+
+        TestUtil.waitUntil(() -> fileOperationExecutor.getPendingCount() == 0);
+        assertThat(fileOperationExecutor.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    void delete_whenAllDeletionsFinished_emptiesJournal() throws IOException {
+        fileOperationExecutor.delete(createFile("file-1"));
+        fileOperationExecutor.delete(createFile("file-2"));
+
+        TestUtil.waitUntil(() -> fileOperationExecutor.getPendingCount() == 0);
+        assertThat(getJournal()).isEmptyFile();
+    }
+
+    // Un directorio con ficheros no se puede borrar. Cuando se vacía, el reintento lo borra
+    @Test
+    void delete_whenDeletionFails_retriesUntilFileIsRemoved() throws IOException {
+        // Con margen para vaciar la carpeta antes de agotar los reintentos
+        fileOperationExecutor.shutdown();
+        appConfiguration.setFileRetryDelay(50);
+        fileOperationExecutor = new FileOperationExecutor(appConfiguration);
+        Path folder = Files.createDirectory(uploadPath.resolve("folder"));
+        Path child = Files.write(folder.resolve("child"), new byte[]{1});
+
+        fileOperationExecutor.delete(folder);
+        Files.delete(child);
+
+        TestUtil.waitUntil(() -> !Files.exists(folder));
+        assertThat(folder).doesNotExist();
+    }
+
+    @Test
+    void constructor_whenJournalHasUnfinishedDeletions_removesFilesFromStorage() throws IOException {
+        fileOperationExecutor.shutdown();
+        Path file = createFile("file-1");
+        Files.write(getJournal(), Collections.singletonList(file.toString()), StandardCharsets.UTF_8);
+
+        fileOperationExecutor = new FileOperationExecutor(appConfiguration);
+
+        TestUtil.waitUntil(() -> !Files.exists(file));
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    void bindTo_whenDeletionFinishes_recordsDeleteLatency() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        fileOperationExecutor.bindTo(registry);
+
+        fileOperationExecutor.delete(createFile("file-1"));
+
+        TestUtil.waitUntil(() -> fileOperationExecutor.getPendingCount() == 0);
+        assertThat(registry.get("hoaxify.files.delete").tag("result", "success").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void bindTo_whenCalled_registersQueueGauge() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        fileOperationExecutor.bindTo(registry);
+
+        assertThat(registry.get("hoaxify.files.queue").gauge().value()).isEqualTo(0);
+    }
+
+    // Un directorio con ficheros no se puede borrar, y este no se vacía
+    private Path createFolderThatCannotBeDeleted() throws IOException {
+        Path folder = Files.createDirectory(uploadPath.resolve("folder"));
+        Files.write(folder.resolve("child"), new byte[]{1});
+        return folder;
+    }
+
+    @Test
+    void delete_whenDeletionFailsEveryAttempt_leavesNothingPending() throws IOException {
+        fileOperationExecutor.delete(createFolderThatCannotBeDeleted());
+
+        TestUtil.waitUntil(() -> fileOperationExecutor.getPendingCount() == 0);
+        assertThat(fileOperationExecutor.getPendingCount()).isEqualTo(0);
+        assertThat(fileOperationExecutor.getFailedCount()).isEqualTo(1);
+    }
+
+    // El diario ya no crece con los borrados posteriores: solo queda el que ha fallado, para el siguiente arranque
+    @Test
+    void delete_whenDeletionFailedEarlier_journalKeepsOnlyFailedEntry() throws IOException {
+        Path folder = createFolderThatCannotBeDeleted();
+        fileOperationExecutor.delete(folder);
+        TestUtil.waitUntil(() -> fileOperationExecutor.getFailedCount() == 1);
+
+        fileOperationExecutor.delete(createFile("file-1"));
+
+        // El diario se reescribe justo después de que pending llegue a 0
+        TestUtil.waitUntil(() -> getJournalLines().equals(Collections.singletonList(folder.toString())));
+        assertThat(getJournalLines()).containsExactly(folder.toString());
+    }
+
+    // Deja una operación sin terminar hasta que se baja el latch, así pending no llega a 0
+    private void keepPending(CountDownLatch release) {
+        fileOperationExecutor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @Test
+    void execute_whenOperationIsRunning_countsAsPending() {
+        CountDownLatch release = new CountDownLatch(1);
+        keepPending(release);
+
+        assertThat(fileOperationExecutor.getPendingCount()).isEqualTo(1);
+        release.countDown();
+        TestUtil.waitUntil(() -> fileOperationExecutor.getPendingCount() == 0);
+        assertThat(fileOperationExecutor.getPendingCount()).isEqualTo(0);
+    }
+
+    // Con algo siempre pendiente el diario no se reescribe al quedarse vacío, y sin el tamaño máximo crecería
+    // con cada borrado
+    @Test
+    void delete_whenJournalGrowsPastMaxSizeWhileBusy_journalIsRewritten() throws IOException {
+        fileOperationExecutor.shutdown();
+        appConfiguration.setDeleteJournalMaxSize(DataSize.ofBytes(200));
+        fileOperationExecutor = new FileOperationExecutor(appConfiguration);
+        CountDownLatch release = new CountDownLatch(1);
+        keepPending(release);
+
+        for (int i = 0; i < 50; i++) {
+            Path file = createFile("file-" + i);
+            fileOperationExecutor.delete(file);
+            TestUtil.waitUntil(() -> !Files.exists(file));
+        }
+
+        assertThat(Files.size(getJournal())).isLessThan(1000);
+        release.countDown();
+    }
+}
@@ -1,9 +1,16 @@
 package com.jmunoz.hoaxify;
 
 import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.error.PayloadTooLargeException;
 import com.jmunoz.hoaxify.file.FileAttachment;
 import com.jmunoz.hoaxify.file.FileAttachmentRepository;
+import com.jmunoz.hoaxify.file.FileOperationExecutor;
 import com.jmunoz.hoaxify.file.FileService;
+import com.jmunoz.hoaxify.file.ImageVariantGenerator;
+import com.jmunoz.hoaxify.file.ImageVariants;
+import com.jmunoz.hoaxify.file.OrphanAttachment;
+import com.jmunoz.hoaxify.file.StorageLayout;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -12,13 +19,20 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Pageable;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Random;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -34,6 +48,10 @@ public class FileServiceTest {
 
     AppConfiguration appConfiguration;
 
+    FileOperationExecutor fileOperationExecutor;
+
+    ImageVariantGenerator imageVariantGenerator;
+
     // Como es un unit testing no se va a pedir a Spring que genere una instancia de FileAttachmentRepository y
     // la inyecte.
     // No usamos Spring.
@@ -43,13 +61,18 @@ public class FileServiceTest {
 
     // Necesitamos inicializar nuestras instancias manualmente, ya que la app no se ejecutará para estos tests.
     @BeforeEach
-    void setUp() {
+    void setUp() throws IOException {
         // Tampoco se va a poder leer application.yml, por lo que no podremos obtener los valores
         // que se configuraron ahí y tenemos que poner los valores que necesitemos.
         appConfiguration = new AppConfiguration();
         appConfiguration.setUploadPath("uploads-test");
+        // Un diario propio para no compartirlo con el FileOperationExecutor de los tests de integración
+        appConfiguration.setDeleteJournal("delete-journal-file-service-test");
 
-        fileService = new FileService(appConfiguration, fileAttachmentRepository);
+        fileOperationExecutor = new FileOperationExecutor(appConfiguration);
+        imageVariantGenerator = new ImageVariantGenerator(appConfiguration);
+        fileService = new FileService(appConfiguration, fileAttachmentRepository, fileOperationExecutor,
+                imageVariantGenerator);
 
         // Recordar que las carpetas de subida las crea nuestra app durante la inicialización.
         // Lo hace la clase WebConfiguration, pero como esa clase no será inicializada por Spring, la creación
@@ -62,6 +85,11 @@ public class FileServiceTest {
     // Tras cada test se limpian los ficheros generados
     @AfterEach
     void tearDown() throws IOException {
+        // Una variante que termine más tarde llamaría al mock de fileAttachmentRepository del siguiente test
+        TestUtil.waitUntil(() -> imageVariantGenerator.getPendingCount() == 0);
+        fileOperationExecutor.shutdown();
+        imageVariantGenerator.shutdown();
+        new File(appConfiguration.getFullDeleteJournalPath()).delete();
         FileUtils.cleanDirectory(new File(appConfiguration.getFullProfileImagesPath()));
         FileUtils.cleanDirectory(new File(appConfiguration.getFullAttachmentsPath()));
     }
@@ -78,6 +106,16 @@ public class FileServiceTest {
         assertThat(fileType).isEqualToIgnoringCase("image/png");
     }
 
+    // Los tipos que no reconoce MagicNumbers los detecta Tika
+    @Test
+    void detectType_whenTextFileProvided_returnsTextPlain() throws IOException {
+        ClassPathResource resourceFile = new ClassPathResource("test-txt.txt");
+        byte[] fileArr = FileUtils.readFileToByteArray(resourceFile.getFile());
+        String fileType = fileService.detectType(fileArr);
+
+        assertThat(fileType).isEqualToIgnoringCase("text/plain");
+    }
+
     // Eliminar adjuntos no asociados a ningún hoax si el fichero lleva una hora creado y no tiene hoax asociado.
     @Test
     void cleanupStorage_whenOldFilesExist_removesFilesFromStorage() throws IOException {
@@ -89,19 +127,16 @@ public class FileServiceTest {
 
         // Normalmente, esto se configuraría en DB, pero aquí no hay interacciones en BD porque solo hacemos un mock
         // de su comportamiento.
-        FileAttachment fileAttachment = new FileAttachment();
-        fileAttachment.setId(5);
-        fileAttachment.setName(fileName);
-
         // También tenemos métodos en FileService pero para poder usarlos se tendría que cambiar el modo del test.
         // Como estamos haciendo unit testing, no tenemos BD ni repository.
         // Solo tenemos una instancia de FileService
-        Mockito.when(fileAttachmentRepository.findByDateBeforeAndHoaxIsNull(Mockito.any(Date.class)))
-                .thenReturn(Arrays.asList(fileAttachment));
+        mockOrphans(new OrphanAttachment(5, fileName));
 
         fileService.cleanupStorage();
         File storedImage = new File(filePath);
 
+        // El fichero lo borra FileOperationExecutor en segundo plano
+        TestUtil.waitUntil(() -> !storedImage.exists());
         assertThat(storedImage.exists()).isFalse();
     }
 
@@ -115,20 +150,199 @@ public class FileServiceTest {
 
         // Normalmente, esto se configuraría en DB, pero aquí no hay interacciones en BD porque solo hacemos un mock
         // de su comportamiento.
-        FileAttachment fileAttachment = new FileAttachment();
-        fileAttachment.setId(5);
-        fileAttachment.setName(fileName);
-
         // También tenemos métodos en FileService pero para poder usarlos se tendría que cambiar el modo del test.
         // Como estamos haciendo unit testing, no tenemos BD ni repository.
         // Solo tenemos una instancia de FileService
-        Mockito.when(fileAttachmentRepository.findByDateBeforeAndHoaxIsNull(Mockito.any(Date.class)))
-                .thenReturn(Arrays.asList(fileAttachment));
+        mockOrphans(new OrphanAttachment(5, fileName));
 
         fileService.cleanupStorage();
-        File storedImage = new File(filePath);
 
-        Mockito.verify(fileAttachmentRepository).deleteById(5L);
+        Mockito.verify(fileAttachmentRepository).deleteOrphans(Collections.singletonList(5L));
+    }
+
+    // findOrphans devuelve los adjuntos en un lote y luego nada
+    private void mockOrphans(OrphanAttachment... orphans) {
+        Mockito.when(fileAttachmentRepository.findOrphans(Mockito.any(Date.class), Mockito.anyLong(),
+                        Mockito.any(Pageable.class)))
+                .thenReturn(Arrays.asList(orphans))
+                .thenReturn(Collections.emptyList());
+        Mockito.when(fileAttachmentRepository.deleteOrphans(Mockito.anyCollection())).thenReturn(orphans.length);
+    }
+
+    @Test
+    void cleanupStorage_whenBatchIsFull_readsNextBatchAfterLastId() {
+        appConfiguration.setCleanupBatchSize(2);
+        mockOrphans(new OrphanAttachment(5, "file-1"), new OrphanAttachment(8, "file-2"));
+
+        fileService.cleanupStorage();
+
+        Mockito.verify(fileAttachmentRepository).findOrphans(Mockito.any(Date.class), Mockito.eq(8L),
+                Mockito.any(Pageable.class));
+    }
+
+    @Test
+    void cleanupStorage_whenBatchIsNotFull_doesNotReadNextBatch() {
+        appConfiguration.setCleanupBatchSize(2);
+        mockOrphans(new OrphanAttachment(5, "file-1"));
+
+        fileService.cleanupStorage();
+
+        Mockito.verify(fileAttachmentRepository, Mockito.times(1)).findOrphans(Mockito.any(Date.class),
+                Mockito.anyLong(), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    void cleanupStorage_whenOrphansShareFile_removesFileFromStorage() throws IOException {
+        File stored = StorageLayout.sharded(appConfiguration.getFullAttachmentsPath(), "shared-file").toFile();
+        FileUtils.writeByteArrayToFile(stored, new byte[]{1});
+        mockOrphans(new OrphanAttachment(5, "shared-file"), new OrphanAttachment(8, "shared-file"));
+
+        fileService.cleanupStorage();
+
+        TestUtil.waitUntil(() -> !stored.exists());
+        assertThat(stored.exists()).isFalse();
+    }
+
+    @Test
+    void bindTo_whenCleanupDeletesAttachments_recordsProgress() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        fileService.bindTo(registry);
+        mockOrphans(new OrphanAttachment(5, "file-1"), new OrphanAttachment(8, "file-2"));
+
+        fileService.cleanupStorage();
+
+        assertThat(registry.get("hoaxify.cleanup.progress").gauge().value()).isEqualTo(2);
+        assertThat(registry.get("hoaxify.cleanup").timer().count()).isEqualTo(1);
+    }
+
+    // Un MultipartFile que no informa de su tamaño, para que el límite se compruebe al copiar
+    private MultipartFile createStreamingFile(byte[] content) throws IOException {
+        MultipartFile file = Mockito.mock(MultipartFile.class);
+        Mockito.when(file.getSize()).thenReturn(0L);
+        Mockito.when(file.getInputStream()).thenReturn(new ByteArrayInputStream(content));
+        return file;
+    }
+
+    @Test
+    void saveAttachment_whenFileIsLargerThanTransferChunk_storesSameContent() throws IOException {
+        appConfiguration.setAttachmentMaxSize(DataSize.ofKilobytes(512));
+        byte[] content = new byte[300 * 1024];
+        new Random(1).nextBytes(content);
+        Mockito.when(fileAttachmentRepository.save(Mockito.any(FileAttachment.class))).then(i -> i.getArgument(0));
+
+        FileAttachment saved = fileService.saveAttachment(createStreamingFile(content));
+
+        File storedFile = StorageLayout.sharded(appConfiguration.getFullAttachmentsPath(), saved.getName()).toFile();
+        assertThat(FileUtils.readFileToByteArray(storedFile)).isEqualTo(content);
+    }
+
+    @Test
+    void saveAttachment_whenPngFileProvided_storesImagePngType() throws IOException {
+        byte[] content = FileUtils.readFileToByteArray(new ClassPathResource("profile.png").getFile());
+        Mockito.when(fileAttachmentRepository.save(Mockito.any(FileAttachment.class))).then(i -> i.getArgument(0));
+
+        FileAttachment saved = fileService.saveAttachment(createStreamingFile(content));
+
+        assertThat(saved.getFileType()).isEqualToIgnoringCase("image/png");
+    }
+
+    @Test
+    void saveAttachment_whenPngFileProvided_recordsImageVariants() throws IOException {
+        byte[] content = FileUtils.readFileToByteArray(new ClassPathResource("profile.png").getFile());
+        Mockito.when(fileAttachmentRepository.save(Mockito.any(FileAttachment.class))).then(i -> i.getArgument(0));
+
+        FileAttachment saved = fileService.saveAttachment(createStreamingFile(content));
+
+        TestUtil.waitUntil(() -> imageVariantGenerator.getPendingCount() == 0);
+        Mockito.verify(fileAttachmentRepository).updateVariants(saved.getName(), "40,200");
+    }
+
+    @Test
+    void saveAttachment_whenFileProvided_namesFileWithSha256OfContent() throws IOException {
+        Mockito.when(fileAttachmentRepository.save(Mockito.any(FileAttachment.class))).then(i -> i.getArgument(0));
+
+        FileAttachment saved = fileService.saveAttachment(createStreamingFile("abc".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(saved.getName()).isEqualTo("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+    }
+
+    @Test
+    void saveAttachment_whenSameContentIsUploadedTwice_storesOneFile() throws IOException {
+        byte[] content = FileUtils.readFileToByteArray(new ClassPathResource("test-txt.txt").getFile());
+        Mockito.when(fileAttachmentRepository.save(Mockito.any(FileAttachment.class))).then(i -> i.getArgument(0));
+
+        fileService.saveAttachment(createStreamingFile(content));
+        fileService.saveAttachment(createStreamingFile(content));
+
+        assertThat(FileUtils.listFiles(new File(appConfiguration.getFullAttachmentsPath()), null, true)).hasSize(1);
+    }
+
+    // Subido antes de repartir los ficheros en subcarpetas y todavía sin migrar
+    @Test
+    void saveAttachment_whenSameContentIsInFlatLayout_doesNotStoreCopy() throws IOException {
+        Mockito.when(fileAttachmentRepository.save(Mockito.any(FileAttachment.class))).then(i -> i.getArgument(0));
+        String name = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+        FileUtils.writeByteArrayToFile(StorageLayout.flat(appConfiguration.getFullAttachmentsPath(), name).toFile(),
+                "abc".getBytes(StandardCharsets.UTF_8));
+
+        fileService.saveAttachment(createStreamingFile("abc".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(StorageLayout.sharded(appConfiguration.getFullAttachmentsPath(), name)).doesNotExist();
     }
 
+    @Test
+    void saveAttachment_whenSameContentIsUploadedTwice_savesTwoAttachments() throws IOException {
+        byte[] content = FileUtils.readFileToByteArray(new ClassPathResource("test-txt.txt").getFile());
+        Mockito.when(fileAttachmentRepository.save(Mockito.any(FileAttachment.class))).then(i -> i.getArgument(0));
+
+        fileService.saveAttachment(createStreamingFile(content));
+        fileService.saveAttachment(createStreamingFile(content));
+
+        Mockito.verify(fileAttachmentRepository, Mockito.times(2)).save(Mockito.any(FileAttachment.class));
+    }
+
+    @Test
+    void deleteAttachmentImage_whenOtherAttachmentsReferenceFile_keepsFileInStorage() throws IOException {
+        File stored = new File(appConfiguration.getFullAttachmentsPath() + "/test-file");
+        FileUtils.writeByteArrayToFile(stored, new byte[]{1});
+        Mockito.when(fileAttachmentRepository.countByName("test-file")).thenReturn(1L);
+
+        fileService.deleteAttachmentImage("test-file");
+
+        TestUtil.waitUntil(() -> fileOperationExecutor.getPendingCount() == 0);
+        assertThat(stored.exists()).isTrue();
+    }
+
+    @Test
+    void deleteAttachmentImage_whenImageHasVariants_removesVariantsFromStorage() throws IOException {
+        File variant = new File(appConfiguration.getFullAttachmentsPath() + "/" + ImageVariants.name("test-file", 40));
+        FileUtils.writeByteArrayToFile(variant, new byte[]{1});
+
+        fileService.deleteAttachmentImage("test-file");
+
+        TestUtil.waitUntil(() -> !variant.exists());
+        assertThat(variant.exists()).isFalse();
+    }
+
+    @Test
+    void saveAttachment_whenStreamIsLargerThanMaxSize_throwsPayloadTooLargeException() throws IOException {
+        appConfiguration.setAttachmentMaxSize(DataSize.ofKilobytes(64));
+        MultipartFile file = createStreamingFile(new byte[200 * 1024]);
+
+        assertThatThrownBy(() -> fileService.saveAttachment(file)).isInstanceOf(PayloadTooLargeException.class);
+    }
+
+    @Test
+    void saveAttachment_whenStreamIsLargerThanMaxSize_removesPartialFileFromStorage() throws IOException {
+        appConfiguration.setAttachmentMaxSize(DataSize.ofKilobytes(64));
+        MultipartFile file = createStreamingFile(new byte[200 * 1024]);
+
+        try {
+            fileService.saveAttachment(file);
+        } catch (PayloadTooLargeException e) {
+            // Es lo esperado, se comprueba en el test anterior
+        }
+
+        assertThat(new File(appConfiguration.getFullAttachmentsPath()).list()).isEmpty();
+    }
 }
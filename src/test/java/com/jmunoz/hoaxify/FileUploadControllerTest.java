@@ -3,6 +3,8 @@ package com.jmunoz.hoaxify;
 import com.jmunoz.hoaxify.configuration.AppConfiguration;
 import com.jmunoz.hoaxify.file.FileAttachment;
 import com.jmunoz.hoaxify.file.FileAttachmentRepository;
+import com.jmunoz.hoaxify.file.ImageVariantGenerator;
+import com.jmunoz.hoaxify.file.StorageLayout;
 import com.jmunoz.hoaxify.user.UserRepository;
 import com.jmunoz.hoaxify.user.UserService;
 import org.apache.commons.io.FileUtils;
@@ -11,9 +13,9 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.http.*;
-import org.springframework.http.client.support.BasicAuthenticationInterceptor;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
@@ -44,17 +46,23 @@ public class FileUploadControllerTest {
     @Autowired
     FileAttachmentRepository fileAttachmentRepository;
 
+    @Autowired
+    ImageVariantGenerator imageVariantGenerator;
+
     @BeforeEach
     void setUp() throws IOException {
         userRepository.deleteAll();
         fileAttachmentRepository.deleteAll();
         testRestTemplate.getRestTemplate().getInterceptors().clear();
+        // Las variantes de las imágenes se generan en segundo plano y escriben en las carpetas que se limpian
+        TestUtil.waitUntil(() -> imageVariantGenerator.getPendingCount() == 0);
         FileUtils.cleanDirectory(new File(appConfiguration.getFullAttachmentsPath()));
     }
 
     private boolean authenticate(String username) {
         return testRestTemplate
-                .getRestTemplate().getInterceptors().add(new BasicAuthenticationInterceptor(username, "P4ssword"));
+                .getRestTemplate().getInterceptors()
+                .add(TestUtil.authenticateWithToken(testRestTemplate, username, "P4ssword"));
     }
 
     private HttpEntity<MultiValueMap<String, Object>> geRequestEntity() {
@@ -121,8 +129,8 @@ public class FileUploadControllerTest {
         userService.save(TestUtil.createValidUser("user1"));
         authenticate("user1");
         ResponseEntity<FileAttachment> response = uploadFile(geRequestEntity(), FileAttachment.class);
-        String imagePath = appConfiguration.getFullAttachmentsPath() + "/" + response.getBody().getName();
-        File storedImage = new File(imagePath);
+        File storedImage = StorageLayout.sharded(appConfiguration.getFullAttachmentsPath(), response.getBody().getName())
+                .toFile();
         assertThat(storedImage.exists()).isTrue();
     }
 
@@ -146,4 +154,45 @@ public class FileUploadControllerTest {
         // El tipo de fichero puede usarse en frontend para decidir como mostrar el adjunto.
         assertThat(storedFile.getFileType()).isEqualTo("image/png");
     }
+
+    // En el profile test hoaxify.attachment-max-size es 64KB
+    @Test
+    void uploadFile_withFileLargerThanMaxSize_receivePayloadTooLarge() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("file", new ByteArrayResource(new byte[100 * 1024]) {
+            @Override
+            public String getFilename() {
+                return "large-file";
+            }
+        });
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+        ResponseEntity<Object> response = uploadFile(new HttpEntity<>(body, headers), Object.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    // Cada parte cabe en attachment-max-size, pero la petición pasa de multipart-max-request-size (128KB en el
+    // profile test). Se rechaza antes de llegar al controller, aunque la ruta no pida autenticación
+    @Test
+    void postMultipart_withRequestLargerThanMaxRequestSize_receivePayloadTooLarge() {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        for (int i = 0; i < 3; i++) {
+            String filename = "part-" + i;
+            body.add(filename, new ByteArrayResource(new byte[60 * 1024]) {
+                @Override
+                public String getFilename() {
+                    return filename;
+                }
+            });
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+        ResponseEntity<Object> response = testRestTemplate.postForEntity("/api/1.0/users",
+                new HttpEntity<>(body, headers), Object.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+    }
 }
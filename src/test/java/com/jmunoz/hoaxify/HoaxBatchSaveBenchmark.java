@@ -0,0 +1,103 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.hoax.Hoax;
+import com.jmunoz.hoaxify.hoax.HoaxBatchResult;
+import com.jmunoz.hoaxify.hoax.HoaxRepository;
+import com.jmunoz.hoaxify.hoax.HoaxService;
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
+import com.jmunoz.hoaxify.user.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Compara guardar count hoaxes con HoaxService.saveAll (lo que hace POST /hoaxes/batch) con guardarlos uno a uno
+// con HoaxService.save (lo que hace POST /hoaxes, una petición por hoax). Se mide el tiempo de guardar los count.
+// No entra el coste HTTP ni la autenticación de cada petición, que en el camino de uno en uno se pagan count veces.
+//
+// Arranca la aplicación con el perfil test (H2 en memoria). No es un test, mvn test no lo ejecuta. Se lanza
+// igual que ContentTypeDetectionBenchmark, con com.jmunoz.hoaxify.HoaxBatchSaveBenchmark como clase.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HoaxBatchSaveBenchmark {
+
+    @Param({"1", "20", "100"})
+    int count;
+
+    ConfigurableApplicationContext context;
+
+    HoaxService hoaxService;
+
+    HoaxRepository hoaxRepository;
+
+    AuthenticatedUser user;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(HoaxifyApplication.class)
+                .profiles("test")
+                .properties("server.port=0")
+                .run();
+        hoaxService = context.getBean(HoaxService.class);
+        hoaxRepository = context.getBean(HoaxRepository.class);
+        user = new AuthenticatedUser(context.getBean(UserService.class).save(TestUtil.createValidUser("user1")));
+    }
+
+    // Para que la tabla no crezca sin parar entre iteraciones
+    @TearDown(Level.Iteration)
+    public void cleanup() {
+        hoaxRepository.deleteAllInBatch();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<HoaxBatchResult> saveAll() {
+        return hoaxService.saveAll(user, createHoaxes());
+    }
+
+    @Benchmark
+    public void saveOneByOne(Blackhole blackhole) {
+        for (Hoax hoax : createHoaxes()) {
+            blackhole.consume(hoaxService.save(user, hoax));
+        }
+    }
+
+    private List<Hoax> createHoaxes() {
+        List<Hoax> hoaxes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            hoaxes.add(TestUtil.createValidHoax());
+        }
+        return hoaxes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HoaxBatchSaveBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -1,19 +1,34 @@
 package com.jmunoz.hoaxify;
 
 import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.configuration.CredentialCache;
 import com.jmunoz.hoaxify.error.ApiError;
 import com.jmunoz.hoaxify.file.FileAttachment;
 import com.jmunoz.hoaxify.file.FileAttachmentRepository;
+import com.jmunoz.hoaxify.file.FileAttachmentVM;
 import com.jmunoz.hoaxify.file.FileService;
+import com.jmunoz.hoaxify.file.ImageVariantGenerator;
+import com.jmunoz.hoaxify.file.ImageVariants;
+import com.jmunoz.hoaxify.file.StorageLayout;
 import com.jmunoz.hoaxify.hoax.Hoax;
+import com.jmunoz.hoaxify.hoax.HoaxBatchResult;
+import com.jmunoz.hoaxify.hoax.HoaxCursor;
+import com.jmunoz.hoaxify.hoax.HoaxFeedCache;
 import com.jmunoz.hoaxify.hoax.HoaxRepository;
 import com.jmunoz.hoaxify.hoax.HoaxService;
+import com.jmunoz.hoaxify.hoax.HoaxStreamBroadcaster;
 import com.jmunoz.hoaxify.hoax.HoaxVM;
+import com.jmunoz.hoaxify.hoax.NewHoaxWaiters;
+import com.jmunoz.hoaxify.shared.CursorPage;
 import com.jmunoz.hoaxify.shared.GenericResponse;
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
 import com.jmunoz.hoaxify.user.User;
 import com.jmunoz.hoaxify.user.UserRepository;
 import com.jmunoz.hoaxify.user.UserService;
+import com.jmunoz.hoaxify.user.UsernameCache;
 import org.apache.commons.io.FileUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -22,10 +37,11 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.support.BasicAuthenticationInterceptor;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.web.multipart.MultipartFile;
@@ -33,11 +49,19 @@ import org.springframework.web.multipart.MultipartFile;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.PersistenceUnit;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -73,6 +97,24 @@ public class HoaxControllerTest {
     @Autowired
     FileService fileService;
 
+    @Autowired
+    ImageVariantGenerator imageVariantGenerator;
+
+    @Autowired
+    HoaxFeedCache hoaxFeedCache;
+
+    @Autowired
+    HoaxStreamBroadcaster hoaxStreamBroadcaster;
+
+    @Autowired
+    NewHoaxWaiters newHoaxWaiters;
+
+    @Autowired
+    UsernameCache usernameCache;
+
+    @Autowired
+    CredentialCache credentialCache;
+
     @PersistenceUnit
     private EntityManagerFactory entityManagerFactory;
 
@@ -81,7 +123,13 @@ public class HoaxControllerTest {
         fileAttachmentRepository.deleteAll();
         hoaxRepository.deleteAll();
         userRepository.deleteAll();
+        // Los hoaxes se borran directamente en BD, así que el buffer en memoria del feed se queda obsoleto
+        hoaxFeedCache.clear();
+        usernameCache.clear();
+        credentialCache.clear();
         testRestTemplate.getRestTemplate().getInterceptors().clear();
+        // Las variantes de las imágenes se generan en segundo plano y escriben en las carpetas que se limpian
+        TestUtil.waitUntil(() -> imageVariantGenerator.getPendingCount() == 0);
         FileUtils.cleanDirectory(new File(appConfiguration.getFullAttachmentsPath()));
     }
 
@@ -105,13 +153,30 @@ public class HoaxControllerTest {
 
     private boolean authenticate(String username) {
         return testRestTemplate
-                .getRestTemplate().getInterceptors().add(new BasicAuthenticationInterceptor(username, "P4ssword"));
+                .getRestTemplate().getInterceptors()
+                .add(TestUtil.authenticateWithToken(testRestTemplate, username, "P4ssword"));
     }
 
     private <T> ResponseEntity<T> postHoax(Hoax hoax, Class<T> responseType) {
         return testRestTemplate.postForEntity(API_1_0_HOAXES, hoax, responseType);
     }
 
+    private <T> ResponseEntity<T> postHoaxes(List<Hoax> hoaxes, ParameterizedTypeReference<T> responseType) {
+        return testRestTemplate.exchange(API_1_0_HOAXES + "/batch", HttpMethod.POST, new HttpEntity<>(hoaxes), responseType);
+    }
+
+    private Hoax saveHoax(User user) {
+        return saveHoax(user, TestUtil.createValidHoax());
+    }
+
+    private Hoax saveHoax(User user, Hoax hoax) {
+        return hoaxService.save(new AuthenticatedUser(user), hoax);
+    }
+
+    private List<Hoax> createValidHoaxes(int count) {
+        return IntStream.rangeClosed(1, count).mapToObj(i -> TestUtil.createValidHoax()).collect(Collectors.toList());
+    }
+
     public <T> ResponseEntity<T> getHoaxes(ParameterizedTypeReference<T> responseType) {
         return testRestTemplate.exchange(API_1_0_HOAXES, HttpMethod.GET, null, responseType);
     }
@@ -157,6 +222,17 @@ public class HoaxControllerTest {
         return testRestTemplate.exchange(path, HttpMethod.GET, null, responseType);
     }
 
+    // Paginación por cursor. La query se añade tal cual a la ruta
+    public <T> ResponseEntity<T> getHoaxesByCursor(String query, ParameterizedTypeReference<T> responseType) {
+        return testRestTemplate.exchange(API_1_0_HOAXES + "?" + query, HttpMethod.GET, null, responseType);
+    }
+
+    public <T> ResponseEntity<T> getHoaxesOfUserByCursor(String username, String query,
+                                                         ParameterizedTypeReference<T> responseType) {
+        String path = "/api/1.0/users/" + username + "/hoaxes?" + query;
+        return testRestTemplate.exchange(path, HttpMethod.GET, null, responseType);
+    }
+
     public <T> ResponseEntity<T> deleteHoax(long hoaxId, Class<T> responseType) {
         return testRestTemplate.exchange(API_1_0_HOAXES + "/" + hoaxId, HttpMethod.DELETE, null, responseType);
     }
@@ -358,9 +434,9 @@ public class HoaxControllerTest {
     @Test
     void getHoaxes_whenThereAreHoaxes_receivePageWithItems() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
 
         // En este test se produce un bucle infinito cuando tratamos de construir el JSON a partir del objeto Hoax.
         // Cuando se obtiene el objeto Hoax, Spring pide a Jackson que lo convierta en JSON, y cuando lo hace,
@@ -382,7 +458,7 @@ public class HoaxControllerTest {
     @Test
     void getHoaxes_whenThereAreHoaxes_receivePageWithHoaxVM() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
 
         ResponseEntity<TestPage<HoaxVM>> response = getHoaxes(new ParameterizedTypeReference<TestPage<HoaxVM>>() {});
         HoaxVM storedHoax = response.getBody().getContent().get(0);
@@ -399,6 +475,17 @@ public class HoaxControllerTest {
         assertThat(response.getBody().getUser().getUsername()).isEqualTo("user1");
     }
 
+    // El autor de la respuesta sale del usuario autenticado, el hoax solo guarda una referencia a la entidad
+    @Test
+    void postHoax_whenHoaxIsValidAndUserIsAuthorized_receiveHoaxVMWithAuthorDisplayName() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+
+        ResponseEntity<HoaxVM> response = postHoax(TestUtil.createValidHoax(), HoaxVM.class);
+
+        assertThat(response.getBody().getUser().getDisplayName()).isEqualTo("test-display");
+    }
+
     // Se va a establecer la relación entre hoax y ficheros adjuntados.
     // Desde el lado del cliente se subirá la imagen y se dará la información del archivo almacenado
     // a la petición submit del hoax.
@@ -454,6 +541,248 @@ public class HoaxControllerTest {
         assertThat(response.getBody().getAttachment().getName()).isEqualTo(savedFile.getName());
     }
 
+    @Test
+    void postHoaxes_whenHoaxesAreValidAndUserIsAuthorized_receiveOk() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+
+        ResponseEntity<Object> response = postHoaxes(createValidHoaxes(3), new ParameterizedTypeReference<Object>() {});
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void postHoaxes_whenHoaxesAreValidAndUserIsUnauthorized_receiveUnauthorized() {
+        ResponseEntity<Object> response = postHoaxes(createValidHoaxes(3), new ParameterizedTypeReference<Object>() {});
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    void postHoaxes_whenHoaxesAreValidAndUserIsAuthorized_hoaxesSavedToDatabase() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+
+        postHoaxes(createValidHoaxes(3), new ParameterizedTypeReference<Object>() {});
+        assertThat(hoaxRepository.count()).isEqualTo(3);
+    }
+
+    @Test
+    void postHoaxes_whenHoaxesAreValidAndUserIsAuthorized_receiveIdsInRequestOrder() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+
+        ResponseEntity<List<HoaxBatchResult>> response = postHoaxes(createValidHoaxes(3),
+                new ParameterizedTypeReference<List<HoaxBatchResult>>() {});
+
+        List<Long> ids = response.getBody().stream().map(HoaxBatchResult::getId).collect(Collectors.toList());
+        assertThat(ids).isSorted().containsExactlyElementsOf(hoaxRepository.findAll(Sort.by("id")).stream()
+                .map(Hoax::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void postHoaxes_whenOneHoaxIsInvalid_receiveValidationErrorsForThatHoax() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        List<Hoax> hoaxes = createValidHoaxes(3);
+        hoaxes.get(1).setContent("123456789");
+
+        ResponseEntity<List<HoaxBatchResult>> response = postHoaxes(hoaxes,
+                new ParameterizedTypeReference<List<HoaxBatchResult>>() {});
+
+        assertThat(response.getBody().get(1).getValidationErrors().get("content")).isNotNull();
+    }
+
+    @Test
+    void postHoaxes_whenOneHoaxIsInvalid_validHoaxesSavedToDatabase() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        List<Hoax> hoaxes = createValidHoaxes(3);
+        hoaxes.get(1).setContent(null);
+
+        postHoaxes(hoaxes, new ParameterizedTypeReference<Object>() {});
+
+        assertThat(hoaxRepository.count()).isEqualTo(2);
+    }
+
+    @Test
+    void postHoaxes_whenBatchIsEmpty_receiveBadRequest() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+
+        ResponseEntity<Object> response = postHoaxes(Collections.emptyList(), new ParameterizedTypeReference<Object>() {});
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void postHoaxes_whenBatchExceedsMaxSize_receiveBadRequest() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+
+        ResponseEntity<Object> response = postHoaxes(createValidHoaxes(appConfiguration.getHoaxBatchMaxSize() + 1),
+                new ParameterizedTypeReference<Object>() {});
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void postHoaxes_whenHoaxHasFileAttachment_fileAttachmentHoaxRelationIsUpdatedInDatabase() throws IOException {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        FileAttachment savedFile = fileService.saveAttachment(createFile());
+        List<Hoax> hoaxes = createValidHoaxes(2);
+        hoaxes.get(1).setAttachment(savedFile);
+
+        ResponseEntity<List<HoaxBatchResult>> response = postHoaxes(hoaxes,
+                new ParameterizedTypeReference<List<HoaxBatchResult>>() {});
+
+        FileAttachment inDB = fileAttachmentRepository.findAll().get(0);
+        assertThat(inDB.getHoax().getId()).isEqualTo(response.getBody().get(1).getId());
+    }
+
+    @Test
+    void postHoaxes_whenAttachmentDoesNotExist_receiveErrorForThatHoax() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        List<Hoax> hoaxes = createValidHoaxes(3);
+        FileAttachment unknown = new FileAttachment();
+        unknown.setId(5L);
+        hoaxes.get(1).setAttachment(unknown);
+
+        ResponseEntity<List<HoaxBatchResult>> response = postHoaxes(hoaxes,
+                new ParameterizedTypeReference<List<HoaxBatchResult>>() {});
+
+        assertThat(response.getBody().get(1).getId()).isNull();
+        assertThat(response.getBody().get(1).getValidationErrors().get("attachment")).isNotNull();
+    }
+
+    @Test
+    void postHoaxes_whenAttachmentDoesNotExist_otherHoaxesSavedToDatabase() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        List<Hoax> hoaxes = createValidHoaxes(3);
+        FileAttachment unknown = new FileAttachment();
+        unknown.setId(5L);
+        hoaxes.get(1).setAttachment(unknown);
+
+        ResponseEntity<List<HoaxBatchResult>> response = postHoaxes(hoaxes,
+                new ParameterizedTypeReference<List<HoaxBatchResult>>() {});
+
+        assertThat(hoaxRepository.count()).isEqualTo(2);
+        assertThat(response.getBody().get(0).getId()).isNotNull();
+        assertThat(response.getBody().get(2).getId()).isNotNull();
+    }
+
+    // Autenticación y un único insert por lote JDBC. Por el endpoint de un hoax serían 20 peticiones,
+    // cada una con su autenticación y su insert
+    @Test
+    void postHoaxes_whenHoaxesAreValid_insertsAreSentInOneJdbcBatch() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        Statistics statistics = getStatistics();
+        statistics.clear();
+
+        postHoaxes(createValidHoaxes(20), new ParameterizedTypeReference<Object>() {});
+
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void postHoaxes_whenHoaxesAreSaved_hoaxesAreAddedToFeedCache() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+
+        postHoaxes(createValidHoaxes(3), new ParameterizedTypeReference<Object>() {});
+
+        assertThat(hoaxFeedCache.getLatest(3).get()).hasSize(3);
+    }
+
+    // Guarda hoaxes de varios usuarios, todos con adjunto, para comprobar que al mapear a HoaxVM no se
+    // lanza una query por cada usuario y adjunto (problema N+1)
+    private void saveHoaxesWithAttachments() throws IOException {
+        for (int i = 1; i <= 3; i++) {
+            User user = userService.save(TestUtil.createValidUser("user" + i));
+            for (int j = 0; j < 2; j++) {
+                Hoax hoax = TestUtil.createValidHoax();
+                hoax.setAttachment(fileService.saveAttachment(createFile()));
+                saveHoax(user, hoax);
+            }
+        }
+        waitForImageVariants();
+    }
+
+    // Las variantes de los adjuntos se guardan en la BD en segundo plano. Hay que esperarlas antes de contar
+    // sentencias
+    private void waitForImageVariants() {
+        TestUtil.waitUntil(() -> imageVariantGenerator.getPendingCount() == 0);
+    }
+
+    private Statistics getStatistics() {
+        return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    // Al enlazar el adjunto con el hoax no se pierden las variantes que ya se hayan guardado
+    @Test
+    void getHoaxes_whenHoaxHasImageAttachment_receiveAttachmentVariantNames() throws IOException {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        FileAttachment savedFile = fileService.saveAttachment(createFile());
+        waitForImageVariants();
+        Hoax hoax = TestUtil.createValidHoax();
+        hoax.setAttachment(savedFile);
+        postHoax(hoax, Object.class);
+
+        ResponseEntity<TestPage<HoaxVM>> response = getHoaxes(new ParameterizedTypeReference<TestPage<HoaxVM>>() {});
+
+        FileAttachmentVM attachment = response.getBody().getContent().get(0).getAttachment();
+        assertThat(attachment.getVariants().get(40)).isEqualTo(ImageVariants.name(savedFile.getName(), 40));
+    }
+
+    // Con la página y el count(*) son dos sentencias, da igual cuántos hoaxes haya
+    @Test
+    void getHoaxes_whenHoaxesHaveUsersAndAttachments_executesFixedNumberOfStatements() throws IOException {
+        saveHoaxesWithAttachments();
+        Statistics statistics = getStatistics();
+        statistics.clear();
+
+        getHoaxes(new ParameterizedTypeReference<TestPage<HoaxVM>>() {});
+
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+    }
+
+    // Búsqueda del usuario, página y count(*)
+    @Test
+    void getHoaxesOfUser_whenHoaxesHaveAttachments_executesFixedNumberOfStatements() throws IOException {
+        saveHoaxesWithAttachments();
+        Statistics statistics = getStatistics();
+        statistics.clear();
+
+        getHoaxesOfUser("user1", new ParameterizedTypeReference<TestPage<HoaxVM>>() {});
+
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(3);
+    }
+
+    @Test
+    void getOldHoaxes_whenHoaxesHaveUsersAndAttachments_executesFixedNumberOfStatements() throws IOException {
+        saveHoaxesWithAttachments();
+        Statistics statistics = getStatistics();
+        statistics.clear();
+
+        getOldHoaxes(Long.MAX_VALUE, new ParameterizedTypeReference<TestPage<HoaxVM>>() {});
+
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void getHoaxesByCursor_whenHoaxesHaveUsersAndAttachments_executesSingleStatement() throws IOException {
+        saveHoaxesWithAttachments();
+        Hoax newest = hoaxRepository.findAll().stream().reduce((first, second) -> second).get();
+        Statistics statistics = getStatistics();
+        statistics.clear();
+
+        String query = "cursor=" + HoaxCursor.encode(newest.getId() + 1) + "&size=10";
+        getHoaxesByCursor(query, new ParameterizedTypeReference<CursorPage<HoaxVM>>() {});
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
     private MultipartFile createFile() throws IOException {
         ClassPathResource imageResource = new ClassPathResource("profile.png");
         byte[] fileAsByte = FileUtils.readFileToByteArray(imageResource.getFile());
@@ -486,7 +815,7 @@ public class HoaxControllerTest {
     @Test
     void getHoaxesOfUser_whenUserExistWithHoax_receivePageWithHoaxVM() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
 
         ResponseEntity<TestPage<HoaxVM>> response =
                 getHoaxesOfUser("user1", new ParameterizedTypeReference<TestPage<HoaxVM>>() {});
@@ -497,9 +826,9 @@ public class HoaxControllerTest {
     @Test
     void getHoaxesOfUser_whenUserExistWithMultipleHoaxes_receivePageWithMatchingHoaxesCount() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
 
         ResponseEntity<TestPage<HoaxVM>> response =
                 getHoaxesOfUser("user1", new ParameterizedTypeReference<TestPage<HoaxVM>>() {});
@@ -512,12 +841,12 @@ public class HoaxControllerTest {
     void getHoaxesOfUser_whenMultipleUserExistWithMultipleHoaxes_receivePageWithMatchingHoaxesCount() {
         User userWithThreeHoaxes = userService.save(TestUtil.createValidUser("user1"));
         IntStream.rangeClosed(1, 3).forEach(i -> {
-            hoaxService.save(userWithThreeHoaxes, TestUtil.createValidHoax());
+            saveHoax(userWithThreeHoaxes);
         });
 
         User userWithFiveHoaxes = userService.save(TestUtil.createValidUser("user2"));
         IntStream.rangeClosed(1, 5).forEach(i -> {
-            hoaxService.save(userWithFiveHoaxes, TestUtil.createValidHoax());
+            saveHoax(userWithFiveHoaxes);
         });
 
         ResponseEntity<TestPage<HoaxVM>> response =
@@ -535,11 +864,11 @@ public class HoaxControllerTest {
     @Test
     void getOldHoaxes_whenThereAreHoaxes_receivePageWithItemsBeforeProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         ResponseEntity<TestPage<Object>> response =
                 getOldHoaxes(fourth.getId(), new ParameterizedTypeReference<TestPage<Object>>() {});
@@ -552,11 +881,11 @@ public class HoaxControllerTest {
     @Test
     void getOldHoaxes_whenThereAreHoaxes_receivePageWithHoaxVMBeforeProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         ResponseEntity<TestPage<HoaxVM>> response =
                 getOldHoaxes(fourth.getId(), new ParameterizedTypeReference<TestPage<HoaxVM>>() {});
@@ -575,11 +904,11 @@ public class HoaxControllerTest {
     @Test
     void getOldHoaxesOfUser_whenUserExistAndThereAreHoaxes_receivePageWithItemsProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         ResponseEntity<TestPage<Object>> response =
                 getOldHoaxesOfUser(fourth.getId(), "user1", new ParameterizedTypeReference<TestPage<Object>>() {});
@@ -592,11 +921,11 @@ public class HoaxControllerTest {
     @Test
     void getOldHoaxesOfUser_whenUserExistAndThereAreHoaxes_receivePageWithHoaxVMBeforeProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         ResponseEntity<TestPage<HoaxVM>> response =
                 getOldHoaxesOfUser(fourth.getId(), "user1", new ParameterizedTypeReference<TestPage<HoaxVM>>() {});
@@ -616,11 +945,11 @@ public class HoaxControllerTest {
     @Test
     void getOldHoaxesOfUser_whenUserExistAndThereAreNoHoaxes_receivePageWitZeroItemsBeforeProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         userService.save(TestUtil.createValidUser("user2"));
 
@@ -633,11 +962,11 @@ public class HoaxControllerTest {
     @Test
     void getNewHoaxes_whenThereAreHoaxes_receiveListOfItemsAfterProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         ResponseEntity<List<Object>> response =
                 getNewHoaxes(fourth.getId(), new ParameterizedTypeReference<List<Object>>() {});
@@ -653,11 +982,11 @@ public class HoaxControllerTest {
     @Test
     void getNewHoaxes_whenThereAreHoaxes_receiveListOfHoaxVMAfterProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         ResponseEntity<List<HoaxVM>> response =
                 getNewHoaxes(fourth.getId(), new ParameterizedTypeReference<List<HoaxVM>>() {});
@@ -676,11 +1005,11 @@ public class HoaxControllerTest {
     @Test
     void getNewHoaxesOfUser_whenUserExistAndThereAreHoaxes_receiveListWithItemsAfterProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         ResponseEntity<List<Object>> response =
                 getNewHoaxesOfUser(fourth.getId(), "user1", new ParameterizedTypeReference<List<Object>>() {});
@@ -696,11 +1025,11 @@ public class HoaxControllerTest {
     @Test
     void getNewHoaxesOfUser_whenUserExistAndThereAreHoaxes_receiveListWithHoaxVMAfterProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         ResponseEntity<List<HoaxVM>> response =
                 getNewHoaxesOfUser(fourth.getId(), "user1", new ParameterizedTypeReference<List<HoaxVM>>() {});
@@ -720,11 +1049,11 @@ public class HoaxControllerTest {
     @Test
     void getNewHoaxesOfUser_whenUserExistAndThereAreNoHoaxes_receiveListWitZeroItemsAfterProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         userService.save(TestUtil.createValidUser("user2"));
 
@@ -737,11 +1066,11 @@ public class HoaxControllerTest {
     @Test
     void getNewHoaxCount_whenThereAreHoaxes_receiveCountAfterProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         // Por ahora no definimos un modelo para el body response. Es generalista
         ResponseEntity<Map<String, Long>> response =
@@ -753,11 +1082,11 @@ public class HoaxControllerTest {
     @Test
     void getNewHoaxCountOfUser_whenThereAreHoaxes_receiveCountAfterProvidedId() {
         User user = userService.save(TestUtil.createValidUser("user1"));
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
-        Hoax fourth = hoaxService.save(user, TestUtil.createValidHoax());
-        hoaxService.save(user, TestUtil.createValidHoax());
+        saveHoax(user);
+        saveHoax(user);
+        saveHoax(user);
+        Hoax fourth = saveHoax(user);
+        saveHoax(user);
 
         ResponseEntity<Map<String, Long>> response =
                 getNewHoaxCountOfUser(fourth.getId(), "user1", new ParameterizedTypeReference<Map<String, Long>>() {});
@@ -765,6 +1094,158 @@ public class HoaxControllerTest {
         assertThat(response.getBody().get("count")).isEqualTo(1);
     }
 
+    @Test
+    void getHoaxesByCursor_whenCursorIsEmpty_receiveNewestHoaxesFirst() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        IntStream.rangeClosed(1, 4).forEach(i -> saveHoax(user));
+        Hoax newest = saveHoax(user);
+
+        ResponseEntity<CursorPage<HoaxVM>> response =
+                getHoaxesByCursor("cursor=&size=2", new ParameterizedTypeReference<CursorPage<HoaxVM>>() {});
+
+        assertThat(response.getBody().getContent().get(0).getId()).isEqualTo(newest.getId());
+    }
+
+    @Test
+    void getHoaxesByCursor_whenThereAreMoreHoaxes_receiveNextCursor() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        IntStream.rangeClosed(1, 5).forEach(i -> saveHoax(user));
+
+        ResponseEntity<CursorPage<HoaxVM>> response =
+                getHoaxesByCursor("cursor=&size=2", new ParameterizedTypeReference<CursorPage<HoaxVM>>() {});
+
+        assertThat(response.getBody().isHasNext()).isTrue();
+    }
+
+    @Test
+    void getHoaxesByCursor_whenThereAreNoMoreOlderHoaxes_receiveNullNextCursor() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        IntStream.rangeClosed(1, 2).forEach(i -> saveHoax(user));
+
+        ResponseEntity<CursorPage<HoaxVM>> response =
+                getHoaxesByCursor("cursor=&size=5", new ParameterizedTypeReference<CursorPage<HoaxVM>>() {});
+
+        assertThat(response.getBody().getNextCursor()).isNull();
+    }
+
+    @Test
+    void getHoaxesByCursor_whenThereAreNoMoreOlderHoaxes_receivePreviousCursorOfNewestHoax() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        saveHoax(user);
+        Hoax newest = saveHoax(user);
+
+        ResponseEntity<CursorPage<HoaxVM>> response =
+                getHoaxesByCursor("cursor=&size=5", new ParameterizedTypeReference<CursorPage<HoaxVM>>() {});
+
+        assertThat(response.getBody().getPreviousCursor()).isEqualTo(HoaxCursor.encode(newest.getId()));
+    }
+
+    @Test
+    void getHoaxesByCursor_whenDirectionIsAfterAndThereAreNoMoreHoaxes_receiveNextCursorOfNewestHoax() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        Hoax first = saveHoax(user);
+        Hoax newest = saveHoax(user);
+
+        String query = "cursor=" + HoaxCursor.encode(first.getId()) + "&direction=after&size=5";
+        ResponseEntity<CursorPage<HoaxVM>> response =
+                getHoaxesByCursor(query, new ParameterizedTypeReference<CursorPage<HoaxVM>>() {});
+
+        assertThat(response.getBody().getNextCursor()).isEqualTo(HoaxCursor.encode(newest.getId()));
+    }
+
+    @Test
+    void getHoaxesByCursor_whenCursorProvided_receiveHoaxesBeforeCursor() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        saveHoax(user);
+        saveHoax(user);
+        Hoax third = saveHoax(user);
+        saveHoax(user);
+
+        String query = "cursor=" + HoaxCursor.encode(third.getId()) + "&size=5";
+        ResponseEntity<CursorPage<HoaxVM>> response =
+                getHoaxesByCursor(query, new ParameterizedTypeReference<CursorPage<HoaxVM>>() {});
+
+        assertThat(response.getBody().getContent().size()).isEqualTo(2);
+    }
+
+    @Test
+    void getHoaxesByCursor_whenFollowingNextCursor_receiveAllHoaxesWithoutRepetition() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        IntStream.rangeClosed(1, 5).forEach(i -> saveHoax(user));
+
+        ParameterizedTypeReference<CursorPage<HoaxVM>> type = new ParameterizedTypeReference<CursorPage<HoaxVM>>() {};
+        CursorPage<HoaxVM> page = getHoaxesByCursor("cursor=&size=2", type).getBody();
+        List<Long> ids = page.getContent().stream().map(HoaxVM::getId).collect(Collectors.toList());
+        while (page.isHasNext()) {
+            page = getHoaxesByCursor("cursor=" + page.getNextCursor() + "&size=2", type).getBody();
+            page.getContent().forEach(hoax -> ids.add(hoax.getId()));
+        }
+
+        assertThat(ids).doesNotHaveDuplicates().hasSize(5);
+    }
+
+    @Test
+    void getHoaxesByCursor_whenDirectionIsAfter_receiveHoaxesAfterCursorNewestFirst() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        Hoax first = saveHoax(user);
+        Hoax second = saveHoax(user);
+        Hoax third = saveHoax(user);
+        saveHoax(user);
+
+        String query = "cursor=" + HoaxCursor.encode(first.getId()) + "&direction=after&size=2";
+        ResponseEntity<CursorPage<HoaxVM>> response =
+                getHoaxesByCursor(query, new ParameterizedTypeReference<CursorPage<HoaxVM>>() {});
+
+        List<Long> ids = response.getBody().getContent().stream().map(HoaxVM::getId).collect(Collectors.toList());
+        assertThat(ids).containsExactly(third.getId(), second.getId());
+    }
+
+    @Test
+    void getHoaxesByCursor_whenCursorIsInvalid_receiveBadRequest() {
+        ResponseEntity<Object> response =
+                getHoaxesByCursor("cursor=not-a-cursor", new ParameterizedTypeReference<Object>() {});
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void getHoaxesByCursor_whenDirectionIsUnknown_receiveBadRequest() {
+        ResponseEntity<Object> response =
+                getHoaxesByCursor("cursor=&direction=sideways", new ParameterizedTypeReference<Object>() {});
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void getHoaxesByCursor_whenDirectionIsAfterAndThereAreNoNewerHoaxes_receiveNullNextCursor() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        Hoax newest = saveHoax(user);
+
+        String query = "cursor=" + HoaxCursor.encode(newest.getId()) + "&direction=after&size=5";
+        ResponseEntity<CursorPage<HoaxVM>> response =
+                getHoaxesByCursor(query, new ParameterizedTypeReference<CursorPage<HoaxVM>>() {});
+
+        assertThat(response.getBody().getNextCursor()).isNull();
+    }
+
+    @Test
+    void getHoaxesOfUserByCursor_whenUserDoesNotExist_receiveNotFound() {
+        ResponseEntity<Object> response =
+                getHoaxesOfUserByCursor("unknown-user", "cursor=", new ParameterizedTypeReference<Object>() {});
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void getHoaxesOfUserByCursor_whenMultipleUsersHaveHoaxes_receiveOnlyHoaxesOfUser() {
+        User user1 = userService.save(TestUtil.createValidUser("user1"));
+        User user2 = userService.save(TestUtil.createValidUser("user2"));
+        IntStream.rangeClosed(1, 3).forEach(i -> saveHoax(user1));
+        IntStream.rangeClosed(1, 2).forEach(i -> saveHoax(user2));
+
+        ResponseEntity<CursorPage<HoaxVM>> response =
+                getHoaxesOfUserByCursor("user2", "cursor=", new ParameterizedTypeReference<CursorPage<HoaxVM>>() {});
+
+        assertThat(response.getBody().getContent().size()).isEqualTo(2);
+    }
+
     @Test
     void deleteHoax_whenUserIsUnauthorized_receiveUnauthorized() {
         // No importa si el hoax existe
@@ -776,7 +1257,7 @@ public class HoaxControllerTest {
     void deleteHoax_whenUserIsAuthorized_receiveOk() {
         User user = userService.save(TestUtil.createValidUser("user1"));
         authenticate("user1");
-        Hoax hoax = hoaxService.save(user, TestUtil.createValidHoax());
+        Hoax hoax = saveHoax(user);
 
         ResponseEntity<Object> response = deleteHoax(hoax.getId(), Object.class);
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
@@ -786,7 +1267,7 @@ public class HoaxControllerTest {
     void deleteHoax_whenUserIsAuthorized_receiveGenericResponse() {
         User user = userService.save(TestUtil.createValidUser("user1"));
         authenticate("user1");
-        Hoax hoax = hoaxService.save(user, TestUtil.createValidHoax());
+        Hoax hoax = saveHoax(user);
 
         ResponseEntity<GenericResponse> response = deleteHoax(hoax.getId(), GenericResponse.class);
         assertThat(response.getBody().getMessage()).isNotNull();
@@ -796,7 +1277,7 @@ public class HoaxControllerTest {
     void deleteHoax_whenUserIsAuthorized_hoaxRemovedFromDatabase() {
         User user = userService.save(TestUtil.createValidUser("user1"));
         authenticate("user1");
-        Hoax hoax = hoaxService.save(user, TestUtil.createValidHoax());
+        Hoax hoax = saveHoax(user);
 
         deleteHoax(hoax.getId(), GenericResponse.class);
         Optional<Hoax> inDB = hoaxRepository.findById(hoax.getId());
@@ -808,7 +1289,7 @@ public class HoaxControllerTest {
         User user = userService.save(TestUtil.createValidUser("user1"));
         authenticate("user1");
         User hoaxOwner = userService.save(TestUtil.createValidUser("hoax-owner"));
-        Hoax hoax = hoaxService.save(hoaxOwner, TestUtil.createValidHoax());
+        Hoax hoax = saveHoax(hoaxOwner);
 
         ResponseEntity<Object> response = deleteHoax(hoax.getId(), Object.class);
         // Para evitar borrar un hoax de otro usuario se pueden implementar las siguientes soluciones:
@@ -824,6 +1305,9 @@ public class HoaxControllerTest {
         //    y la expresión @PreAuthorize en HoaxController.java.
         //
         //    Con la codificación realizada, tenemos automáticamente el return de 403
+        //
+        //    Ahora HoaxSecurityService ya no existe: la comprobación del propietario va en el propio delete
+        //    (ver HoaxService.deleteHoax), que lanza AccessDeniedException y se sigue devolviendo 403.
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
     }
 
@@ -877,8 +1361,259 @@ public class HoaxControllerTest {
         long hoaxId = response.getBody().getId();
         deleteHoax(hoaxId, Object.class);
 
-        String attachmentFolderPath = appConfiguration.getFullAttachmentsPath() + "/" + savedFile.getName();
-        File storedImage = new File(attachmentFolderPath);
+        File storedImage = StorageLayout.sharded(appConfiguration.getFullAttachmentsPath(), savedFile.getName()).toFile();
+        // El borrado lo hace FileOperationExecutor en segundo plano
+        TestUtil.waitUntil(() -> !storedImage.exists());
         assertThat(storedImage.exists()).isFalse();
     }
+
+    @Test
+    void deleteHoax_whenHoaxIsOwnedByAnotherUser_hoaxNotRemovedFromDatabase() {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        User hoaxOwner = userService.save(TestUtil.createValidUser("hoax-owner"));
+        Hoax hoax = saveHoax(hoaxOwner);
+
+        deleteHoax(hoax.getId(), Object.class);
+
+        assertThat(hoaxRepository.findById(hoax.getId()).isPresent()).isTrue();
+    }
+
+    @Test
+    void deleteHoax_whenHoaxIsOwnedByAnotherUser_attachmentNotRemovedFromStorage() throws IOException {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        User hoaxOwner = userService.save(TestUtil.createValidUser("hoax-owner"));
+        FileAttachment savedFile = fileService.saveAttachment(createFile());
+        Hoax hoax = TestUtil.createValidHoax();
+        hoax.setAttachment(savedFile);
+        hoax = saveHoax(hoaxOwner, hoax);
+
+        deleteHoax(hoax.getId(), Object.class);
+
+        File storedImage = StorageLayout.sharded(appConfiguration.getFullAttachmentsPath(), savedFile.getName()).toFile();
+        assertThat(storedImage.exists()).isTrue();
+    }
+
+    // Los dos adjuntos tienen el mismo contenido, así que comparten fichero
+    @Test
+    void deleteHoax_whenAnotherHoaxHasSameAttachmentContent_attachmentNotRemovedFromStorage() throws IOException {
+        userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        Hoax hoax = TestUtil.createValidHoax();
+        hoax.setAttachment(fileService.saveAttachment(createFile()));
+        long hoaxId = postHoax(hoax, HoaxVM.class).getBody().getId();
+        Hoax otherHoax = TestUtil.createValidHoax();
+        FileAttachment otherFile = fileService.saveAttachment(createFile());
+        otherHoax.setAttachment(otherFile);
+        postHoax(otherHoax, Object.class);
+
+        deleteHoax(hoaxId, Object.class);
+
+        File storedImage = StorageLayout.sharded(appConfiguration.getFullAttachmentsPath(), otherFile.getName()).toFile();
+        assertThat(storedImage.exists()).isTrue();
+    }
+
+    // Autenticación, nombre del adjunto, el delete condicionado al propietario y las referencias que quedan
+    // al fichero
+    @Test
+    void deleteHoax_whenHoaxHasAttachment_executesFixedNumberOfStatements() throws IOException {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate("user1");
+        Hoax hoax = TestUtil.createValidHoax();
+        hoax.setAttachment(fileService.saveAttachment(createFile()));
+        hoax = saveHoax(user, hoax);
+        waitForImageVariants();
+        Statistics statistics = getStatistics();
+        statistics.clear();
+
+        deleteHoax(hoax.getId(), Object.class);
+
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(4);
+    }
+
+    // Abre la conexión SSE y devuelve la primera línea que empieza por prefix.
+    // Se lee el evento completo (hasta la línea vacía) antes de cerrar la conexión
+    private CompletableFuture<String> readStreamLine(String path, String prefix) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(testRestTemplate.getRootUri() + path).openConnection();
+        connection.setRequestProperty("Accept", "text/event-stream");
+        connection.setReadTimeout(5000);
+        // Esperamos a tener las cabeceras de la respuesta, para que la suscripción ya esté hecha
+        connection.getResponseCode();
+        return CompletableFuture.supplyAsync(() -> {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String found = null;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (found == null && line.startsWith(prefix)) {
+                        found = line;
+                    }
+                    if (found != null && line.isEmpty()) {
+                        break;
+                    }
+                }
+                return found;
+            } catch (IOException e) {
+                return null;
+            } finally {
+                connection.disconnect();
+            }
+        });
+    }
+
+    @Test
+    void getHoaxStream_whenUserDoesNotExist_receiveNotFound() {
+        ResponseEntity<Object> response = testRestTemplate.getForEntity("/api/1.0/users/unknown-user/hoaxes/stream", Object.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void getHoaxStream_whenConnected_receiveEventStreamContentType() throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(testRestTemplate.getRootUri() + "/api/1.0/hoaxes/stream").openConnection();
+        connection.setRequestProperty("Accept", "text/event-stream");
+        connection.setReadTimeout(5000);
+        try {
+            assertThat(connection.getContentType()).startsWith("text/event-stream");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    void getHoaxStream_whenHoaxIsSaved_receiveHoaxEvent() throws Exception {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        int subscribers = hoaxStreamBroadcaster.getSubscriberCount();
+        CompletableFuture<String> event = readStreamLine(API_1_0_HOAXES + "/stream", "event:");
+        TestUtil.waitUntil(() -> hoaxStreamBroadcaster.getSubscriberCount() > subscribers);
+
+        saveHoax(user);
+
+        assertThat(event.get(5, TimeUnit.SECONDS)).isEqualTo("event:hoax");
+    }
+
+    @Test
+    void getHoaxStream_whenHoaxIsSaved_receiveHoaxIdAsEventId() throws Exception {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        int subscribers = hoaxStreamBroadcaster.getSubscriberCount();
+        CompletableFuture<String> event = readStreamLine(API_1_0_HOAXES + "/stream", "id:");
+        TestUtil.waitUntil(() -> hoaxStreamBroadcaster.getSubscriberCount() > subscribers);
+
+        Hoax hoax = saveHoax(user);
+
+        assertThat(event.get(5, TimeUnit.SECONDS)).isEqualTo("id:" + hoax.getId());
+    }
+
+    @Test
+    void getHoaxStreamOfUser_whenHoaxIsDeleted_receiveDeleteEvent() throws Exception {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        Hoax hoax = saveHoax(user);
+        int subscribers = hoaxStreamBroadcaster.getSubscriberCount();
+        CompletableFuture<String> event = readStreamLine("/api/1.0/users/user1/hoaxes/stream", "event:");
+        TestUtil.waitUntil(() -> hoaxStreamBroadcaster.getSubscriberCount() > subscribers);
+
+        authenticate("user1");
+        testRestTemplate.exchange(API_1_0_HOAXES + "/" + hoax.getId(), HttpMethod.DELETE, null, Object.class);
+
+        assertThat(event.get(5, TimeUnit.SECONDS)).isEqualTo("event:delete");
+    }
+
+    // La petición de long polling se queda esperando, así que se lanza en otro hilo
+    private CompletableFuture<ResponseEntity<List<Object>>> waitForNewHoaxes(String path) {
+        return CompletableFuture.supplyAsync(() -> testRestTemplate.exchange(path, HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Object>>() {}));
+    }
+
+    @Test
+    void getNewHoaxesWithWait_whenThereAreNewerHoaxes_receiveThemWithoutWaiting() throws Exception {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        List<Hoax> hoaxes = IntStream.rangeClosed(1, 4).mapToObj(i -> saveHoax(user))
+                .collect(Collectors.toList());
+
+        ResponseEntity<List<Object>> response = waitForNewHoaxes(API_1_0_HOAXES + "/" + hoaxes.get(1).getId() + "?direction=after&wait=5")
+                .get(2, TimeUnit.SECONDS);
+
+        assertThat(response.getBody().size()).isEqualTo(2);
+    }
+
+    @Test
+    void getNewHoaxesWithWait_whenHoaxIsSavedWhileWaiting_receiveIt() throws Exception {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        Hoax hoax = saveHoax(user);
+        int waiters = newHoaxWaiters.getWaiterCount();
+        CompletableFuture<ResponseEntity<List<Object>>> response = waitForNewHoaxes(API_1_0_HOAXES + "/" + hoax.getId() + "?direction=after&wait=5");
+        TestUtil.waitUntil(() -> newHoaxWaiters.getWaiterCount() > waiters);
+
+        saveHoax(user);
+
+        assertThat(response.get(5, TimeUnit.SECONDS).getBody().size()).isEqualTo(1);
+    }
+
+    @Test
+    void getNewHoaxesWithWait_whenDirectionIsUppercase_receiveHoaxSavedWhileWaiting() throws Exception {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        Hoax hoax = saveHoax(user);
+        int waiters = newHoaxWaiters.getWaiterCount();
+        CompletableFuture<ResponseEntity<List<Object>>> response = waitForNewHoaxes(API_1_0_HOAXES + "/" + hoax.getId() + "?direction=AFTER&wait=5");
+        TestUtil.waitUntil(() -> newHoaxWaiters.getWaiterCount() > waiters);
+
+        saveHoax(user);
+
+        assertThat(response.get(5, TimeUnit.SECONDS).getBody().size()).isEqualTo(1);
+    }
+
+    @Test
+    void getOldHoaxesWithWait_whenThereAreOlderHoaxes_receivePageWithoutWaiting() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        List<Hoax> hoaxes = IntStream.rangeClosed(1, 3).mapToObj(i -> saveHoax(user))
+                .collect(Collectors.toList());
+
+        ResponseEntity<TestPage<Object>> response = testRestTemplate.exchange(API_1_0_HOAXES + "/" + hoaxes.get(2).getId() + "?direction=before&wait=5",
+                HttpMethod.GET, null, new ParameterizedTypeReference<TestPage<Object>>() {});
+
+        assertThat(response.getBody().getTotalElements()).isEqualTo(2);
+    }
+
+    @Test
+    void getNewHoaxesWithWait_whenNoHoaxIsSaved_receiveEmptyListAfterTimeout() throws Exception {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        Hoax hoax = saveHoax(user);
+
+        ResponseEntity<List<Object>> response = waitForNewHoaxes(API_1_0_HOAXES + "/" + hoax.getId() + "?direction=after&wait=1")
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(response.getBody()).isEmpty();
+    }
+
+    @Test
+    void getNewHoaxesOfUserWithWait_whenAnotherUserSavesHoax_receiveEmptyListAfterTimeout() throws Exception {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        User otherUser = userService.save(TestUtil.createValidUser("user2"));
+        Hoax hoax = saveHoax(user);
+        int waiters = newHoaxWaiters.getWaiterCount();
+        CompletableFuture<ResponseEntity<List<Object>>> response = waitForNewHoaxes("/api/1.0/users/user1/hoaxes/" + hoax.getId() + "?direction=after&wait=1");
+        TestUtil.waitUntil(() -> newHoaxWaiters.getWaiterCount() > waiters);
+
+        saveHoax(otherUser);
+
+        assertThat(response.get(5, TimeUnit.SECONDS).getBody()).isEmpty();
+    }
+
+    @Test
+    void getNewHoaxesOfUserWithWait_whenUserDoesNotExist_receiveNotFound() {
+        ResponseEntity<Object> response = testRestTemplate.getForEntity("/api/1.0/users/unknown-user/hoaxes/5?direction=after&wait=1", Object.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void getNewHoaxesWithWait_whenResponseIsSent_waiterIsRemoved() throws Exception {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        Hoax hoax = saveHoax(user);
+        saveHoax(user);
+
+        waitForNewHoaxes(API_1_0_HOAXES + "/" + hoax.getId() + "?direction=after&wait=5").get(5, TimeUnit.SECONDS);
+
+        TestUtil.waitUntil(() -> newHoaxWaiters.getWaiterCount() == 0);
+        assertThat(newHoaxWaiters.getWaiterCount()).isEqualTo(0);
+    }
 }
@@ -0,0 +1,171 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.hoax.HoaxFeedCache;
+import com.jmunoz.hoaxify.hoax.HoaxProjection;
+import com.jmunoz.hoaxify.hoax.HoaxRepository;
+import com.jmunoz.hoaxify.hoax.HoaxVM;
+import com.jmunoz.hoaxify.user.User;
+import com.jmunoz.hoaxify.user.UserUpdatedEvent;
+import com.jmunoz.hoaxify.user.vm.UserVM;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing del buffer en memoria del feed. Igual que en FileServiceTest, se hace un mock del repository
+// para controlar lo que devuelve la carga inicial desde BD.
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class HoaxFeedCacheTest {
+
+    HoaxFeedCache hoaxFeedCache;
+
+    @MockBean
+    HoaxRepository hoaxRepository;
+
+    @BeforeEach
+    void setUp() {
+        AppConfiguration appConfiguration = new AppConfiguration();
+        appConfiguration.setFeedCacheSize(4);
+
+        hoaxFeedCache = new HoaxFeedCache(hoaxRepository, appConfiguration);
+
+        Mockito.when(hoaxRepository.findFeedSliceBefore(Mockito.anyLong(), Mockito.any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(Collections.emptyList()));
+    }
+
+    private HoaxVM createHoaxVM(long id, long userId) {
+        UserVM user = new UserVM();
+        user.setId(userId);
+        user.setUsername("user" + userId);
+
+        HoaxVM hoax = new HoaxVM();
+        hoax.setId(id);
+        hoax.setUser(user);
+        return hoax;
+    }
+
+    private List<Long> ids(List<HoaxVM> hoaxes) {
+        return hoaxes.stream().map(HoaxVM::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    void getLatest_whenAllHoaxesFitInBuffer_returnsHoaxesNewestFirst() {
+        LongStream.rangeClosed(1, 3).forEach(id -> hoaxFeedCache.put(createHoaxVM(id, 1)));
+
+        Optional<List<HoaxVM>> latest = hoaxFeedCache.getLatest(10);
+
+        assertThat(ids(latest.get())).containsExactly(3L, 2L, 1L);
+    }
+
+    @Test
+    void getLatest_whenBufferDoesNotCoverRequestedCount_returnsEmpty() {
+        LongStream.rangeClosed(1, 6).forEach(id -> hoaxFeedCache.put(createHoaxVM(id, 1)));
+
+        Optional<List<HoaxVM>> latest = hoaxFeedCache.getLatest(5);
+
+        assertThat(latest.isPresent()).isFalse();
+    }
+
+    @Test
+    void getLatest_whenDatabaseHasHoaxes_loadsThemOnFirstRead() {
+        HoaxProjection newer = new HoaxProjection(8, "newer", new Date(), 1, "user1", "display1", null, null, null, null, null);
+        HoaxProjection older = new HoaxProjection(7, "older", new Date(), 1, "user1", "display1", null, null, null, null, null);
+        Mockito.when(hoaxRepository.findFeedSliceBefore(Mockito.anyLong(), Mockito.any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(Arrays.asList(newer, older)));
+
+        Optional<List<HoaxVM>> latest = hoaxFeedCache.getLatest(5);
+
+        assertThat(ids(latest.get())).containsExactly(8L, 7L);
+    }
+
+    @Test
+    void getNewerThan_whenIdIsInsideBufferedRange_returnsNewerHoaxes() {
+        LongStream.rangeClosed(1, 6).forEach(id -> hoaxFeedCache.put(createHoaxVM(id, 1)));
+
+        Optional<List<HoaxVM>> newer = hoaxFeedCache.getNewerThan(4);
+
+        assertThat(ids(newer.get())).containsExactly(6L, 5L);
+    }
+
+    @Test
+    void getNewerThan_whenIdIsOlderThanBufferedRange_returnsEmpty() {
+        // Con capacidad 4, al guardar el 5 y el 6 se expulsan el 1 y el 2
+        LongStream.rangeClosed(1, 6).forEach(id -> hoaxFeedCache.put(createHoaxVM(id, 1)));
+
+        Optional<List<HoaxVM>> newer = hoaxFeedCache.getNewerThan(1);
+
+        assertThat(newer.isPresent()).isFalse();
+    }
+
+    @Test
+    void getNewerThan_whenHoaxIsRemoved_doesNotReturnIt() {
+        LongStream.rangeClosed(1, 3).forEach(id -> hoaxFeedCache.put(createHoaxVM(id, 1)));
+
+        hoaxFeedCache.remove(2);
+
+        assertThat(ids(hoaxFeedCache.getNewerThan(0).get())).containsExactly(3L, 1L);
+    }
+
+    @Test
+    void onUserUpdated_whenUserHasBufferedHoaxes_replacesUserData() {
+        hoaxFeedCache.put(createHoaxVM(1, 1));
+        User user = TestUtil.createValidUser("user1");
+        user.setId(1);
+        user.setDisplayName("new-display");
+
+        hoaxFeedCache.onUserUpdated(new UserUpdatedEvent(user));
+
+        HoaxVM hoax = hoaxFeedCache.getNewerThan(0).get().get(0);
+        assertThat(hoax.getUser().getDisplayName()).isEqualTo("new-display");
+    }
+
+    @Test
+    void clear_whenBufferHasHoaxes_reloadsFromDatabaseOnNextRead() {
+        LongStream.rangeClosed(1, 3).forEach(id -> hoaxFeedCache.put(createHoaxVM(id, 1)));
+
+        hoaxFeedCache.clear();
+
+        assertThat(hoaxFeedCache.getLatest(10).get()).isEmpty();
+    }
+
+    // Con ids por tiempo, un hoax puede confirmarse después de otro más nuevo
+    @Test
+    void getLatest_whenHoaxesArePutOutOfOrder_returnsHoaxesNewestFirst() {
+        hoaxFeedCache.put(createHoaxVM(2, 1));
+        hoaxFeedCache.put(createHoaxVM(3, 1));
+        hoaxFeedCache.put(createHoaxVM(1, 1));
+
+        assertThat(ids(hoaxFeedCache.getLatest(10).get())).containsExactly(3L, 2L, 1L);
+    }
+
+    @Test
+    void getLatest_whenNodeIdIsConfigured_returnsEmptyWithoutLoading() {
+        AppConfiguration appConfiguration = new AppConfiguration();
+        appConfiguration.setFeedCacheSize(4);
+        appConfiguration.setNodeId(1);
+        hoaxFeedCache = new HoaxFeedCache(hoaxRepository, appConfiguration);
+        hoaxFeedCache.put(createHoaxVM(1, 1));
+
+        Optional<List<HoaxVM>> latest = hoaxFeedCache.getLatest(10);
+
+        assertThat(latest.isPresent()).isFalse();
+        Mockito.verify(hoaxRepository, Mockito.never()).findFeedSliceBefore(Mockito.anyLong(), Mockito.any(Pageable.class));
+    }
+}
@@ -0,0 +1,258 @@
+package com.jmunoz.hoaxify;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.hoax.HoaxEventStream;
+import com.jmunoz.hoaxify.hoax.HoaxStreamBroadcaster;
+import com.jmunoz.hoaxify.hoax.HoaxVM;
+import com.jmunoz.hoaxify.user.vm.UserVM;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing del reparto de eventos. En vez de conexiones reales se usan HoaxEventStream que guardan lo enviado
+public class HoaxStreamBroadcasterTest {
+
+    HoaxStreamBroadcaster hoaxStreamBroadcaster;
+
+    @BeforeEach
+    void setUp() {
+        AppConfiguration appConfiguration = new AppConfiguration();
+        appConfiguration.setStreamBufferSize(2);
+
+        hoaxStreamBroadcaster = new HoaxStreamBroadcaster(appConfiguration, new ObjectMapper());
+    }
+
+    @AfterEach
+    void cleanup() {
+        hoaxStreamBroadcaster.shutdown();
+    }
+
+    private HoaxVM createHoaxVM(long id, String username) {
+        UserVM user = new UserVM();
+        user.setUsername(username);
+
+        HoaxVM hoax = new HoaxVM();
+        hoax.setId(id);
+        hoax.setUser(user);
+        return hoax;
+    }
+
+    @Test
+    void publishSaved_whenGlobalSubscriberExists_receivesHoaxEvent() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        hoaxStreamBroadcaster.subscribe(null, emitter);
+
+        hoaxStreamBroadcaster.publishSaved(createHoaxVM(1, "user1"));
+
+        TestUtil.waitUntil(() -> emitter.events.size() == 1);
+        assertThat(emitter.events.get(0)).contains("event:hoax", "id:1");
+    }
+
+    @Test
+    void publishSaved_whenUserSubscriberExistsForAnotherUser_receivesNothing() throws InterruptedException {
+        RecordingEmitter emitter = new RecordingEmitter();
+        hoaxStreamBroadcaster.subscribe("user2", emitter);
+
+        hoaxStreamBroadcaster.publishSaved(createHoaxVM(1, "user1"));
+
+        Thread.sleep(100);
+        assertThat(emitter.events).isEmpty();
+    }
+
+    @Test
+    void publishSaved_whenUserSubscriberExistsForSameUser_receivesHoaxEvent() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        hoaxStreamBroadcaster.subscribe("user1", emitter);
+
+        hoaxStreamBroadcaster.publishSaved(createHoaxVM(1, "user1"));
+
+        TestUtil.waitUntil(() -> emitter.events.size() == 1);
+        assertThat(emitter.events).hasSize(1);
+    }
+
+    @Test
+    void publishSaved_whenSeveralHoaxesArePublished_receivesThemInOrder() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        hoaxStreamBroadcaster.subscribe(null, emitter);
+
+        hoaxStreamBroadcaster.publishSaved(createHoaxVM(1, "user1"));
+        TestUtil.waitUntil(() -> emitter.events.size() == 1);
+        hoaxStreamBroadcaster.publishSaved(createHoaxVM(2, "user1"));
+        hoaxStreamBroadcaster.publishSaved(createHoaxVM(3, "user1"));
+
+        TestUtil.waitUntil(() -> emitter.events.size() == 3);
+        assertThat(emitter.events.get(2)).contains("id:3");
+    }
+
+    @Test
+    void publishDeleted_whenGlobalSubscriberExists_receivesDeleteEvent() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        hoaxStreamBroadcaster.subscribe(null, emitter);
+
+        hoaxStreamBroadcaster.publishDeleted(5, "user1");
+
+        TestUtil.waitUntil(() -> emitter.events.size() == 1);
+        assertThat(emitter.events.get(0)).contains("event:delete", "id:5");
+    }
+
+    @Test
+    void publishSaved_whenSubscriberIsTooSlow_subscriberIsEvicted() {
+        BlockingEmitter slow = new BlockingEmitter();
+        hoaxStreamBroadcaster.subscribe(null, slow);
+
+        // El primer evento se queda bloqueado enviándose y los dos siguientes llenan la cola
+        for (long id = 1; id <= 4; id++) {
+            hoaxStreamBroadcaster.publishSaved(createHoaxVM(id, "user1"));
+        }
+        slow.release.countDown();
+
+        assertThat(hoaxStreamBroadcaster.getSubscriberCount()).isEqualTo(0);
+    }
+
+    @Test
+    void publishSaved_whenSubscriberIsTooSlow_otherSubscribersStillReceiveEvents() {
+        BlockingEmitter slow = new BlockingEmitter();
+        hoaxStreamBroadcaster.subscribe(null, slow);
+        RecordingEmitter emitter = new RecordingEmitter();
+        hoaxStreamBroadcaster.subscribe(null, emitter);
+
+        // El cliente rápido vacía su cola antes de cada evento, el lento no
+        for (long id = 1; id <= 4; id++) {
+            hoaxStreamBroadcaster.publishSaved(createHoaxVM(id, "user1"));
+            long received = id;
+            TestUtil.waitUntil(() -> emitter.events.size() == received);
+        }
+
+        slow.release.countDown();
+        assertThat(emitter.events).hasSize(4);
+    }
+
+    // Con un solo hilo, un cliente que nunca lee lo dejaría ocupado para siempre si no se sustituyera
+    private void useSingleDispatchThreadWithWriteTimeout() {
+        hoaxStreamBroadcaster.shutdown();
+        AppConfiguration appConfiguration = new AppConfiguration();
+        appConfiguration.setStreamDispatchThreads(1);
+        appConfiguration.setStreamWriteTimeout(100);
+        hoaxStreamBroadcaster = new HoaxStreamBroadcaster(appConfiguration, new ObjectMapper());
+    }
+
+    @Test
+    void publishSaved_whenSubscriberNeverReads_otherSubscribersStillReceiveEvents() {
+        useSingleDispatchThreadWithWriteTimeout();
+        StuckEmitter stuck = new StuckEmitter();
+        hoaxStreamBroadcaster.subscribe(null, stuck);
+        hoaxStreamBroadcaster.publishSaved(createHoaxVM(1, "user1"));
+        TestUtil.waitUntil(() -> stuck.sending.getCount() == 0);
+        RecordingEmitter emitter = new RecordingEmitter();
+        hoaxStreamBroadcaster.subscribe(null, emitter);
+
+        hoaxStreamBroadcaster.publishSaved(createHoaxVM(2, "user1"));
+
+        TestUtil.waitUntil(() -> emitter.events.size() == 1);
+        stuck.release.countDown();
+        assertThat(emitter.events).hasSize(1);
+    }
+
+    @Test
+    void publishSaved_whenSubscriberNeverReads_subscriberIsEvicted() {
+        useSingleDispatchThreadWithWriteTimeout();
+        StuckEmitter stuck = new StuckEmitter();
+        hoaxStreamBroadcaster.subscribe(null, stuck);
+
+        hoaxStreamBroadcaster.publishSaved(createHoaxVM(1, "user1"));
+
+        TestUtil.waitUntil(() -> hoaxStreamBroadcaster.getSubscriberCount() == 0);
+        stuck.release.countDown();
+        assertThat(hoaxStreamBroadcaster.getSubscriberCount()).isEqualTo(0);
+    }
+
+    @Test
+    void publishSaved_whenSendingFails_subscriberIsEvicted() {
+        hoaxStreamBroadcaster.subscribe(null, new FailingEmitter());
+
+        hoaxStreamBroadcaster.publishSaved(createHoaxVM(1, "user1"));
+
+        TestUtil.waitUntil(() -> hoaxStreamBroadcaster.getSubscriberCount() == 0);
+        assertThat(hoaxStreamBroadcaster.getSubscriberCount()).isEqualTo(0);
+    }
+
+    private static class RecordingEmitter extends HoaxEventStream {
+
+        final List<String> events = new CopyOnWriteArrayList<>();
+
+        RecordingEmitter() {
+            super(0L);
+        }
+
+        @Override
+        public void sendEvent(String event) {
+            events.add(event);
+        }
+    }
+
+    private static class BlockingEmitter extends HoaxEventStream {
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingEmitter() {
+            super(0L);
+        }
+
+        @Override
+        public void sendEvent(String event) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Como un socket que no se vacía: ni complete() ni interrumpir el hilo lo desbloquean
+    private static class StuckEmitter extends HoaxEventStream {
+
+        final CountDownLatch sending = new CountDownLatch(1);
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        StuckEmitter() {
+            super(0L);
+        }
+
+        @Override
+        public void sendEvent(String event) {
+            sending.countDown();
+            boolean interrupted = false;
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class FailingEmitter extends HoaxEventStream {
+
+        FailingEmitter() {
+            super(0L);
+        }
+
+        @Override
+        public void sendEvent(String event) throws IOException {
+            throw new IOException("Broken pipe");
+        }
+    }
+}
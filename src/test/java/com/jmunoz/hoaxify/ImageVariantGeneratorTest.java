@@ -0,0 +1,125 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.file.ImageVariantGenerator;
+import com.jmunoz.hoaxify.file.ImageVariants;
+import com.jmunoz.hoaxify.file.MagicNumbers;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de ImageVariantGenerator. Cada test copia la imagen a una carpeta temporal
+public class ImageVariantGeneratorTest {
+
+    @TempDir
+    Path folder;
+
+    AppConfiguration appConfiguration;
+
+    ImageVariantGenerator imageVariantGenerator;
+
+    @BeforeEach
+    void setUp() {
+        appConfiguration = new AppConfiguration();
+        appConfiguration.setImageVariantWidths(Arrays.asList(40, 200));
+        imageVariantGenerator = new ImageVariantGenerator(appConfiguration);
+    }
+
+    @AfterEach
+    void tearDown() {
+        imageVariantGenerator.shutdown();
+    }
+
+    private Path copyResource(String fileName) throws IOException {
+        Path image = folder.resolve("image");
+        FileUtils.copyFile(new ClassPathResource(fileName).getFile(), image.toFile());
+        return image;
+    }
+
+    // Genera las variantes y espera a que termine. Devuelve lo que se guardaría en la BD
+    private String generate(Path image) {
+        AtomicReference<String> recorded = new AtomicReference<>();
+        imageVariantGenerator.generate(image, recorded::set);
+        TestUtil.waitUntil(() -> imageVariantGenerator.getPendingCount() == 0);
+        return recorded.get();
+    }
+
+    private Path getVariant(Path image, int width) {
+        return image.resolveSibling(ImageVariants.name(image.getFileName().toString(), width));
+    }
+
+    @Test
+    void generate_whenImageIsWiderThanAllWidths_recordsAllWidths() throws IOException {
+        // profile.png mide 600px
+        String recorded = generate(copyResource("profile.png"));
+
+        assertThat(recorded).isEqualTo("40,200");
+    }
+
+    @Test
+    void generate_whenImageIsWiderThanAllWidths_storesVariantsNextToImage() throws IOException {
+        Path image = copyResource("profile.png");
+
+        generate(image);
+
+        assertThat(getVariant(image, 200)).exists();
+    }
+
+    @Test
+    void generate_whenVariantIsCreated_variantHasRequestedWidth() throws IOException {
+        Path image = copyResource("profile.png");
+
+        generate(image);
+
+        assertThat(ImageIO.read(getVariant(image, 40).toFile()).getWidth()).isEqualTo(40);
+    }
+
+    @Test
+    void generate_whenImageIsNarrowerThanWidth_skipsThatWidth() throws IOException {
+        appConfiguration.setImageVariantWidths(Arrays.asList(40, 400));
+        // test-jpg.jpg mide 380px
+        Path image = copyResource("test-jpg.jpg");
+
+        String recorded = generate(image);
+
+        assertThat(recorded).isEqualTo("40");
+    }
+
+    @Test
+    void generate_whenImageIsJpeg_storesVariantAsJpeg() throws IOException {
+        Path image = copyResource("test-jpg.jpg");
+
+        generate(image);
+
+        byte[] variant = Files.readAllBytes(getVariant(image, 40));
+        assertThat(MagicNumbers.detect(variant, 0, variant.length)).isEqualTo("image/jpeg");
+    }
+
+    @Test
+    void generate_whenFileIsNotAnImage_recordsNothing() throws IOException {
+        String recorded = generate(copyResource("test-txt.txt"));
+
+        assertThat(recorded).isNull();
+    }
+
+    @Test
+    void generate_whenFileIsNotAnImage_storesNoVariant() throws IOException {
+        Path image = copyResource("test-txt.txt");
+
+        generate(image);
+
+        assertThat(getVariant(image, 40)).doesNotExist();
+    }
+}
@@ -1,6 +1,8 @@
 package com.jmunoz.hoaxify;
 
+import com.jmunoz.hoaxify.configuration.CredentialCache;
 import com.jmunoz.hoaxify.error.ApiError;
+import com.jmunoz.hoaxify.hoax.HoaxRepository;
 import com.jmunoz.hoaxify.user.User;
 import com.jmunoz.hoaxify.user.UserRepository;
 import com.jmunoz.hoaxify.user.UserService;
@@ -10,12 +12,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.support.BasicAuthenticationInterceptor;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.util.Collections;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.*;
@@ -26,6 +34,8 @@ public class LoginControllerTest {
 
     private static final String API_1_0_LOGIN = "/api/1.0/login";
 
+    private static final String API_1_0_HOAXES = "/api/1.0/hoaxes";
+
     @Autowired
     TestRestTemplate testRestTemplate;
 
@@ -35,9 +45,20 @@ public class LoginControllerTest {
     @Autowired
     UserService userService;
 
+    @Autowired
+    HoaxRepository hoaxRepository;
+
+    @Autowired
+    CredentialCache credentialCache;
+
+    @Autowired
+    PasswordEncoder passwordEncoder;
+
     @BeforeEach
     void setUp() {
+        hoaxRepository.deleteAll();
         userRepository.deleteAll();
+        credentialCache.clear();
         testRestTemplate.getRestTemplate().getInterceptors().clear();
     }
 
@@ -119,7 +140,8 @@ public class LoginControllerTest {
 
         // Ahora obtenemos el cuerpo de la respuesta
         Map<String, Object> body = response.getBody();
-        Integer id = (Integer) body.get("id");
+        // Los ids de TimeOrderedIdGenerator no caben en un int, así que Jackson los lee como Long
+        long id = ((Number) body.get("id")).longValue();
 
         assertThat(id).isEqualTo(inDb.getId());
     }
@@ -175,4 +197,129 @@ public class LoginControllerTest {
 
         assertThat(body.containsKey("password")).isFalse();
     }
+
+    @Test
+    void postLogin_withValidCredentials_receiveAccessToken() {
+        userService.save(TestUtil.createValidUser());
+        authenticate();
+
+        ResponseEntity<Map<String, Object>> response = login(new ParameterizedTypeReference<Map<String, Object>>() {});
+
+        assertThat((String) response.getBody().get("token")).isNotEmpty();
+    }
+
+    private ResponseEntity<Object> postHoax(HttpHeaders headers) {
+        return testRestTemplate.exchange(API_1_0_HOAXES, HttpMethod.POST,
+                new HttpEntity<>(TestUtil.createValidHoax(), headers), Object.class);
+    }
+
+    // El resto de rutas se autentican con el token del login, sin BCrypt
+    @Test
+    void postHoax_withAccessTokenFromLogin_receiveOk() {
+        userService.save(TestUtil.createValidUser());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(TestUtil.login(testRestTemplate, "test-user", "P4ssword"));
+
+        ResponseEntity<Object> response = postHoax(headers);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void postHoax_withBasicCredentials_receiveUnauthorized() {
+        userService.save(TestUtil.createValidUser());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBasicAuth("test-user", "P4ssword");
+
+        ResponseEntity<Object> response = postHoax(headers);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    void postHoax_withTamperedAccessToken_receiveUnauthorized() {
+        userService.save(TestUtil.createValidUser());
+        String token = TestUtil.login(testRestTemplate, "test-user", "P4ssword");
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA"));
+
+        ResponseEntity<Object> response = postHoax(headers);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    // El login recuerda las credenciales ya comprobadas (ver CachingAuthenticationProvider), pero no debe
+    // devolver el usuario de antes de actualizarlo
+    @Test
+    void postLogin_afterUserIsUpdated_receiveUpdatedDisplayName() {
+        User inDb = userService.save(TestUtil.createValidUser());
+        authenticate();
+        login(Object.class);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(TestUtil.login(testRestTemplate, "test-user", "P4ssword"));
+        testRestTemplate.exchange("/api/1.0/users/" + inDb.getId(), HttpMethod.PUT,
+                new HttpEntity<>(Collections.singletonMap("displayName", "new-display"), headers), Object.class);
+
+        ResponseEntity<Map<String, Object>> response = login(new ParameterizedTypeReference<Map<String, Object>>() {});
+
+        assertThat(response.getBody().get("displayName")).isEqualTo("new-display");
+    }
+
+    // Usuario guardado sin pasar por UserService, con el hash que se le indica
+    private User saveWithPasswordHash(String hash) {
+        User user = TestUtil.createValidUser();
+        user.setPassword(hash);
+        return userRepository.save(user);
+    }
+
+    // Los hashes de antes de calibrar el coste no llevan prefijo {bcrypt}
+    @Test
+    void postLogin_withHashWithoutPrefix_receiveOk() {
+        saveWithPasswordHash(new BCryptPasswordEncoder(4).encode("P4ssword"));
+        authenticate();
+
+        ResponseEntity<Object> response = login(Object.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void postLogin_withHashWithoutPrefix_storesCurrentHash() {
+        saveWithPasswordHash(new BCryptPasswordEncoder(4).encode("P4ssword"));
+        authenticate();
+
+        login(Object.class);
+
+        String inDB = userRepository.findByUsername("test-user").getPassword();
+        assertThat(inDB).startsWith("{bcrypt}");
+        assertThat(passwordEncoder.matches("P4ssword", inDB)).isTrue();
+    }
+
+    @Test
+    void postLogin_withHashOfOtherAlgorithm_storesBcryptHash() {
+        saveWithPasswordHash("{pbkdf2}" + new Pbkdf2PasswordEncoder().encode("P4ssword"));
+        authenticate();
+
+        login(Object.class);
+
+        assertThat(userRepository.findByUsername("test-user").getPassword()).startsWith("{bcrypt}");
+    }
+
+    @Test
+    void postLogin_withCurrentHash_keepsStoredHash() {
+        User inDb = userService.save(TestUtil.createValidUser());
+        authenticate();
+
+        login(Object.class);
+
+        assertThat(userRepository.findByUsername("test-user").getPassword()).isEqualTo(inDb.getPassword());
+    }
+
+    @Test
+    void postLogin_withIncorrectPasswordAndHashWithoutPrefix_keepsStoredHash() {
+        String hash = new BCryptPasswordEncoder(4).encode("Other-P4ssword");
+        saveWithPasswordHash(hash);
+        authenticate();
+
+        login(Object.class);
+
+        assertThat(userRepository.findByUsername("test-user").getPassword()).isEqualTo(hash);
+    }
 }
@@ -0,0 +1,77 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.file.MagicNumbers;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de la detección de tipos por firma. Debe dar el mismo tipo que Tika
+public class MagicNumbersTest {
+
+    private byte[] read(String resource) throws IOException {
+        return FileUtils.readFileToByteArray(new ClassPathResource(resource).getFile());
+    }
+
+    private String detect(byte[] bytes) {
+        return MagicNumbers.detect(bytes, 0, bytes.length);
+    }
+
+    @Test
+    void detect_whenPngFileProvided_returnsImagePng() throws IOException {
+        assertThat(detect(read("test-png.png"))).isEqualTo("image/png");
+    }
+
+    @Test
+    void detect_whenJpgFileProvided_returnsImageJpeg() throws IOException {
+        assertThat(detect(read("test-jpg.jpg"))).isEqualTo("image/jpeg");
+    }
+
+    @Test
+    void detect_whenGifFileProvided_returnsImageGif() throws IOException {
+        assertThat(detect(read("test-gif.gif"))).isEqualTo("image/gif");
+    }
+
+    @Test
+    void detect_whenWebpHeaderProvided_returnsImageWebp() {
+        byte[] header = "RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.US_ASCII);
+        assertThat(detect(header)).isEqualTo("image/webp");
+    }
+
+    @Test
+    void detect_whenPdfHeaderProvided_returnsApplicationPdf() {
+        byte[] header = "%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII);
+        assertThat(detect(header)).isEqualTo("application/pdf");
+    }
+
+    @Test
+    void detect_whenTextFileProvided_returnsNull() throws IOException {
+        assertThat(detect(read("test-txt.txt"))).isNull();
+    }
+
+    @Test
+    void detect_whenBytesAreShorterThanSignature_returnsNull() {
+        byte[] bytes = {(byte) 0x89, 'P', 'N'};
+        assertThat(detect(bytes)).isNull();
+    }
+
+    @Test
+    void detect_whenSignatureIsAtOffset_returnsType() throws IOException {
+        byte[] png = read("test-png.png");
+        byte[] bytes = new byte[png.length + 4];
+        System.arraycopy(png, 0, bytes, 4, png.length);
+
+        assertThat(MagicNumbers.detect(bytes, 4, png.length)).isEqualTo("image/png");
+    }
+
+    // La firma de WebP está en la posición 8, fuera del rango indicado
+    @Test
+    void detect_whenLengthCutsSignature_returnsNull() {
+        byte[] header = "RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.US_ASCII);
+        assertThat(MagicNumbers.detect(header, 0, 10)).isNull();
+    }
+}
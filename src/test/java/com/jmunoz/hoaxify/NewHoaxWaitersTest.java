@@ -0,0 +1,104 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.hoax.NewHoaxWaiters;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de la cola de comprobaciones. Con un único hilo se puede dejar ocupado y ver qué se encola
+public class NewHoaxWaitersTest {
+
+    NewHoaxWaiters newHoaxWaiters;
+
+    CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        newHoaxWaiters = createNewHoaxWaiters(100);
+    }
+
+    private NewHoaxWaiters createNewHoaxWaiters(int queueCapacity) {
+        AppConfiguration appConfiguration = new AppConfiguration();
+        appConfiguration.setLongPollThreads(1);
+        appConfiguration.setLongPollQueueCapacity(queueCapacity);
+        return new NewHoaxWaiters(appConfiguration);
+    }
+
+    @AfterEach
+    void cleanup() {
+        release.countDown();
+        newHoaxWaiters.shutdown();
+    }
+
+    // Deja el único hilo ocupado hasta release, con un cliente de otro feed
+    private void blockExecutor() {
+        CountDownLatch started = new CountDownLatch(1);
+        newHoaxWaiters.await("blocker", 60000, "timeout", () -> {
+            started.countDown();
+            awaitRelease();
+            return Optional.empty();
+        });
+        awaitLatch(started);
+    }
+
+    private void awaitRelease() {
+        awaitLatch(release);
+    }
+
+    // Las tareas se ejecutan en orden en el único hilo: cuando se comprueba este cliente, las anteriores ya han acabado
+    private void awaitQueuedChecks() {
+        CountDownLatch done = new CountDownLatch(1);
+        newHoaxWaiters.await("marker", 60000, "timeout", () -> {
+            done.countDown();
+            return Optional.empty();
+        });
+        awaitLatch(done);
+    }
+
+    private void awaitLatch(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void notifyNewHoax_whenNotifiedManyTimesWhileBusy_feedIsCheckedOnce() {
+        AtomicInteger checks = new AtomicInteger();
+        newHoaxWaiters.await("user1", 60000, "timeout", () -> {
+            checks.incrementAndGet();
+            return Optional.empty();
+        });
+        TestUtil.waitUntil(() -> checks.get() == 1);
+        blockExecutor();
+
+        for (int i = 0; i < 100; i++) {
+            newHoaxWaiters.notifyNewHoax("user1");
+        }
+        release.countDown();
+        awaitQueuedChecks();
+
+        assertThat(checks.get()).isEqualTo(2);
+    }
+
+    @Test
+    void await_whenQueueIsFull_receiveTimeoutResultWithoutWaiting() {
+        newHoaxWaiters.shutdown();
+        newHoaxWaiters = createNewHoaxWaiters(1);
+        blockExecutor();
+        newHoaxWaiters.await("user1", 60000, "timeout", Optional::empty);
+
+        DeferredResult<String> result = newHoaxWaiters.await("user2", 60000, "timeout", Optional::empty);
+
+        assertThat(result.getResult()).isEqualTo("timeout");
+    }
+}
@@ -0,0 +1,59 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.PasswordHashCalibration;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de PasswordHashCalibration, con medidas inventadas: 1 ms con coste 4 y el doble por cada punto más
+public class PasswordHashCalibrationTest {
+
+    IntToLongFunction doubling = strength -> TimeUnit.MILLISECONDS.toNanos(1L << (strength - 4));
+
+    @Test
+    void calibrate_whenTargetIsBetweenStrengths_returnsHighestStrengthUnderTarget() {
+        // 128 ms con coste 11, 256 ms con 12
+        assertThat(PasswordHashCalibration.calibrate(Duration.ofMillis(250), 4, 16, doubling)).isEqualTo(11);
+    }
+
+    @Test
+    void calibrate_whenTargetMatchesStrengthExactly_returnsThatStrength() {
+        assertThat(PasswordHashCalibration.calibrate(Duration.ofMillis(256), 4, 16, doubling)).isEqualTo(12);
+    }
+
+    @Test
+    void calibrate_whenMinStrengthIsSlowerThanTarget_returnsMinStrength() {
+        assertThat(PasswordHashCalibration.calibrate(Duration.ofMillis(1), 10, 16, doubling)).isEqualTo(10);
+    }
+
+    @Test
+    void calibrate_whenTargetAllowsMore_returnsMaxStrength() {
+        assertThat(PasswordHashCalibration.calibrate(Duration.ofSeconds(60), 4, 12, doubling)).isEqualTo(12);
+    }
+
+    // El coste 6 tarda mucho más de lo esperado (4 ms): se queda en 5
+    @Test
+    void calibrate_whenNextStrengthIsSlowerThanEstimated_returnsPreviousStrength() {
+        IntToLongFunction noisy = strength -> strength == 6 ? TimeUnit.MILLISECONDS.toNanos(50) : doubling.applyAsLong(strength);
+
+        assertThat(PasswordHashCalibration.calibrate(Duration.ofMillis(5), 4, 16, noisy)).isEqualTo(5);
+    }
+
+    @Test
+    void calibrate_whenMeasuringIsDone_neverMeasuresAboveTwiceTheTarget() {
+        long[] slowest = {0};
+        IntToLongFunction tracking = strength -> {
+            long nanos = doubling.applyAsLong(strength);
+            slowest[0] = Math.max(slowest[0], nanos);
+            return nanos;
+        };
+
+        PasswordHashCalibration.calibrate(Duration.ofMillis(250), 4, 16, tracking);
+
+        assertThat(slowest[0]).isLessThanOrEqualTo(Duration.ofMillis(500).toNanos());
+    }
+}
@@ -0,0 +1,76 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.AuthUserDetails;
+import com.jmunoz.hoaxify.configuration.RehashingAuthenticationProvider;
+import com.jmunoz.hoaxify.error.PasswordHashingBusyException;
+import com.jmunoz.hoaxify.user.AuthenticatedUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de RehashingAuthenticationProvider. passwordEncoder es un mock que acepta cualquier password y
+// pide rehacer todos los hashes. Solo se programa encode de P4ssword: DaoAuthenticationProvider también codifica
+// un password propio (contra ataques de tiempo) que aquí no importa
+public class RehashingAuthenticationProviderTest {
+
+    PasswordEncoder passwordEncoder;
+
+    UserDetailsPasswordService userDetailsPasswordService;
+
+    RehashingAuthenticationProvider provider;
+
+    @BeforeEach
+    void setUp() {
+        AuthUserDetails user = new AuthUserDetails(new AuthenticatedUser(TestUtil.createValidUser("user1")), "hash");
+        passwordEncoder = Mockito.mock(PasswordEncoder.class);
+        Mockito.when(passwordEncoder.matches(Mockito.any(), Mockito.any())).thenReturn(true);
+        Mockito.when(passwordEncoder.upgradeEncoding(Mockito.any())).thenReturn(true);
+        userDetailsPasswordService = Mockito.mock(UserDetailsPasswordService.class);
+        Mockito.when(userDetailsPasswordService.updatePassword(Mockito.any(), Mockito.any()))
+                .then(invocation -> invocation.getArgument(0));
+
+        provider = new RehashingAuthenticationProvider();
+        provider.setUserDetailsService(username -> user);
+        provider.setPasswordEncoder(passwordEncoder);
+        provider.setUserDetailsPasswordService(userDetailsPasswordService);
+    }
+
+    private Authentication credentials() {
+        return new UsernamePasswordAuthenticationToken("user1", "P4ssword");
+    }
+
+    @Test
+    void authenticate_whenHashNeedsUpgrade_updatesPassword() {
+        Mockito.when(passwordEncoder.encode("P4ssword")).thenReturn("new-hash");
+
+        provider.authenticate(credentials());
+
+        Mockito.verify(userDetailsPasswordService).updatePassword(Mockito.any(UserDetails.class), Mockito.eq("new-hash"));
+    }
+
+    @Test
+    void authenticate_whenPasswordHashingIsBusyDuringUpgrade_returnsAuthenticatedUser() {
+        Mockito.when(passwordEncoder.encode("P4ssword")).thenThrow(new PasswordHashingBusyException("busy"));
+
+        Authentication result = provider.authenticate(credentials());
+
+        assertThat(result.isAuthenticated()).isTrue();
+        assertThat(((AuthUserDetails) result.getPrincipal()).getUsername()).isEqualTo("user1");
+    }
+
+    @Test
+    void authenticate_whenPasswordHashingIsBusyDuringUpgrade_doesNotUpdatePassword() {
+        Mockito.when(passwordEncoder.encode("P4ssword")).thenThrow(new PasswordHashingBusyException("busy"));
+
+        provider.authenticate(credentials());
+
+        Mockito.verify(userDetailsPasswordService, Mockito.never()).updatePassword(Mockito.any(), Mockito.any());
+    }
+}
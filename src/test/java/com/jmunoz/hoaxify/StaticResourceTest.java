@@ -1,6 +1,7 @@
 package com.jmunoz.hoaxify;
 
 import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.file.StorageLayout;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -158,6 +159,19 @@ public class StaticResourceTest {
                 .andExpect(status().isOk());
     }
 
+    // Los ficheros se guardan repartidos en subcarpetas (ver StorageLayout), pero la URL no cambia
+    @Test
+    void getStaticFile_whenImageExistInShardedProfileFolder_receiveOk() throws Exception {
+        String fileName = "profile-picture.png";
+        File source = new ClassPathResource("profile.png").getFile();
+
+        File target = StorageLayout.sharded(appConfiguration.getFullProfileImagesPath(), fileName).toFile();
+        FileUtils.copyFile(source, target);
+
+        mockMvc.perform(get("/images/" + appConfiguration.getProfileImagesFoder() + "/" + fileName))
+                .andExpect(status().isOk());
+    }
+
     // No hace falta hacer nada para que este test funcione porque Spring no puede encontrar el fichero en la
     // carpeta y devuelve por defecto el response 404.
     //
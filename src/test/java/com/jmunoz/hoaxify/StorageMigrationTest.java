@@ -0,0 +1,116 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.file.FileService;
+import com.jmunoz.hoaxify.file.StorageLayout;
+import com.jmunoz.hoaxify.file.StorageMigration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de StorageMigration. Cada test usa una carpeta temporal como upload-path
+public class StorageMigrationTest {
+
+    @TempDir
+    Path uploadPath;
+
+    AppConfiguration appConfiguration;
+
+    StorageMigration storageMigration;
+
+    String folder;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        appConfiguration = new AppConfiguration();
+        appConfiguration.setUploadPath(uploadPath.toString());
+        // Lotes pequeños para que haya varios por hilo
+        appConfiguration.setStorageMigrationBatchSize(3);
+        FileService fileService = new FileService(appConfiguration, null, null, null);
+        storageMigration = new StorageMigration(appConfiguration, fileService);
+        folder = appConfiguration.getFullAttachmentsPath();
+        Files.createDirectories(Paths.get(folder));
+    }
+
+    private List<String> createFlatFiles(int count) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = UUID.randomUUID().toString().replaceAll("-", "");
+            Files.write(StorageLayout.flat(folder, name), new byte[]{(byte) i});
+            names.add(name);
+        }
+        return names;
+    }
+
+    @Test
+    void migrate_whenFlatFilesExist_movesFilesToShardedLayout() throws Exception {
+        List<String> names = createFlatFiles(20);
+
+        storageMigration.migrate(folder);
+
+        for (String name : names) {
+            assertThat(StorageLayout.sharded(folder, name)).exists();
+            assertThat(StorageLayout.flat(folder, name)).doesNotExist();
+        }
+    }
+
+    @Test
+    void migrate_whenFlatFilesExist_keepsContent() throws Exception {
+        String name = createFlatFiles(1).get(0);
+
+        storageMigration.migrate(folder);
+
+        assertThat(Files.readAllBytes(StorageLayout.sharded(folder, name))).containsExactly(0);
+    }
+
+    @Test
+    void migrate_whenFlatFilesExist_returnsMovedCount() throws Exception {
+        createFlatFiles(7);
+
+        assertThat(storageMigration.migrate(folder)).isEqualTo(7);
+    }
+
+    @Test
+    void migrate_whenRunTwice_movesNothingSecondTime() throws Exception {
+        createFlatFiles(7);
+        storageMigration.migrate(folder);
+
+        assertThat(storageMigration.migrate(folder)).isEqualTo(0);
+    }
+
+    // El mismo contenido se volvió a subir después del reparto: sobra la copia antigua
+    @Test
+    void migrate_whenFileAlreadyInShardedLayout_removesFlatCopy() throws Exception {
+        String name = createFlatFiles(1).get(0);
+        Path sharded = StorageLayout.sharded(folder, name);
+        Files.createDirectories(sharded.getParent());
+        Files.write(sharded, new byte[]{0});
+
+        storageMigration.migrate(folder);
+
+        assertThat(StorageLayout.flat(folder, name)).doesNotExist();
+        assertThat(sharded).exists();
+    }
+
+    @Test
+    void bindTo_whenFilesAreMoved_recordsMigratedCount() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        storageMigration.bindTo(registry);
+        createFlatFiles(4);
+
+        storageMigration.migrate(folder);
+
+        assertThat(registry.get("hoaxify.storage.migrated").gauge().value()).isEqualTo(4);
+    }
+}
@@ -2,6 +2,12 @@ package com.jmunoz.hoaxify;
 
 import com.jmunoz.hoaxify.hoax.Hoax;
 import com.jmunoz.hoaxify.user.User;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+
+import java.util.Map;
+import java.util.function.BooleanSupplier;
 
 public class TestUtil {
 
@@ -28,4 +34,42 @@ public class TestUtil {
 
         return hoax;
     }
+
+    // Para código que se ejecuta en segundo plano. Espera como mucho 5 segundos a que se cumpla la condición
+    public static void waitUntil(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Basic solo vale para /login. Este interceptor hace login al crearlo, o en la primera petición si el usuario
+    // todavía no existía, y manda el token en cada petición. Si el login falla, la petición va sin autenticar,
+    // como iba antes con unas credenciales Basic incorrectas.
+    // Hacer el login al crearlo deja fuera de los tests que cuentan sentencias SQL las consultas del login
+    public static ClientHttpRequestInterceptor authenticateWithToken(TestRestTemplate testRestTemplate,
+                                                                     String username, String password) {
+        String[] token = {login(testRestTemplate, username, password)};
+        return (request, body, execution) -> {
+            if (token[0] == null) {
+                token[0] = login(testRestTemplate, username, password);
+            }
+            if (token[0] != null) {
+                request.getHeaders().setBearerAuth(token[0]);
+            }
+            return execution.execute(request, body);
+        };
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static String login(TestRestTemplate testRestTemplate, String username, String password) {
+        ResponseEntity<Map> response = testRestTemplate.withBasicAuth(username, password)
+                .postForEntity("/api/1.0/login", null, Map.class);
+        return response.getStatusCode().is2xxSuccessful() ? (String) response.getBody().get("token") : null;
+    }
 }
@@ -0,0 +1,70 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.shared.TimeOrderedIdGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing del generador de ids. Se le pasa la hora para simular el reloj
+public class TimeOrderedIdGeneratorTest {
+
+    // Mayor entero que JavaScript representa sin perder precisión
+    private static final long MAX_SAFE_INTEGER = (1L << 53) - 1;
+
+    TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(3);
+
+    @Test
+    void nextId_whenCalledRepeatedly_returnsIncreasingIds() {
+        long now = System.currentTimeMillis();
+        List<Long> ids = LongStream.range(0, 1000).map(i -> generator.nextId(now)).boxed().collect(Collectors.toList());
+        assertThat(ids).isSorted().doesNotHaveDuplicates();
+    }
+
+    @Test
+    void nextId_whenClockGoesBackwards_returnsIncreasingId() {
+        long now = System.currentTimeMillis();
+        long first = generator.nextId(now);
+        long second = generator.nextId(now - 10000);
+        assertThat(second).isGreaterThan(first);
+    }
+
+    @Test
+    void nextId_whenTimeAdvances_returnsIdGreaterThanPreviousNode() {
+        long now = System.currentTimeMillis();
+        long fromOtherNode = new TimeOrderedIdGenerator(15).nextId(now);
+        long id = generator.nextId(now + 1000);
+        assertThat(id).isGreaterThan(fromOtherNode);
+    }
+
+    @Test
+    void nextId_whenCalled_returnsIdSafeForJavaScript() {
+        // No se prueba con horas futuras: el último id es compartido y afectaría al resto de tests
+        long id = generator.nextId(System.currentTimeMillis());
+        assertThat(id).isLessThanOrEqualTo(MAX_SAFE_INTEGER);
+    }
+
+    @Test
+    void nextId_whenCalled_includesNode() {
+        long id = generator.nextId(System.currentTimeMillis());
+        assertThat((id >> 8) & TimeOrderedIdGenerator.MAX_NODE).isEqualTo(3);
+    }
+
+    @Test
+    void nextId_whenCalledFromSeveralThreads_returnsUniqueIds() {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, 10000).parallel().forEach(i -> ids.add(generator.nextId(System.currentTimeMillis())));
+        assertThat(ids).hasSize(10000);
+    }
+
+    @Test
+    void constructor_whenNodeIsOutOfRange_throwsIllegalArgumentException() {
+        assertThatThrownBy(() -> new TimeOrderedIdGenerator(16)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,78 @@
+package com.jmunoz.hoaxify;
+
+import com.jmunoz.hoaxify.configuration.AccessToken;
+import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.configuration.TokenService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.*;
+
+// Unit testing de TokenService
+public class TokenServiceTest {
+
+    AppConfiguration appConfiguration;
+
+    TokenService tokenService;
+
+    @BeforeEach
+    void setUp() {
+        appConfiguration = new AppConfiguration();
+        appConfiguration.setTokenSecret(Base64.getEncoder().encodeToString(new byte[32]));
+        tokenService = new TokenService(appConfiguration);
+    }
+
+    @Test
+    void decode_whenTokenIsValid_returnsUser() {
+        String token = tokenService.encode(tokenService.issue(5, "user:with.separators"));
+
+        AccessToken decoded = tokenService.decode(token);
+
+        assertThat(decoded.getUserId()).isEqualTo(5);
+        assertThat(decoded.getUsername()).isEqualTo("user:with.separators");
+    }
+
+    @Test
+    void decode_whenPayloadIsChanged_returnsNull() {
+        String token = tokenService.encode(tokenService.issue(5, "user1"));
+        String signature = token.substring(token.indexOf('.'));
+        String otherPayload = tokenService.encode(tokenService.issue(6, "user1"));
+
+        assertThat(tokenService.decode(otherPayload.substring(0, otherPayload.indexOf('.')) + signature)).isNull();
+    }
+
+    @Test
+    void decode_whenTokenIsExpired_returnsNull() {
+        appConfiguration.setTokenTtl(Duration.ofSeconds(-1));
+        String token = tokenService.encode(tokenService.issue(5, "user1"));
+
+        assertThat(tokenService.decode(token)).isNull();
+    }
+
+    @Test
+    void decode_whenSignedWithOtherSecret_returnsNull() {
+        AppConfiguration other = new AppConfiguration();
+        other.setTokenSecret(Base64.getEncoder().encodeToString(new byte[]{
+                1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+                17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32}));
+        String token = new TokenService(other).encode(tokenService.issue(5, "user1"));
+
+        assertThat(tokenService.decode(token)).isNull();
+    }
+
+    @Test
+    void decode_whenTokenIsMalformed_returnsNull() {
+        assertThat(tokenService.decode("not-a-token")).isNull();
+        assertThat(tokenService.decode("a.b")).isNull();
+    }
+
+    @Test
+    void constructor_whenSecretIsTooShort_throwsIllegalStateException() {
+        appConfiguration.setTokenSecret(Base64.getEncoder().encodeToString(new byte[16]));
+
+        assertThatThrownBy(() -> new TokenService(appConfiguration)).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -1,14 +1,21 @@
 package com.jmunoz.hoaxify;
 
 import com.jmunoz.hoaxify.configuration.AppConfiguration;
+import com.jmunoz.hoaxify.configuration.CredentialCache;
 import com.jmunoz.hoaxify.error.ApiError;
+import com.jmunoz.hoaxify.file.ImageVariantGenerator;
+import com.jmunoz.hoaxify.file.ImageVariants;
+import com.jmunoz.hoaxify.file.StorageLayout;
 import com.jmunoz.hoaxify.shared.GenericResponse;
 import com.jmunoz.hoaxify.user.User;
 import com.jmunoz.hoaxify.user.UserRepository;
 import com.jmunoz.hoaxify.user.UserService;
+import com.jmunoz.hoaxify.user.UsernameCache;
 import com.jmunoz.hoaxify.user.vm.UserUpdateVM;
 import com.jmunoz.hoaxify.user.vm.UserVM;
 import org.apache.commons.io.FileUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -16,15 +23,22 @@ import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.support.BasicAuthenticationInterceptor;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
 
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -55,14 +69,31 @@ public class UserControllerTest {
     @Autowired
     AppConfiguration appConfiguration;
 
+    @Autowired
+    UsernameCache usernameCache;
+
+    @Autowired
+    CredentialCache credentialCache;
+
+    @Autowired
+    ImageVariantGenerator imageVariantGenerator;
+
+    @PersistenceUnit
+    private EntityManagerFactory entityManagerFactory;
+
     @BeforeEach
     void cleanup() {
         userRepository.deleteAll();
+        // Los usuarios se borran directamente en BD, así que las cachés de usernames y de credenciales se quedan obsoletas
+        usernameCache.clear();
+        credentialCache.clear();
         testRestTemplate.getRestTemplate().getInterceptors().clear();
     }
 
     @AfterEach
     void tearDown() throws IOException {
+        // Las variantes de las imágenes se generan en segundo plano y escriben en las carpetas que se limpian
+        TestUtil.waitUntil(() -> imageVariantGenerator.getPendingCount() == 0);
         FileUtils.cleanDirectory(new File(appConfiguration.getFullProfileImagesPath()));
         FileUtils.cleanDirectory(new File(appConfiguration.getFullAttachmentsPath()));
     }
@@ -91,7 +122,8 @@ public class UserControllerTest {
 
     private boolean authenticate(String username) {
         return testRestTemplate
-                .getRestTemplate().getInterceptors().add(new BasicAuthenticationInterceptor(username, "P4ssword"));
+                .getRestTemplate().getInterceptors()
+                .add(TestUtil.authenticateWithToken(testRestTemplate, username, "P4ssword"));
     }
 
     // Para los nombres de los tests se va a usar el esquema siguiente:
@@ -471,6 +503,57 @@ public class UserControllerTest {
         assertThat(response.getBody().getMessage().contains("unknown-user")).isTrue();
     }
 
+    @Test
+    void getUserByUsername_whenUserWasAlreadyRequested_doesNotQueryDatabase() {
+        userService.save(TestUtil.createValidUser("user1"));
+        getUser("user1", Object.class);
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        getUser("user1", Object.class);
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(0);
+    }
+
+    @Test
+    void getUserByUsername_whenUnknownUserWasAlreadyRequested_doesNotQueryDatabase() {
+        getUser("unknown-user", Object.class);
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        getUser("unknown-user", Object.class);
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(0);
+    }
+
+    @Test
+    void getUserByUsername_whenUserIsCreatedAfterNotFound_receiveOk() {
+        getUser("user1", Object.class);
+        userService.save(TestUtil.createValidUser("user1"));
+
+        ResponseEntity<Object> response = getUser("user1", Object.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    public <T> ResponseEntity<T> putUserImage(long id, HttpEntity<?> requestEntity, Class<T> responseType) {
+        String path = API_1_0_USERS + "/" + id + "/image";
+        return testRestTemplate.exchange(path, HttpMethod.PUT, requestEntity, responseType);
+    }
+
+    @Test
+    void getUserByUsername_whenUserIsUpdatedAfterRequested_receiveUpdatedDisplayName() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        getUser("user1", UserVM.class);
+        authenticate(user.getUsername());
+        UserUpdateVM updateUser = createValidUserUpdateVM();
+        putUser(user.getId(), new HttpEntity<>(updateUser), Object.class);
+
+        ResponseEntity<UserVM> response = getUser("user1", UserVM.class);
+
+        assertThat(response.getBody().getDisplayName()).isEqualTo(updateUser.getDisplayName());
+    }
+
     @Test
     void putUser_whenUnauthorizedUserSendsTheRequest_receiveUnauthorized() {
         ResponseEntity<Object> response = putUser(123, null, Object.class);
@@ -574,11 +657,9 @@ public class UserControllerTest {
     void putUser_withValidRequestBodyWithSupportedImageFromAuthorizedUser_receiveUserVMWithRandomImageName() throws IOException {
         User user = userService.save(TestUtil.createValidUser("user1"));
         authenticate(user.getUsername());
-        UserUpdateVM updateUser = createValidUserUpdateVM();
-        String imageString = readFileToBase64("profile.png");
-        updateUser.setImage(imageString);
+        Map<String, Object> updateUser = createValidUserUpdateBody("profile.png");
 
-        HttpEntity<UserUpdateVM> requestEntity = new HttpEntity<>(updateUser);
+        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateUser);
         ResponseEntity<UserVM> response = putUser(user.getId(), requestEntity, UserVM.class);
 
         assertThat(response.getBody().getImage()).isNotEqualTo("profile-image.png");
@@ -589,18 +670,14 @@ public class UserControllerTest {
     void putUser_withValidRequestBodyWithSupportedImageFromAuthorizedUser_ImageIsStoredUnderProfileFolder() throws IOException {
         User user = userService.save(TestUtil.createValidUser("user1"));
         authenticate(user.getUsername());
-        UserUpdateVM updateUser = createValidUserUpdateVM();
-        String imageString = readFileToBase64("profile.png");
-        updateUser.setImage(imageString);
+        Map<String, Object> updateUser = createValidUserUpdateBody("profile.png");
 
-        HttpEntity<UserUpdateVM> requestEntity = new HttpEntity<>(updateUser);
+        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateUser);
         ResponseEntity<UserVM> response = putUser(user.getId(), requestEntity, UserVM.class);
 
         String storedImageName = response.getBody().getImage();
 
-        String profilePicturePath = appConfiguration.getFullProfileImagesPath() + "/" + storedImageName;
-
-        File storedImage = new File(profilePicturePath);
+        File storedImage = StorageLayout.sharded(appConfiguration.getFullProfileImagesPath(), storedImageName).toFile();
 
         assertThat(storedImage.exists()).isTrue();
     }
@@ -650,11 +727,9 @@ public class UserControllerTest {
     void putUser_withValidRequestBodyWithJPGImageFromAuthorizedUser_receiveOk() throws IOException {
         User user = userService.save(TestUtil.createValidUser("user1"));
         authenticate(user.getUsername());
-        UserUpdateVM updateUser = createValidUserUpdateVM();
-        String imageString = readFileToBase64("test-jpg.jpg");
-        updateUser.setImage(imageString);
+        Map<String, Object> updateUser = createValidUserUpdateBody("test-jpg.jpg");
 
-        HttpEntity<UserUpdateVM> requestEntity = new HttpEntity<>(updateUser);
+        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateUser);
         ResponseEntity<UserVM> response = putUser(user.getId(), requestEntity, UserVM.class);
 
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
@@ -664,11 +739,9 @@ public class UserControllerTest {
     void putUser_withValidRequestBodyWithGIFImageFromAuthorizedUser_receiveBadRequest() throws IOException {
         User user = userService.save(TestUtil.createValidUser("user1"));
         authenticate(user.getUsername());
-        UserUpdateVM updateUser = createValidUserUpdateVM();
-        String imageString = readFileToBase64("test-gif.gif");
-        updateUser.setImage(imageString);
+        Map<String, Object> updateUser = createValidUserUpdateBody("test-gif.gif");
 
-        HttpEntity<UserUpdateVM> requestEntity = new HttpEntity<>(updateUser);
+        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateUser);
         ResponseEntity<Object> response = putUser(user.getId(), requestEntity, Object.class);
 
         // Se resuelve con custom constraint. Ver package shared @interface ProfileImage
@@ -679,11 +752,9 @@ public class UserControllerTest {
     void putUser_withValidRequestBodyWithTXTImageFromAuthorizedUser_receiveValidationErrorForProfileImage() throws IOException {
         User user = userService.save(TestUtil.createValidUser("user1"));
         authenticate(user.getUsername());
-        UserUpdateVM updateUser = createValidUserUpdateVM();
-        String imageString = readFileToBase64("test-txt.txt");
-        updateUser.setImage(imageString);
+        Map<String, Object> updateUser = createValidUserUpdateBody("test-txt.txt");
 
-        HttpEntity<UserUpdateVM> requestEntity = new HttpEntity<>(updateUser);
+        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateUser);
         ResponseEntity<ApiError> response = putUser(user.getId(), requestEntity, ApiError.class);
         Map<String, String> validationErrors = response.getBody().getValidationErrors();
 
@@ -694,23 +765,186 @@ public class UserControllerTest {
     void putUser_withValidRequestBodyWithJPGImageForUserWhoHasImage_removesOldImageFromStorage() throws IOException {
         User user = userService.save(TestUtil.createValidUser("user1"));
         authenticate(user.getUsername());
-        UserUpdateVM updateUser = createValidUserUpdateVM();
-        String imageString = readFileToBase64("test-jpg.jpg");
-        updateUser.setImage(imageString);
+        Map<String, Object> updateUser = createValidUserUpdateBody("test-jpg.jpg");
 
-        HttpEntity<UserUpdateVM> requestEntity = new HttpEntity<>(updateUser);
+        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateUser);
         ResponseEntity<UserVM> response = putUser(user.getId(), requestEntity, UserVM.class);
 
         putUser(user.getId(), requestEntity, UserVM.class);
 
         String storedImageName = response.getBody().getImage();
-        String profilePicturePath = appConfiguration.getFullProfileImagesPath() + "/" + storedImageName;
-        File storedImage = new File(profilePicturePath);
+        File storedImage = StorageLayout.sharded(appConfiguration.getFullProfileImagesPath(), storedImageName).toFile();
 
+        // El borrado lo hace FileOperationExecutor en segundo plano
+        TestUtil.waitUntil(() -> !storedImage.exists());
         assertThat(storedImage.exists()).isFalse();
 
     }
 
+    @Test
+    void putUser_withImageLargerThanProfileImageMaxSize_receivePayloadTooLarge() throws IOException {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+        Map<String, Object> updateUser = createValidUserUpdateBody("profile.png");
+        // El tamaño máximo del perfil test es 64KB
+        byte[] largeImage = Arrays.copyOf(FileUtils.readFileToByteArray(new ClassPathResource("profile.png").getFile()),
+                65 * 1024);
+        updateUser.put("image", Base64.getEncoder().encodeToString(largeImage));
+
+        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(updateUser);
+        ResponseEntity<ApiError> response = putUser(user.getId(), requestEntity, ApiError.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    @Test
+    void putUser_withValidRequestBodyWithSupportedImageFromAuthorizedUser_leavesNoTempFile() throws IOException {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+        Map<String, Object> updateUser = createValidUserUpdateBody("profile.png");
+
+        putUser(user.getId(), new HttpEntity<>(updateUser), UserVM.class);
+
+        // El temporal se borra después de escribir la respuesta
+        File tempFolder = new File(appConfiguration.getFullTempPath());
+        TestUtil.waitUntil(() -> tempFolder.list().length == 0);
+        assertThat(tempFolder).isEmptyDirectory();
+    }
+
+    // La imagen no pasa la validación, así que no se guarda. El temporal se borra al terminar la petición
+    @Test
+    void putUser_withValidRequestBodyWithGIFImageFromAuthorizedUser_leavesNoTempFile() throws IOException {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+        Map<String, Object> updateUser = createValidUserUpdateBody("test-gif.gif");
+
+        putUser(user.getId(), new HttpEntity<>(updateUser), Object.class);
+
+        // El temporal se borra después de escribir la respuesta
+        File tempFolder = new File(appConfiguration.getFullTempPath());
+        TestUtil.waitUntil(() -> tempFolder.list().length == 0);
+        assertThat(tempFolder).isEmptyDirectory();
+    }
+
+    // Las variantes se generan en segundo plano después de responder
+    @Test
+    void putUserImage_withImageWiderThanVariantWidths_userReceivesImageVariantNames() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+        ResponseEntity<UserVM> updated = putUserImage(user.getId(), createMultipartImage("profile.png"), UserVM.class);
+        TestUtil.waitUntil(() -> imageVariantGenerator.getPendingCount() == 0);
+
+        ResponseEntity<UserVM> response = getUser("user1", UserVM.class);
+
+        String image = updated.getBody().getImage();
+        assertThat(response.getBody().getImageVariants().get(200)).isEqualTo(ImageVariants.name(image, 200));
+    }
+
+    @Test
+    void putUserImage_withImageWiderThanVariantWidths_variantsAreStoredUnderProfileFolder() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+
+        ResponseEntity<UserVM> response = putUserImage(user.getId(), createMultipartImage("profile.png"), UserVM.class);
+
+        File variant = StorageLayout.sharded(appConfiguration.getFullProfileImagesPath(),
+                ImageVariants.name(response.getBody().getImage(), 40)).toFile();
+        TestUtil.waitUntil(variant::exists);
+        assertThat(variant.exists()).isTrue();
+    }
+
+    @Test
+    void putUserImage_withMultipartPNGImageFromAuthorizedUser_receiveOk() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+
+        ResponseEntity<UserVM> response = putUserImage(user.getId(), createMultipartImage("profile.png"), UserVM.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void putUserImage_withMultipartPNGImageFromAuthorizedUser_imageIsStoredUnderProfileFolder() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+
+        ResponseEntity<UserVM> response = putUserImage(user.getId(), createMultipartImage("profile.png"), UserVM.class);
+
+        File storedImage = StorageLayout.sharded(appConfiguration.getFullProfileImagesPath(), response.getBody().getImage())
+                .toFile();
+        assertThat(storedImage.exists()).isTrue();
+    }
+
+    @Test
+    void putUserImage_withRawJPGImageFromAuthorizedUser_imageIsSavedForUser() throws IOException {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+
+        ResponseEntity<UserVM> response = putUserImage(user.getId(), createRawImage("test-jpg.jpg", "image/jpeg"),
+                UserVM.class);
+
+        User userInDB = userRepository.findByUsername("user1");
+        assertThat(userInDB.getImage()).isEqualTo(response.getBody().getImage());
+    }
+
+    @Test
+    void putUserImage_withRawGIFImageFromAuthorizedUser_receiveValidationErrorForProfileImage() throws IOException {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+
+        ResponseEntity<ApiError> response = putUserImage(user.getId(), createRawImage("test-gif.gif", "image/gif"),
+                ApiError.class);
+
+        assertThat(response.getBody().getValidationErrors().get("image")).isEqualTo("Solo se permiten ficheros PNG y JPG");
+    }
+
+    @Test
+    void putUserImage_withRawImageLargerThanProfileImageMaxSize_receivePayloadTooLarge() throws IOException {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+        byte[] largeImage = Arrays.copyOf(FileUtils.readFileToByteArray(new ClassPathResource("profile.png").getFile()),
+                65 * 1024);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.IMAGE_PNG);
+
+        ResponseEntity<ApiError> response = putUserImage(user.getId(), new HttpEntity<>(largeImage, headers),
+                ApiError.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+    }
+
+    @Test
+    void putUserImage_whenUnauthorizedUserSendsTheRequest_receiveUnauthorized() {
+        ResponseEntity<Object> response = putUserImage(123, createMultipartImage("profile.png"), Object.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    void putUserImage_whenAuthorizedUserSendsImageForAnotherUser_receiveForbidden() {
+        User user = userService.save(TestUtil.createValidUser("user1"));
+        authenticate(user.getUsername());
+
+        ResponseEntity<Object> response = putUserImage(user.getId() + 123, createMultipartImage("profile.png"),
+                Object.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    }
+
+    private HttpEntity<MultiValueMap<String, Object>> createMultipartImage(String fileName) {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("image", new ClassPathResource(fileName));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        return new HttpEntity<>(body, headers);
+    }
+
+    private HttpEntity<byte[]> createRawImage(String fileName, String contentType) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(contentType));
+        return new HttpEntity<>(FileUtils.readFileToByteArray(new ClassPathResource(fileName).getFile()), headers);
+    }
+
     private String readFileToBase64(String fileName) throws IOException {
         ClassPathResource imageResource = new ClassPathResource(fileName);
         byte[] imageArr = FileUtils.readFileToByteArray(imageResource.getFile());
@@ -718,6 +952,14 @@ public class UserControllerTest {
         return imageString;
     }
 
+    // La imagen va en base64 dentro del JSON, como la envía el cliente. En UserUpdateVM ya es un UploadedFile
+    private Map<String, Object> createValidUserUpdateBody(String imageFile) throws IOException {
+        Map<String, Object> updateUser = new HashMap<>();
+        updateUser.put("displayName", "newDisplayName");
+        updateUser.put("image", readFileToBase64(imageFile));
+        return updateUser;
+    }
+
     private UserUpdateVM createValidUserUpdateVM() {
         UserUpdateVM updateUser = new UserUpdateVM();
         updateUser.setDisplayName("newDisplayName");
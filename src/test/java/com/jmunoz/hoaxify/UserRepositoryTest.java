@@ -8,6 +8,8 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.test.context.ActiveProfiles;
 
+import javax.persistence.PersistenceException;
+
 import static org.assertj.core.api.Assertions.*;
 
 // @DataJpaTest
@@ -43,4 +45,28 @@ public class UserRepositoryTest {
         assertThat(inDB).isNull();
     }
 
+    // El índice único de la migración V2 impide repetir username aunque se salte la validación @UniqueUsername
+    @Test
+    public void persist_whenUsernameAlreadyExists_throwsPersistenceException() {
+        testEntityManager.persist(TestUtil.createValidUser());
+
+        assertThatThrownBy(() -> testEntityManager.persistAndFlush(TestUtil.createValidUser()))
+                .isInstanceOf(PersistenceException.class);
+    }
+
+    // hoaxes es lazy y no está en toString, equals ni hashCode: se pueden usar con la entidad ya desconectada
+    @Test
+    public void toString_whenUserIsDetached_doesNotLoadHoaxes() {
+        User user = testEntityManager.persistAndFlush(TestUtil.createValidUser());
+        testEntityManager.clear();
+        User inDB = userRepository.findByUsername("test-user");
+        testEntityManager.detach(inDB);
+
+        assertThatCode(() -> {
+            inDB.toString();
+            inDB.hashCode();
+            inDB.equals(user);
+        }).doesNotThrowAnyException();
+    }
+
 }